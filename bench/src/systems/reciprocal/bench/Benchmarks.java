@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import systems.reciprocal.MassTable;
+import systems.reciprocal.Rs;
+import systems.reciprocal.Series;
+import systems.reciprocal.db.physics.Abundance;
+import systems.reciprocal.db.physics.Isotope;
+import systems.reciprocal.db.physics.Nubase;
+import systems.reciprocal.model.Transform;
+import systems.reciprocal.model.Transform4;
+import systems.reciprocal.model.Tuple;
+import systems.reciprocal.model.TupleBuffer;
+
+/**
+ * Benchmarks for the model and db layers.
+ *
+ * Usage: Benchmarks [-f 0|1] [-w warmup-ms] [-r rounds] [-o results]
+ * [-b baseline] [-t tolerance-%] [filter]
+ *
+ * Each benchmark runs in a JVM of its own; -f 0 runs them all in this one,
+ * which is quicker but lets earlier benchmarks change the compiled code of
+ * later ones.
+ *
+ * Results are printed as tab separated lines: name, ns/op, error %,
+ * bytes/op, collections and collector milliseconds. With -o they are also
+ * written to a file, to record a baseline on this machine. With -b each
+ * result is compared with a baseline, and the exit status is 1 when any
+ * benchmark is slower by more than the tolerance (default 10%) plus the
+ * combined error % of the baseline and this run.
+ *
+ * A baseline is only meaningful on the machine it was recorded on: its
+ * first line names the JVM, processor count and architecture, and -b
+ * refuses one recorded elsewhere with exit status 2. bench/reference.txt
+ * holds results from one development machine for orientation, not for -b.
+ *
+ * @author Bruce Peret
+ */
+public final class Benchmarks {
+
+    private static final String[] ISOTOPE = {
+        "z", "symbol", "isotope", "relative_atomic_mass", "relative_atomic_mass_uncertainty",
+        "isotopic_composition", "isotopic_composition_uncertainty", "standard_atomic_weight",
+        "standard_atomic_weight_uncertainty", "notes", "abundance"};
+    private static final String[] NUBASE = {
+        "a", "z", "x1", "x2", "symbol", "state", "mass_excess", "mass_excess_uncertainty",
+        "excitation_energy", "excitation_energy_uncertainty", "origin_code", "half_life",
+        "production_ratio", "spin", "x3", "x4", "year", "decay_modes"};
+    private static final String[] ABUNDANCE = {
+        "z", "crust_crc", "crust_kl", "crust_g", "crust_at", "crust_awa", "crust_awe",
+        "upper_crust_at", "upper_crust_as", "sea_crc", "sea_kl", "sun_kl", "solar_system_kl",
+        "solar_system_a"};
+    /**
+     * Rows per mapping operation.
+     */
+    private static final int ROWS = 100;
+
+    private Benchmarks() {
+    }
+
+    private static void model(Harness h) {
+        final Random random = new Random(1);
+        final Tuple t4 = new Tuple(1, random.nextDouble(), random.nextDouble(), random.nextDouble());
+        final Tuple t8 = new Tuple(1, 2, 3, 4, 5, 6, 7, 8);
+        final Tuple dest = new Tuple(4);
+        final Tuple angles = new Tuple(1, 0.1, 0.2, 0.3);
+        final Transform a = new Transform().rotate(angles).translate(1, 2, 3, 4);
+        final Transform b = new Transform().scale(2).rotate(new Tuple(1, 0.3, 0.2, 0.1));
+        final Transform4 a4 = new Transform4(a);
+        final Transform4 b4 = new Transform4(b);
+        final Transform4 p4 = new Transform4();
+        final TupleBuffer in = new TupleBuffer(4096);
+        final TupleBuffer out = new TupleBuffer(4096);
+        for (int i = 0; i < in.size(); i++) {
+            in.set(i, 1, random.nextDouble(), random.nextDouble(), random.nextDouble());
+        }
+        h.add("tuple.normalize", bh -> bh.consume(t4.normalize(2)));
+        h.add("tuple.normalize_dest", bh -> bh.consume(t4.normalize(2, dest)));
+        h.add("tuple.project", bh -> bh.consume(t4.project(2)));
+        h.add("tuple.project_dest", bh -> bh.consume(t4.project(2, dest)));
+        h.add("tuple.length4", bh -> bh.consume(t4.length()));
+        h.add("tuple.length8", bh -> bh.consume(t8.length()));
+        h.add("transform.multiply", bh -> bh.consume(new Transform().multiply(a).multiply(b)));
+        h.add("transform.execute", bh -> bh.consume(a.execute(t4)));
+        h.add("transform.execute_dest", bh -> bh.consume(a.execute(t4, dest)));
+        h.add("transform.rotate", bh -> bh.consume(new Transform().rotate(angles)));
+        h.add("transform.chain", bh -> bh.consume(new Transform().scale(2).translate(1, 2, 3, 4).rotate(angles).scale(t4)));
+        h.add("transform4.multiply", bh -> bh.consume(a4.multiply(b4, p4)));
+        h.add("transform4.execute_dest", bh -> bh.consume(a4.execute(t4, dest)));
+        h.add("transform4.chain", bh -> bh.consume(new Transform4().scale(2).translate(1, 2, 3, 4).rotate(angles).scale(t4)));
+        h.add("batch.execute_4096", bh -> bh.consume(a4.executeBatch(in, out)));
+    }
+
+    private static void rs(Harness h) {
+        h.add("rs.standard_mass_sweep", bh -> {
+            double sum = 0;
+            for (int ion = 0; ion <= 10; ion++) {
+                for (int z = 1; z <= Rs.Z_LIMIT; z++) {
+                    sum += Rs.standard_mass(z, ion);
+                }
+            }
+            bh.consume(sum);
+        });
+        h.add("rs.unstable_element_sweep", bh -> {
+            int sum = 0;
+            for (int ion = 0; ion <= 100; ion++) {
+                sum += Rs.unstable_element(ion);
+            }
+            bh.consume(sum);
+        });
+        final MassTable table = MassTable.magnetic();
+        final double[] masses = new double[11 * MassTable.WIDTH];
+        final int[] unstable = new int[table.levels()];
+        h.add("rs.mass_table_sweep", bh -> {
+            double sum = 0;
+            for (int ion = 0; ion <= 10; ion++) {
+                for (int z = 1; z <= Rs.Z_LIMIT; z++) {
+                    sum += table.standard_mass(z, ion);
+                }
+            }
+            bh.consume(sum);
+        });
+        h.add("rs.mass_table_fill", bh -> {
+            for (int ion = 0; ion <= 10; ion++) {
+                table.standard_masses(ion, masses);
+            }
+            bh.consume(masses);
+        });
+        h.add("rs.unstable_table_fill", bh -> bh.consume(table.unstable_elements(unstable)));
+    }
+
+    private static void mapping(Harness h) {
+        final List<Object[]> isotopes = new ArrayList<>();
+        final List<Object[]> nubase = new ArrayList<>();
+        final List<Object[]> abundance = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            int z = 1 + i % Rs.Z_LIMIT;
+            isotopes.add(new Object[]{z, "Xx", 2 * z + i % 3, 2.0 * z + 0.01 * i, 1e-9, 0.5, 1e-3,
+                2.0 * z, 1e-4, i % 5 == 0 ? "g" : null, 0.5});
+            nubase.add(new Object[]{2 * z, z, 10 * z, "0", "Xx", "", -1000.5 + i, 0.5, 0.0, 0.0,
+                "", 1e9, 0.0, "0+", "", "", 2003, "B-=100"});
+            abundance.add(new Object[]{z, 1e-3, 2e-3, 3e-3, 4e-3, 5e-3, 6e-3, 7e-3, 8e-3, 9e-3,
+                1e-4, 2e-4, 3e-4, 4e-4});
+        }
+        h.add("mapping.isotope_100rows", bh -> {
+            ResultSet rs = MemoryResultSet.of(ISOTOPE, isotopes);
+            Isotope last = null;
+            while (rs.next()) {
+                last = new Isotope(rs);
+            }
+            bh.consume(last);
+        });
+        h.add("mapping.nubase_100rows", bh -> {
+            ResultSet rs = MemoryResultSet.of(NUBASE, nubase);
+            Nubase last = null;
+            while (rs.next()) {
+                last = new Nubase(rs);
+            }
+            bh.consume(last);
+        });
+        h.add("mapping.abundance_100rows", bh -> {
+            ResultSet rs = MemoryResultSet.of(ABUNDANCE, abundance);
+            Abundance last = null;
+            while (rs.next()) {
+                last = new Abundance(rs);
+            }
+            bh.consume(last);
+        });
+    }
+
+    private static void series(Harness h) {
+        final Random random = new Random(1);
+        final Series points = new Series(1 << 20);
+        double v = 0;
+        for (int i = 0; i < 1 << 20; i++) {
+            v += random.nextGaussian();
+            points.add(i, v);
+        }
+        h.add("series.lttb_1M", bh -> bh.consume(points.lttb(1000)));
+        h.add("series.min_max_1M", bh -> bh.consume(points.minMax(1000)));
+    }
+
+    /**
+     * @return Header line naming the JVM, processor count and architecture.
+     */
+    private static String machine() {
+        return "# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+            + ", " + Runtime.getRuntime().availableProcessors() + " cpu, " + System.getProperty("os.arch");
+    }
+
+    /**
+     * Read a baseline: ns/op and error % by name.
+     *
+     * @return null if it was not recorded on this machine.
+     */
+    private static Map<String, double[]> baseline(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(machine())) {
+            return null;
+        }
+        Map<String, double[]> ns = new HashMap<>();
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] f = line.split("\t");
+            ns.put(f[0], new double[]{Double.parseDouble(f[1]), f.length > 2 ? Double.parseDouble(f[2]) : 0});
+        }
+        return ns;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int forks = 1;
+        long warmup = 1000;
+        int rounds = 10;
+        double tolerance = 10;
+        Path output = null;
+        Path base = null;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f":
+                    forks = Integer.parseInt(args[++i]);
+                    break;
+                case "-w":
+                    warmup = Long.parseLong(args[++i]);
+                    break;
+                case "-r":
+                    rounds = Integer.parseInt(args[++i]);
+                    break;
+                case "-o":
+                    output = Paths.get(args[++i]);
+                    break;
+                case "-b":
+                    base = Paths.get(args[++i]);
+                    break;
+                case "-t":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    filter = args[i];
+            }
+        }
+        Map<String, double[]> before = null;
+        if (base != null) {
+            before = baseline(base);
+            if (before == null) {
+                System.err.println(base + " was not recorded on this machine (" + machine().substring(2)
+                    + "); record a baseline here with -o");
+                System.exit(2);
+            }
+        }
+        Harness h = new Harness(warmup, rounds, forks > 0 ? Benchmarks.class : null);
+        model(h);
+        rs(h);
+        mapping(h);
+        series(h);
+        System.out.println("# name\tns/op\terror%\tbytes/op\tgc\tgc-ms");
+        List<Harness.Result> results = h.run(Pattern.compile(filter));
+        if (output != null) {
+            List<String> lines = new ArrayList<>();
+            lines.add(machine());
+            lines.add("# name\tns/op\terror%\tbytes/op\tgc\tgc-ms");
+            for (Harness.Result r : results) {
+                lines.add(r.toString());
+            }
+            Files.write(output, lines, StandardCharsets.UTF_8);
+        }
+        if (before != null) {
+            boolean regressed = false;
+            for (Harness.Result r : results) {
+                double[] b = before.get(r.name);
+                if (b == null) {
+                    continue;
+                }
+                double change = 100 * (r.ns - b[0]) / b[0];
+                double allowed = tolerance + Math.sqrt(b[1] * b[1] + r.error * r.error);
+                boolean slower = change > allowed;
+                regressed |= slower;
+                System.out.printf("%s\t%+.1f%%\t(allowed %.1f%%)%s%n", r.name, change, allowed,
+                        slower ? "\tREGRESSION" : "");
+            }
+            if (regressed) {
+                System.exit(1);
+            }
+        }
+    }
+}
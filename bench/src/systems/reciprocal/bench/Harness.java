@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal micro-benchmark harness.
+ *
+ * Each benchmark body is run in batches sized to take about 10 ms. Batches
+ * run for a warm-up period, so the JIT compiler settles, and are then
+ * measured for a fixed number of rounds. For each benchmark it reports time
+ * per operation with its spread over rounds, bytes allocated per operation
+ * from the thread allocation counter, and the collections and collector time
+ * seen while measuring.
+ *
+ * Every body hands its results to a {@link Blackhole}, which has a method
+ * per primitive type so results are not boxed, and which the compiler cannot
+ * see through, so it cannot discard the work.
+ *
+ * Given a main class, each benchmark runs in a JVM of its own, started with
+ * the arguments of {@link Benchmarks} and -f 0, so the profile collected for
+ * one body cannot slow another and results do not depend on run order.
+ *
+ * @author Bruce Peret
+ */
+public final class Harness {
+
+    /**
+     * One operation of a benchmark.
+     */
+    public interface Body {
+
+        /**
+         * @param bh Consumes the results of the operation.
+         * @throws Exception If the operation fails.
+         */
+        void run(Blackhole bh) throws Exception;
+    }
+
+    /**
+     * Consumes benchmark results so the compiler must compute them. The
+     * primitive checks compare with volatile values that never match; an
+     * object is stored now and then, so it escapes and is really allocated.
+     */
+    public static final class Blackhole {
+
+        private volatile double d1 = 1;
+        private volatile double d2 = 2;
+        private volatile long l1 = 1;
+        private volatile long l2 = 2;
+        private int seed = (int) System.nanoTime();
+        private int mask = 1;
+        private Object kept;
+
+        Blackhole() {
+        }
+
+        /**
+         * @param v Result.
+         */
+        public void consume(double v) {
+            if (v == d1 & v == d2) {
+                kept = this;
+            }
+        }
+
+        /**
+         * @param v Result.
+         */
+        public void consume(long v) {
+            if (v == l1 & v == l2) {
+                kept = this;
+            }
+        }
+
+        /**
+         * @param v Result.
+         */
+        public void consume(int v) {
+            consume((long) v);
+        }
+
+        /**
+         * @param o Result.
+         */
+        public void consume(Object o) {
+            int r = seed = seed * 1664525 + 1013904223;
+            if ((r & mask) == 0) {
+                kept = o;
+                mask = (mask << 1) + 1;
+            }
+        }
+    }
+
+    /**
+     * Measurement of one benchmark.
+     */
+    public static final class Result {
+
+        public final String name;
+        public final double ns;
+        public final double error;
+        public final double bytes;
+        public final long gcs;
+        public final long gcMillis;
+
+        Result(String name, double ns, double error, double bytes, long gcs, long gcMillis) {
+            this.name = name;
+            this.ns = ns;
+            this.error = error;
+            this.bytes = bytes;
+            this.gcs = gcs;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * Parse a result line.
+         *
+         * @param line Line written by {@link #toString()}.
+         * @return Measurement.
+         */
+        static Result parse(String line) {
+            String[] f = line.split("\t");
+            if (f.length != 6) {
+                throw new IllegalArgumentException("Not a result: " + line);
+            }
+            return new Result(f[0], Double.parseDouble(f[1]), Double.parseDouble(f[2]),
+                Double.parseDouble(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5]));
+        }
+
+        /**
+         * @return Tab separated name, ns/op, error %, bytes/op, collections
+         * and collector milliseconds.
+         */
+        @Override
+        public String toString() {
+            return String.format("%s\t%.2f\t%.1f\t%.1f\t%d\t%d", name, ns, error, bytes, gcs, gcMillis);
+        }
+    }
+
+    private static final long BATCH_NANOS = 10000000L;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Body> bodies = new ArrayList<>();
+    private final long warmup;
+    private final int rounds;
+    private final Class<?> main;
+    private final Blackhole bh = new Blackhole();
+
+    /**
+     * @param warmup Warm-up time per benchmark, in milliseconds.
+     * @param rounds Measured batches per benchmark.
+     * @param main Class to run each benchmark in a JVM of its own, taking
+     * the arguments of {@link Benchmarks}; null to run them all in this JVM.
+     */
+    public Harness(long warmup, int rounds, Class<?> main) {
+        this.warmup = warmup * 1000000L;
+        this.rounds = rounds;
+        this.main = main;
+    }
+
+    /**
+     * Register a benchmark.
+     *
+     * @param name Unique name, group.case by convention.
+     * @param body Operation to measure.
+     * @return this
+     */
+    public Harness add(String name, Body body) {
+        names.add(name);
+        bodies.add(body);
+        return this;
+    }
+
+    private long batch(Body body, long ops) throws Exception {
+        Blackhole b = bh;
+        long start = System.nanoTime();
+        for (long i = 0; i < ops; i++) {
+            body.run(b);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long allocated(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long[] collections() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    /**
+     * Measure one benchmark.
+     *
+     * @param name Benchmark name.
+     * @param body Operation to measure.
+     * @return Measurement.
+     * @throws Exception If the operation fails.
+     */
+    public Result measure(String name, Body body) throws Exception {
+        long ops = 1;
+        while (batch(body, ops) < BATCH_NANOS / 10 && ops < (1L << 40)) {
+            ops *= 2;
+        }
+        long end = System.nanoTime() + warmup;
+        while (System.nanoTime() < end) {
+            long t = batch(body, ops);
+            if (t < BATCH_NANOS / 2 && ops < (1L << 40)) {
+                ops *= 2;
+            }
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        double[] per = new double[rounds];
+        long[] gc0 = collections();
+        long bytes0 = allocated(threads);
+        for (int r = 0; r < rounds; r++) {
+            per[r] = (double) batch(body, ops) / ops;
+        }
+        long bytes1 = allocated(threads);
+        long[] gc1 = collections();
+        double mean = 0;
+        for (double p : per) {
+            mean += p;
+        }
+        mean /= rounds;
+        double var = 0;
+        for (double p : per) {
+            var += (p - mean) * (p - mean);
+        }
+        double error = rounds > 1 ? 100 * Math.sqrt(var / (rounds - 1)) / mean : 0;
+        double bytes = bytes0 < 0 ? Double.NaN : (double) (bytes1 - bytes0) / (ops * rounds);
+        return new Result(name, mean, error, bytes, gc1[0] - gc0[0], gc1[1] - gc0[1]);
+    }
+
+    /**
+     * Measure every registered benchmark whose name matches a filter.
+     *
+     * @param filter Pattern found in the names to run.
+     * @return Measurements, in registration order.
+     * @throws Exception If an operation fails.
+     */
+    public List<Result> run(Pattern filter) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (filter.matcher(names.get(i)).find()) {
+                Result result = main == null ? measure(names.get(i), bodies.get(i)) : fork(names.get(i));
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Measure one benchmark in a new JVM with the same options and class
+     * path as this one.
+     */
+    private Result fork(String name) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        command.add("-f");
+        command.add("0");
+        command.add("-w");
+        command.add(Long.toString(warmup / 1000000L));
+        command.add("-r");
+        command.add(Integer.toString(rounds));
+        command.add("^" + Pattern.quote(name) + "$");
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        Result result = null;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith(name + "\t")) {
+                    result = Result.parse(line);
+                } else if (!line.startsWith("#")) {
+                    System.err.println(line);
+                }
+            }
+        }
+        int status = process.waitFor();
+        if (status != 0 || result == null) {
+            throw new IllegalStateException("Benchmark " + name + " failed in its JVM, exit status " + status);
+        }
+        return result;
+    }
+}
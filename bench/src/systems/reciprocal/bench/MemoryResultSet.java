@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for a database ResultSet over rows held in memory, so row mapping
+ * can be measured without a server. Supports next, the by-label and
+ * by-index getters for int, double and String, wasNull and close; anything
+ * else throws SQLFeatureNotSupportedException.
+ *
+ * Values are converted as the Postgres driver does: null reads as 0 from
+ * getInt and getDouble, and numbers read through getString as their text.
+ *
+ * @author Bruce Peret
+ */
+final class MemoryResultSet implements InvocationHandler {
+
+    private final Map<String, Integer> columns = new HashMap<>();
+    private final List<Object[]> rows;
+    private int row = -1;
+    private boolean wasNull;
+
+    private MemoryResultSet(String[] names, List<Object[]> rows) {
+        for (int i = 0; i < names.length; i++) {
+            columns.put(names[i], i);
+        }
+        this.rows = rows;
+    }
+
+    /**
+     * A ResultSet positioned before the first of some rows.
+     *
+     * @param names Column labels.
+     * @param rows Values, one array per row in column order.
+     * @return New ResultSet.
+     */
+    static ResultSet of(String[] names, List<Object[]> rows) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new MemoryResultSet(names, rows));
+    }
+
+    private Object value(Object column) throws SQLException {
+        int c;
+        if (column instanceof String) {
+            Integer i = columns.get((String) column);
+            if (i == null) {
+                throw new SQLException("No column " + column);
+            }
+            c = i;
+        } else {
+            c = (Integer) column - 1;
+        }
+        Object v = rows.get(row)[c];
+        wasNull = v == null;
+        return v;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "next":
+                return ++row < rows.size();
+            case "getInt": {
+                Object v = value(args[0]);
+                return v == null ? 0 : ((Number) v).intValue();
+            }
+            case "getDouble": {
+                Object v = value(args[0]);
+                return v == null ? 0.0 : ((Number) v).doubleValue();
+            }
+            case "getString": {
+                Object v = value(args[0]);
+                return v == null ? null : v.toString();
+            }
+            case "getObject":
+                return value(args[0]);
+            case "wasNull":
+                return wasNull;
+            case "close":
+                return null;
+            case "isClosed":
+                return false;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "MemoryResultSet";
+            default:
+                throw new SQLFeatureNotSupportedException(method.getName());
+        }
+    }
+}
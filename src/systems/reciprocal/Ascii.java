@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parsing of fields in ASCII data files straight from their bytes, without
+ * making a String of each line or field.
+ *
+ * Fields are ranges [from, to) of a byte array, and leading and trailing
+ * blanks are ignored.
+ *
+ * @author Bruce Peret
+ */
+public final class Ascii {
+
+    /**
+     * Powers of ten exactly representable as doubles.
+     */
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private Ascii() {
+    }
+
+    private static boolean blank(byte c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * @param b Bytes.
+     * @param from Start of field.
+     * @param to End of field, exclusive.
+     * @return Whether the field is empty or blank.
+     */
+    public static boolean empty(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!blank(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a decimal number, such as -12.5, 3e-7 or 1.0E+10. Up to 15
+     * significant digits with a small exponent, which covers most data, are
+     * converted exactly without allocating; others go through
+     * Double.parseDouble.
+     *
+     * @param b Bytes.
+     * @param from Start of field.
+     * @param to End of field, exclusive.
+     * @return Value, or NaN if the field is not a number.
+     */
+    public static double parseDouble(byte[] b, int from, int to) {
+        while (from < to && blank(b[from])) {
+            from++;
+        }
+        while (to > from && blank(b[to - 1])) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i++] == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean any = false;
+        for (; i < to && b[i] >= '0' && b[i] <= '9'; i++) {
+            any = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b[i] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                scale++;
+                digits++;
+            }
+        }
+        if (i < to && b[i] == '.') {
+            for (i++; i < to && b[i] >= '0' && b[i] <= '9'; i++) {
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b[i] - '0');
+                    scale--;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                } else {
+                    digits++;
+                }
+            }
+        }
+        if (!any) {
+            return Double.NaN;
+        }
+        if (i < to && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean minus = false;
+            if (i < to && (b[i] == '-' || b[i] == '+')) {
+                minus = b[i++] == '-';
+            }
+            int exponent = 0;
+            boolean expDigits = false;
+            for (; i < to && b[i] >= '0' && b[i] <= '9'; i++) {
+                expDigits = true;
+                if (exponent < 10000) {
+                    exponent = exponent * 10 + (b[i] - '0');
+                }
+            }
+            if (!expDigits) {
+                return Double.NaN;
+            }
+            scale += minus ? -exponent : exponent;
+        }
+        if (i != to) {
+            return Double.NaN;
+        }
+        if (digits > 15 || scale < -22 || scale > 22) {
+            return Double.parseDouble(new String(b, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        double value = scale < 0 ? mantissa / POWERS[-scale] : mantissa * POWERS[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a decimal integer.
+     *
+     * @param b Bytes.
+     * @param from Start of field.
+     * @param to End of field, exclusive.
+     * @param missing Value for a field that is not an integer.
+     * @return Value.
+     */
+    public static int parseInt(byte[] b, int from, int to, int missing) {
+        while (from < to && blank(b[from])) {
+            from++;
+        }
+        while (to > from && blank(b[to - 1])) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i++] == '-';
+        }
+        if (i == to) {
+            return missing;
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9' || value > Integer.MAX_VALUE) {
+                return missing;
+            }
+            value = value * 10 + (b[i] - '0');
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? missing : (int) value;
+    }
+
+    /**
+     * Decode a text field.
+     *
+     * @param b Bytes.
+     * @param from Start of field.
+     * @param to End of field, exclusive.
+     * @return Text without surrounding blanks, or null if blank.
+     */
+    public static String string(byte[] b, int from, int to) {
+        while (from < to && blank(b[from])) {
+            from++;
+        }
+        while (to > from && blank(b[to - 1])) {
+            to--;
+        }
+        return from == to ? null : new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs database work off the caller's thread, returning CompletableFutures.
+ *
+ * Work runs on virtual threads where the runtime has them (Java 21 and
+ * later), found by reflection so the library still builds for Java 8, and
+ * on a fixed pool of daemon threads otherwise. Either way no more than
+ * {@link #threads} tasks run at once, which should not exceed the
+ * connection pool size.
+ *
+ * Submissions are bounded too: once {@link #queue} tasks are waiting or
+ * running, a submitter blocks until one finishes, failing with a
+ * RejectedExecutionException after the connection pool timeout.
+ *
+ * Cancelling a task's future before it starts skips it; cancelling it while
+ * it runs cancels the statement it is executing with Statement.cancel().
+ *
+ * @author Bruce Peret
+ */
+public final class AsyncQuery implements AutoCloseable {
+
+    /**
+     * Database work run by a task.
+     *
+     * @param <T> Result type.
+     */
+    public interface Body<T> {
+
+        /**
+         * @param task Task running the work, which supplies its statements.
+         * @return Result.
+         * @throws SQLException
+         */
+        T run(Task<T> task) throws SQLException;
+    }
+
+    /**
+     * Future for submitted work, and the connection and statements the work
+     * uses. The connection is borrowed on the first {@link #prepare} and
+     * returned when the work completes.
+     *
+     * @param <T> Result type.
+     */
+    public static final class Task<T> extends CompletableFuture<T> {
+
+        private Connection connection;
+        private PreparedStatement statement;
+
+        private Task() {
+        }
+
+        /**
+         * Fetch a cached prepared statement on the task's connection, and
+         * make it the statement a cancellation cancels.
+         *
+         * @param sql SQL text of the statement.
+         * @return Cached prepared statement; do not close it.
+         * @throws SQLException if the task has been cancelled.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            if (connection == null) {
+                connection = Database.connection();
+            }
+            PreparedStatement ps = Database.prepare(connection, sql);
+            synchronized (this) {
+                if (isCancelled()) {
+                    throw new SQLException("Query cancelled");
+                }
+                statement = ps;
+            }
+            return ps;
+        }
+
+        /**
+         * Fetch a cached prepared statement and set its parameters.
+         *
+         * @param sql SQL text of the statement.
+         * @param parameters Values of its parameters, in order.
+         * @return Cached prepared statement; do not close it.
+         * @throws SQLException
+         */
+        public PreparedStatement prepare(String sql, Object... parameters) throws SQLException {
+            PreparedStatement ps = prepare(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+            return ps;
+        }
+
+        /**
+         * Cancel the task, and the statement it is executing if it has
+         * started.
+         *
+         * @param mayInterruptIfRunning Ignored; running statements are
+         * always cancelled.
+         * @return true if the task is now cancelled.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (this) {
+                    if (statement != null) {
+                        try {
+                            statement.cancel();
+                        } catch (SQLException ex) {
+                            // The statement has finished or its connection is gone
+                        }
+                    }
+                }
+            }
+            return cancelled;
+        }
+
+        private void run(Body<T> body) {
+            if (isDone()) {
+                return;
+            }
+            try {
+                complete(body.run(this));
+            } catch (Throwable ex) {
+                completeExceptionally(ex);
+            } finally {
+                synchronized (this) {
+                    // Never cancel a statement after it goes back to the pool
+                    statement = null;
+                }
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException ex) {
+                        // Nothing to return
+                    }
+                    connection = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Look up a batch of keys in one query.
+     *
+     * @param <V> Value type.
+     */
+    public interface Lookup<V> {
+
+        /**
+         * @param task Task running the query.
+         * @param keys Distinct keys, at least one.
+         * @return Value for each key found.
+         * @throws SQLException
+         */
+        Map<Long, V> fetch(Task<?> task, long[] keys) throws SQLException;
+    }
+
+    /**
+     * Point lookups from many threads, gathered into batched queries.
+     *
+     * A lookup queues its key and starts a flush task if none is pending.
+     * The flush takes every key queued by the time it runs, up to the batch
+     * limit, queries them together, and repeats until none are left, so the
+     * keys requested while one batch is executing go into the next.
+     * Concurrent lookups of the same key share one query; given a copy
+     * function, each lookup after the first receives its own copy of the
+     * result, so a mutable value is never shared between callers.
+     *
+     * Cancelling a batched lookup drops its result, but does not cancel the
+     * shared query.
+     *
+     * @param <V> Value type.
+     */
+    public static final class Batch<V> {
+
+        private final Lookup<V> lookup;
+        private final int limit;
+        private final V missing;
+        private final UnaryOperator<V> copy;
+        private final LinkedHashMap<Long, List<CompletableFuture<V>>> waiting = new LinkedHashMap<>();
+        private boolean flushing;
+
+        /**
+         * @param lookup Batch query.
+         * @param limit Most keys in one query.
+         * @param missing Value for keys not found.
+         */
+        public Batch(Lookup<V> lookup, int limit, V missing) {
+            this(lookup, limit, missing, null);
+        }
+
+        /**
+         * @param lookup Batch query.
+         * @param limit Most keys in one query.
+         * @param missing Value for keys not found, shared by every lookup.
+         * @param copy Copies a found value for each further lookup of the
+         * same key; null to share it.
+         */
+        public Batch(Lookup<V> lookup, int limit, V missing, UnaryOperator<V> copy) {
+            if (limit < 1) {
+                throw new IllegalArgumentException("Batch limit must be positive: " + limit);
+            }
+            this.lookup = lookup;
+            this.limit = limit;
+            this.missing = missing;
+            this.copy = copy;
+        }
+
+        /**
+         * Look up a key in the next batch.
+         *
+         * @param key Key.
+         * @return Future value.
+         */
+        public CompletableFuture<V> get(long key) {
+            CompletableFuture<V> f = new CompletableFuture<>();
+            boolean start;
+            synchronized (this) {
+                waiting.computeIfAbsent(key, k -> new ArrayList<>()).add(f);
+                start = !flushing;
+                flushing = true;
+            }
+            if (start) {
+                Database.submit(this::flush).whenComplete((r, ex) -> {
+                    if (ex != null) {
+                        fail(ex);
+                    }
+                });
+            }
+            return f;
+        }
+
+        /**
+         * Fail every queued lookup.
+         */
+        private void fail(Throwable ex) {
+            List<CompletableFuture<V>> failed = new ArrayList<>();
+            synchronized (this) {
+                for (List<CompletableFuture<V>> futures : waiting.values()) {
+                    failed.addAll(futures);
+                }
+                waiting.clear();
+                flushing = false;
+            }
+            for (CompletableFuture<V> f : failed) {
+                f.completeExceptionally(ex);
+            }
+        }
+
+        private Void flush(Task<Void> task) throws SQLException {
+            while (true) {
+                long[] keys;
+                List<List<CompletableFuture<V>>> futures = new ArrayList<>();
+                synchronized (this) {
+                    if (waiting.isEmpty()) {
+                        flushing = false;
+                        return null;
+                    }
+                    keys = new long[Math.min(limit, waiting.size())];
+                    Iterator<Map.Entry<Long, List<CompletableFuture<V>>>> i = waiting.entrySet().iterator();
+                    for (int k = 0; k < keys.length; k++) {
+                        Map.Entry<Long, List<CompletableFuture<V>>> e = i.next();
+                        keys[k] = e.getKey();
+                        futures.add(e.getValue());
+                        i.remove();
+                    }
+                }
+                try {
+                    Map<Long, V> found = lookup.fetch(task, keys);
+                    for (int k = 0; k < keys.length; k++) {
+                        V v = found.get(keys[k]);
+                        boolean first = true;
+                        for (CompletableFuture<V> f : futures.get(k)) {
+                            if (v == null) {
+                                f.complete(missing);
+                            } else {
+                                f.complete(first || copy == null ? v : copy.apply(v));
+                                first = false;
+                            }
+                        }
+                    }
+                } catch (SQLException | RuntimeException ex) {
+                    for (List<CompletableFuture<V>> list : futures) {
+                        for (CompletableFuture<V> f : list) {
+                            f.completeExceptionally(ex);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Most tasks running at once.
+     */
+    public final int threads;
+    /**
+     * Most tasks waiting or running.
+     */
+    public final int queue;
+    /**
+     * Milliseconds a submitter waits for room in the queue.
+     */
+    public final long timeout;
+
+    private final ExecutorService executor;
+    private final Semaphore running;
+    private final Semaphore pending;
+
+    /**
+     * Create an executor.
+     *
+     * @param threads Most tasks running at once.
+     * @param queue Most tasks waiting or running.
+     * @param timeout Milliseconds a submitter waits for room in the queue.
+     */
+    public AsyncQuery(int threads, int queue, long timeout) {
+        if (threads < 1 || queue < threads) {
+            throw new IllegalArgumentException("Invalid async limits: " + threads + " threads, queue " + queue);
+        }
+        this.threads = threads;
+        this.queue = queue;
+        this.timeout = timeout;
+        ExecutorService virtual = newVirtual();
+        if (virtual != null) {
+            executor = virtual;
+            running = new Semaphore(threads);
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "AsyncQuery-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            running = null;
+        }
+        pending = new Semaphore(queue);
+    }
+
+    /**
+     * Create an executor from configuration properties: async_threads
+     * (default the pool size) and async_queue (default 1000), waiting up to
+     * the pool timeout for room.
+     *
+     * @param config Configuration properties.
+     * @param pool Connection pool the work runs on.
+     */
+    public AsyncQuery(Properties config, ConnectionPool pool) {
+        this(
+            Integer.parseInt(config.getProperty("async_threads", Integer.toString(pool.max))),
+            Integer.parseInt(config.getProperty("async_queue", "1000")),
+            pool.timeout
+        );
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), if the runtime has it.
+     */
+    private static ExecutorService newVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param <T> Result type.
+     * @param ex Failure.
+     * @return Task that has already failed.
+     */
+    static <T> Task<T> failed(Throwable ex) {
+        Task<T> task = new Task<>();
+        task.completeExceptionally(ex);
+        return task;
+    }
+
+    /**
+     * @return Whether tasks run on virtual threads.
+     */
+    public boolean virtual() {
+        return running != null;
+    }
+
+    /**
+     * Run database work asynchronously, blocking while the queue is full.
+     *
+     * @param <T> Result type.
+     * @param body Work to run.
+     * @return Future result, failed with RejectedExecutionException if the
+     * queue stays full for the timeout or the executor is closed.
+     */
+    public <T> Task<T> submit(Body<T> body) {
+        final Task<T> task = new Task<>();
+        try {
+            if (!pending.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                task.completeExceptionally(new RejectedExecutionException(
+                    "Timed out waiting for room in the async queue (" + queue + " tasks)"
+                ));
+                return task;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            task.completeExceptionally(ex);
+            return task;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (running == null) {
+                        task.run(body);
+                    } else if (!task.isDone()) {
+                        running.acquireUninterruptibly();
+                        try {
+                            task.run(body);
+                        } finally {
+                            running.release();
+                        }
+                    }
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.release();
+            task.completeExceptionally(ex);
+        }
+        return task;
+    }
+
+    /**
+     * @return Number of tasks waiting or running.
+     */
+    public int pending() {
+        return queue - pending.availablePermits();
+    }
+
+    /**
+     * Stop accepting work. Tasks already submitted still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Number of key pairs to put in a batch statement: the keys rounded up
+     * to a power of two, the last key being repeated to fill them, so a
+     * statement cache holds one statement for each power of two.
+     *
+     * @param keys Keys.
+     * @return Number of pairs of parameters.
+     */
+    public static int slots(long[] keys) {
+        return keys.length == 1 ? 1 : Integer.highestOneBit(keys.length - 1) << 1;
+    }
+
+    /**
+     * SQL for a list of pairs of parameters, "(?,?),(?,?),...".
+     *
+     * @param count Number of pairs.
+     * @return SQL text.
+     */
+    public static String pairs(int count) {
+        StringBuilder sql = new StringBuilder(6 * count);
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "(?,?)" : ",(?,?)");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Set the parameters of a pair list statement from keys, each split
+     * into its {@link #high} and {@link #low} ints.
+     *
+     * @param ps Statement with {@link #slots} pairs of parameters.
+     * @param keys Keys.
+     * @param slots Number of pairs in the statement.
+     * @throws SQLException
+     */
+    public static void bind(PreparedStatement ps, long[] keys, int slots) throws SQLException {
+        for (int i = 0; i < slots; i++) {
+            long k = keys[Math.min(i, keys.length - 1)];
+            ps.setInt(2 * i + 1, high(k));
+            ps.setInt(2 * i + 2, low(k));
+        }
+    }
+
+    /**
+     * @param high First int.
+     * @param low Second int.
+     * @return Key for a pair of ints.
+     */
+    public static long key(int high, int low) {
+        return (long) high << 32 | low & 0xffffffffL;
+    }
+
+    /**
+     * @param key Key.
+     * @return First int of a key.
+     */
+    public static int high(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * @param key Key.
+     * @return Second int of a key.
+     */
+    public static int low(long key) {
+        return (int) key;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncQuery(" + (virtual() ? "virtual" : "platform") + " threads, " + threads + " running, "
+            + pending() + "/" + queue + " pending)";
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Bulk insert of rows into a table, field by field.
+ *
+ * On a PostgreSQL connection rows are sent with COPY FROM STDIN in text
+ * format, one COPY per batch of rows. On other connections, or when COPY is
+ * turned off, they go in JDBC batch inserts of the same size. The driver's
+ * COPY classes are only loaded when the driver is present.
+ *
+ * Fields are added in column order with the add methods and each row ended
+ * with {@link #row()}. {@link #finish()} sends the last batch; closing
+ * without finishing abandons the rows not yet sent. Transactions are left
+ * to the caller.
+ *
+ * @author Bruce Peret
+ */
+public final class BulkLoad implements AutoCloseable {
+
+    private final int columns;
+    private final int batch;
+    private final String copySql;
+    private final PGConnection pg;
+    private final PreparedStatement insert;
+    private CopyIn in;
+    private byte[] bytes = new byte[1 << 17];
+    private int size;
+    private int field;
+    private int pending;
+    private long rows;
+
+    /**
+     * @param c Connection to load through.
+     * @param table Table name.
+     * @param columns Column names, in the order fields are added.
+     * @param batch Rows per COPY or per batch insert.
+     * @param copy Whether to use COPY when the connection allows it.
+     * @throws SQLException
+     */
+    public BulkLoad(Connection c, String table, String[] columns, int batch, boolean copy) throws SQLException {
+        if (batch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batch);
+        }
+        this.columns = columns.length;
+        this.batch = batch;
+        String list = String.join(", ", columns);
+        if (copy && copyable(c)) {
+            pg = c.unwrap(PGConnection.class);
+            copySql = "COPY " + table + " (" + list + ") FROM STDIN";
+            insert = null;
+        } else {
+            char[] marks = new char[2 * columns.length - 1];
+            Arrays.fill(marks, ',');
+            for (int i = 0; i < marks.length; i += 2) {
+                marks[i] = '?';
+            }
+            pg = null;
+            copySql = null;
+            insert = c.prepareStatement("INSERT INTO " + table + " (" + list + ") VALUES (" + new String(marks) + ")");
+        }
+    }
+
+    /**
+     * @param c Connection.
+     * @return Whether COPY can be used on a connection.
+     */
+    public static boolean copyable(Connection c) {
+        try {
+            return c.isWrapperFor(PGConnection.class);
+        } catch (SQLException | NoClassDefFoundError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Whether rows are sent by COPY.
+     */
+    public boolean copying() {
+        return pg != null;
+    }
+
+    /**
+     * @return Rows sent so far.
+     */
+    public long rows() {
+        return rows;
+    }
+
+    private void put(byte c) {
+        if (size == bytes.length) {
+            bytes = Arrays.copyOf(bytes, size * 2);
+        }
+        bytes[size++] = c;
+    }
+
+    private void put(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (size + b.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size * 2, size + b.length));
+        }
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+    }
+
+    private int next() {
+        if (field == columns) {
+            throw new IllegalStateException("More than " + columns + " fields in a row");
+        }
+        if (pg != null && field > 0) {
+            put((byte) '\t');
+        }
+        return ++field;
+    }
+
+    /**
+     * Add a NULL field.
+     *
+     * @param type SQL type of the column, from java.sql.Types.
+     * @return this
+     * @throws SQLException
+     */
+    public BulkLoad none(int type) throws SQLException {
+        int f = next();
+        if (pg != null) {
+            put((byte) '\\');
+            put((byte) 'N');
+        } else {
+            insert.setNull(f, type);
+        }
+        return this;
+    }
+
+    /**
+     * Add an integer field.
+     *
+     * @param value Value.
+     * @return this
+     * @throws SQLException
+     */
+    public BulkLoad add(int value) throws SQLException {
+        int f = next();
+        if (pg == null) {
+            insert.setInt(f, value);
+            return this;
+        }
+        if (value < 0) {
+            put((byte) '-');
+        }
+        long v = Math.abs((long) value);
+        long scale = 1;
+        while (scale * 10 <= v) {
+            scale *= 10;
+        }
+        for (; scale > 0; scale /= 10) {
+            put((byte) ('0' + v / scale % 10));
+        }
+        return this;
+    }
+
+    /**
+     * Add a double field; NaN is added as NULL.
+     *
+     * @param value Value.
+     * @return this
+     * @throws SQLException
+     */
+    public BulkLoad add(double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            return none(Types.DOUBLE);
+        }
+        int f = next();
+        if (pg == null) {
+            insert.setDouble(f, value);
+        } else if (Double.isInfinite(value)) {
+            put(value > 0 ? "Infinity" : "-Infinity");
+        } else {
+            put(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Add a text field; null is added as NULL.
+     *
+     * @param value Value.
+     * @return this
+     * @throws SQLException
+     */
+    public BulkLoad add(String value) throws SQLException {
+        if (value == null) {
+            return none(Types.VARCHAR);
+        }
+        int f = next();
+        if (pg == null) {
+            insert.setString(f, value);
+            return this;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    put((byte) '\\');
+                    put((byte) '\\');
+                    break;
+                case '\t':
+                    put((byte) '\\');
+                    put((byte) 't');
+                    break;
+                case '\n':
+                    put((byte) '\\');
+                    put((byte) 'n');
+                    break;
+                case '\r':
+                    put((byte) '\\');
+                    put((byte) 'r');
+                    break;
+                default:
+                    if (c < 0x80) {
+                        put((byte) c);
+                    } else {
+                        int code = value.codePointAt(i);
+                        put(new String(Character.toChars(code)));
+                        i += Character.charCount(code) - 1;
+                    }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * End a row, sending the batch when it is full.
+     *
+     * @return this
+     * @throws SQLException
+     */
+    public BulkLoad row() throws SQLException {
+        if (field != columns) {
+            throw new IllegalStateException("Row has " + field + " of " + columns + " fields");
+        }
+        field = 0;
+        if (pg == null) {
+            insert.addBatch();
+        } else {
+            put((byte) '\n');
+            if (in == null) {
+                in = pg.getCopyAPI().copyIn(copySql);
+            }
+            if (size >= 1 << 16) {
+                in.writeToCopy(bytes, 0, size);
+                size = 0;
+            }
+        }
+        if (++pending == batch) {
+            send();
+        }
+        return this;
+    }
+
+    private void send() throws SQLException {
+        if (pg == null) {
+            if (pending > 0) {
+                insert.executeBatch();
+            }
+        } else if (in != null) {
+            if (size > 0) {
+                in.writeToCopy(bytes, 0, size);
+                size = 0;
+            }
+            in.endCopy();
+            in = null;
+        }
+        rows += pending;
+        pending = 0;
+    }
+
+    /**
+     * Send the rows not yet sent.
+     *
+     * @return Rows sent in all.
+     * @throws SQLException
+     */
+    public long finish() throws SQLException {
+        send();
+        return rows;
+    }
+
+    /**
+     * Abandon any rows not yet sent, and release the insert statement.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (in != null && in.isActive()) {
+                in.cancelCopy();
+            }
+        } finally {
+            in = null;
+            if (insert != null) {
+                insert.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,655 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only columnar snapshot of a table, memory-mapped from a file.
+ *
+ * Each numeric column is one contiguous run of int or double values, read in
+ * place from the mapped file without copying it onto the heap. String
+ * columns hold the start and length of each row's UTF-8 text (length -1
+ * for null), followed by the text of all rows, decoded as it is read. Low
+ * cardinality string columns named when writing are dictionary encoded
+ * instead: an int code per row (-1 for null) into a table of distinct
+ * values, which is the only part decoded on open. Int array columns are laid
+ * out like plain string columns, with int values in place of text.
+ *
+ * Files are written from instances of a record class whose public int,
+ * double, String and int[] fields name the columns, and rows can be
+ * materialized back into the same class. Columns can also be read by number,
+ * for record classes that materialize themselves.
+ *
+ * @author Bruce Peret
+ */
+public final class ColumnFile {
+
+    /**
+     * File signature, "RSCF".
+     */
+    public static final int MAGIC = 0x52534346;
+    /**
+     * Format version written by this class.
+     */
+    public static final int VERSION = 3;
+
+    private static final byte INT = 'I';
+    private static final byte DOUBLE = 'D';
+    private static final byte STRING = 'S';
+    private static final byte ARRAY = 'A';
+    private static final byte TEXT = 'T';
+
+    private final int rows;
+    private final String[] columns;
+    private final byte[] types;
+    private final HashMap<String, Integer> index = new HashMap<>();
+    private final Object[] data;
+    private final String[][] dictionaries;
+    /**
+     * Fields of record classes, by column.
+     */
+    private final Map<Class<?>, Field[]> fields = new ConcurrentHashMap<>();
+
+    private ColumnFile(ByteBuffer map) throws IOException {
+        if (map.getInt() != MAGIC) {
+            throw new IOException("Not a column file");
+        }
+        int version = map.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported column file version " + version);
+        }
+        rows = map.getInt();
+        int n = map.getInt();
+        columns = new String[n];
+        types = new byte[n];
+        long[] offsets = new long[n];
+        for (int i = 0; i < n; i++) {
+            byte[] name = new byte[map.getShort()];
+            map.get(name);
+            columns[i] = new String(name, "UTF-8");
+            types[i] = map.get();
+            offsets[i] = map.getLong();
+            index.put(columns[i], i);
+        }
+        data = new Object[n];
+        dictionaries = new String[n][];
+        for (int i = 0; i < n; i++) {
+            ByteBuffer section = map.duplicate();
+            section.position((int) offsets[i]);
+            switch (types[i]) {
+                case INT:
+                    data[i] = slice(section, rows * 4).asIntBuffer();
+                    break;
+                case DOUBLE:
+                    data[i] = slice(section, rows * 8).asDoubleBuffer();
+                    break;
+                case STRING:
+                    String[] dictionary = new String[section.getInt()];
+                    data[i] = slice(section, rows * 4).asIntBuffer();
+                    section.position(section.position() + rows * 4);
+                    for (int d = 0; d < dictionary.length; d++) {
+                        byte[] text = new byte[section.getInt()];
+                        section.get(text);
+                        dictionary[d] = new String(text, "UTF-8");
+                    }
+                    dictionaries[i] = dictionary;
+                    break;
+                case ARRAY:
+                    int values = section.getInt();
+                    data[i] = slice(section, (2 * rows + values) * 4).asIntBuffer();
+                    break;
+                case TEXT:
+                    int bytes = section.getInt();
+                    data[i] = slice(section, 8 * rows + bytes);
+                    break;
+                default:
+                    throw new IOException("Unknown column type " + types[i]);
+            }
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer b = buffer.slice();
+        b.limit(length);
+        return b;
+    }
+
+    /**
+     * Memory-map a column file.
+     *
+     * @param path File to open.
+     * @return Column file.
+     * @throws IOException
+     */
+    public static ColumnFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ColumnFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read a column file held in a buffer, such as a region of a larger
+     * mapped file, from its position.
+     *
+     * @param buffer Buffer holding the file.
+     * @return Column file.
+     * @throws IOException
+     */
+    static ColumnFile open(ByteBuffer buffer) throws IOException {
+        return new ColumnFile(buffer.slice());
+    }
+
+    /**
+     * @return Number of rows.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return Column names, in file order.
+     */
+    public String[] columns() {
+        return columns.clone();
+    }
+
+    /**
+     * @param column Column name.
+     * @return True if the file holds this column.
+     */
+    public boolean has(String column) {
+        return index.containsKey(column);
+    }
+
+    /**
+     * @param column Column name.
+     * @return Column number, or -1 if the file does not hold it.
+     */
+    public int index(String column) {
+        Integer i = index.get(column);
+        return i == null ? -1 : i;
+    }
+
+    private int column(String column, byte type) {
+        Integer i = index.get(column);
+        if (i == null) {
+            throw new IllegalArgumentException("No column " + column);
+        }
+        if (types[i] != type && !(type == TEXT && types[i] == STRING)) {
+            throw new IllegalArgumentException("Column " + column + " is not of type " + (char) type);
+        }
+        return i;
+    }
+
+    /**
+     * A double column, read in place from the file. The buffer is a private
+     * view; its position and limit may be changed freely.
+     *
+     * @param column Column name.
+     * @return Column values.
+     */
+    public DoubleBuffer doubles(String column) {
+        return ((DoubleBuffer) data[column(column, DOUBLE)]).duplicate();
+    }
+
+    /**
+     * An int column, read in place from the file.
+     *
+     * @param column Column name.
+     * @return Column values.
+     */
+    public IntBuffer ints(String column) {
+        return ((IntBuffer) data[column(column, INT)]).duplicate();
+    }
+
+    /**
+     * Dictionary codes of a string column, -1 for null.
+     *
+     * @param column Column name.
+     * @return Codes into {@link #dictionary(String)}.
+     */
+    public IntBuffer codes(String column) {
+        return ((IntBuffer) data[column(column, STRING)]).duplicate();
+    }
+
+    /**
+     * Distinct values of a string column.
+     *
+     * @param column Column name.
+     * @return Dictionary indexed by code.
+     */
+    public String[] dictionary(String column) {
+        return dictionaries[column(column, STRING)].clone();
+    }
+
+    /**
+     * @param column Column name.
+     * @return True if the column is a dictionary encoded string column.
+     */
+    public boolean isDictionary(String column) {
+        Integer i = index.get(column);
+        return i != null && types[i] == STRING;
+    }
+
+    /**
+     * Decode one value of a string column.
+     *
+     * @param column Column name.
+     * @param row Row number.
+     * @return String value, or null.
+     */
+    public String string(String column, int row) {
+        return getString(column(column, TEXT), row);
+    }
+
+    /**
+     * One value of an int column.
+     *
+     * @param column Column number.
+     * @param row Row number.
+     * @return Value.
+     */
+    public int getInt(int column, int row) {
+        return ((IntBuffer) data[column]).get(row);
+    }
+
+    /**
+     * One value of a double column.
+     *
+     * @param column Column number.
+     * @param row Row number.
+     * @return Value.
+     */
+    public double getDouble(int column, int row) {
+        return ((DoubleBuffer) data[column]).get(row);
+    }
+
+    /**
+     * Decode one value of a string column.
+     *
+     * @param column Column number.
+     * @param row Row number.
+     * @return String value, or null.
+     */
+    public String getString(int column, int row) {
+        if (types[column] == STRING) {
+            int code = ((IntBuffer) data[column]).get(row);
+            return code < 0 ? null : dictionaries[column][code];
+        }
+        ByteBuffer b = (ByteBuffer) data[column];
+        int length = b.getInt(4 * (rows + row));
+        if (length < 0) {
+            return null;
+        }
+        byte[] text = new byte[length];
+        ByteBuffer view = b.duplicate();
+        view.position(8 * rows + b.getInt(4 * row));
+        view.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One value of an int array column.
+     *
+     * @param column Column number.
+     * @param row Row number.
+     * @return Copy of the values, or null.
+     */
+    public int[] getArray(int column, int row) {
+        return array((IntBuffer) data[column], row);
+    }
+
+    /**
+     * One value of an int array column.
+     *
+     * @param column Column name.
+     * @param row Row number.
+     * @return Copy of the values, or null.
+     */
+    public int[] array(String column, int row) {
+        return array((IntBuffer) data[column(column, ARRAY)], row);
+    }
+
+    private int[] array(IntBuffer b, int row) {
+        int length = b.get(rows + row);
+        if (length < 0) {
+            return null;
+        }
+        int[] values = new int[length];
+        int start = 2 * rows + b.get(row);
+        for (int k = 0; k < length; k++) {
+            values[k] = b.get(start + k);
+        }
+        return values;
+    }
+
+    /**
+     * Materialize a row as an instance of a record class. Public fields named
+     * after columns are set; other fields keep their defaults.
+     *
+     * @param <T> Record class.
+     * @param type Record class with a public no-argument constructor.
+     * @param row Row number.
+     * @return Record instance.
+     */
+    public <T> T get(Class<T> type, int row) {
+        Field[] found = fields.computeIfAbsent(type, t -> {
+            Field[] f = new Field[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                try {
+                    f[i] = t.getField(columns[i]);
+                } catch (NoSuchFieldException ex) {
+                    f[i] = null;
+                }
+            }
+            return f;
+        });
+        try {
+            T record = type.getConstructor().newInstance();
+            for (int i = 0; i < columns.length; i++) {
+                Field f = found[i];
+                if (f == null) {
+                    continue;
+                }
+                switch (types[i]) {
+                    case INT:
+                        f.setInt(record, ((IntBuffer) data[i]).get(row));
+                        break;
+                    case DOUBLE:
+                        f.setDouble(record, ((DoubleBuffer) data[i]).get(row));
+                        break;
+                    case ARRAY:
+                        f.set(record, array((IntBuffer) data[i], row));
+                        break;
+                    default:
+                        f.set(record, getString(i, row));
+                        break;
+                }
+            }
+            return record;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Cannot build " + type.getName(), ex);
+        }
+    }
+
+    /**
+     * Write records to a column file, one column per public int, double,
+     * String or int[] field named in columns.
+     *
+     * @param <T> Record class.
+     * @param path File to write.
+     * @param type Record class.
+     * @param columns Field names to write.
+     * @param records Records to write.
+     * @param dictionary String columns to dictionary encode.
+     * @return Number of rows written.
+     * @throws IOException
+     */
+    public static <T> int write(Path path, Class<T> type, String[] columns, Iterator<? extends T> records,
+        String... dictionary) throws IOException {
+        int n = columns.length;
+        Field[] fields = new Field[n];
+        byte[] types = new byte[n];
+        for (int i = 0; i < n; i++) {
+            try {
+                fields[i] = type.getField(columns[i]);
+            } catch (NoSuchFieldException ex) {
+                throw new IllegalArgumentException("No public field " + columns[i], ex);
+            }
+            Class<?> t = fields[i].getType();
+            types[i] = t == int.class ? INT : t == double.class ? DOUBLE : t == String.class ? STRING
+                : t == int[].class ? ARRAY : 0;
+            if (types[i] == 0) {
+                throw new IllegalArgumentException("Unsupported column type " + t + " for " + columns[i]);
+            }
+        }
+        /*
+         * Gather the rows into columns.
+         */
+        int rows = 0;
+        int capacity = 1024;
+        Object[] values = new Object[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = types[i] == INT ? new int[capacity] : types[i] == DOUBLE ? new double[capacity]
+                : types[i] == ARRAY ? new int[capacity][] : new String[capacity];
+        }
+        try {
+            while (records.hasNext()) {
+                T record = records.next();
+                if (rows == capacity) {
+                    capacity *= 2;
+                    for (int i = 0; i < n; i++) {
+                        switch (types[i]) {
+                            case INT:
+                                values[i] = Arrays.copyOf((int[]) values[i], capacity);
+                                break;
+                            case DOUBLE:
+                                values[i] = Arrays.copyOf((double[]) values[i], capacity);
+                                break;
+                            case ARRAY:
+                                values[i] = Arrays.copyOf((int[][]) values[i], capacity);
+                                break;
+                            default:
+                                values[i] = Arrays.copyOf((String[]) values[i], capacity);
+                                break;
+                        }
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    switch (types[i]) {
+                        case INT:
+                            ((int[]) values[i])[rows] = fields[i].getInt(record);
+                            break;
+                        case DOUBLE:
+                            ((double[]) values[i])[rows] = fields[i].getDouble(record);
+                            break;
+                        case ARRAY:
+                            ((int[][]) values[i])[rows] = (int[]) fields[i].get(record);
+                            break;
+                        default:
+                            ((String[]) values[i])[rows] = (String) fields[i].get(record);
+                            break;
+                    }
+                }
+                rows++;
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+        return write(path, columns, values, rows, dictionary);
+    }
+
+    /**
+     * Write columns held in arrays to a column file.
+     *
+     * @param path File to write.
+     * @param columns Column names.
+     * @param values For each column an int[], double[], String[] or int[][]
+     * of at least rows values.
+     * @param rows Number of rows.
+     * @param dictionary String columns to dictionary encode; others are
+     * written as plain text.
+     * @return Number of rows written.
+     * @throws IOException
+     */
+    public static int write(Path path, String[] columns, Object[] values, int rows, String... dictionary)
+        throws IOException {
+        int n = columns.length;
+        byte[] types = new byte[n];
+        for (int i = 0; i < n; i++) {
+            Object v = values[i];
+            types[i] = v instanceof int[] ? INT : v instanceof double[] ? DOUBLE : v instanceof String[] ? TEXT
+                : v instanceof int[][] ? ARRAY : 0;
+            if (types[i] == 0) {
+                throw new IllegalArgumentException("Unsupported column values for " + columns[i]);
+            }
+        }
+        for (String d : dictionary) {
+            int i = Arrays.asList(columns).indexOf(d);
+            if (i < 0 || types[i] != TEXT) {
+                throw new IllegalArgumentException("No string column " + d + " to dictionary encode");
+            }
+            types[i] = STRING;
+        }
+        /*
+         * Header with placeholder offsets, then 8-byte aligned sections.
+         */
+        long[] offsets = new long[n];
+        int[] slots = new int[n];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                byte[] name = columns[i].getBytes("UTF-8");
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeByte(types[i]);
+                slots[i] = out.size();
+                out.writeLong(0);
+            }
+            for (int i = 0; i < n; i++) {
+                while (out.size() % 8 != 0) {
+                    out.writeByte(0);
+                }
+                offsets[i] = out.size();
+                switch (types[i]) {
+                    case INT:
+                        int[] ints = (int[]) values[i];
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(ints[r]);
+                        }
+                        break;
+                    case DOUBLE:
+                        double[] doubles = (double[]) values[i];
+                        for (int r = 0; r < rows; r++) {
+                            out.writeDouble(doubles[r]);
+                        }
+                        break;
+                    case ARRAY:
+                        int[][] arrays = (int[][]) values[i];
+                        int total = 0;
+                        for (int r = 0; r < rows; r++) {
+                            total += arrays[r] == null ? 0 : arrays[r].length;
+                        }
+                        out.writeInt(total);
+                        int start = 0;
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(start);
+                            start += arrays[r] == null ? 0 : arrays[r].length;
+                        }
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(arrays[r] == null ? -1 : arrays[r].length);
+                        }
+                        for (int r = 0; r < rows; r++) {
+                            if (arrays[r] != null) {
+                                for (int v : arrays[r]) {
+                                    out.writeInt(v);
+                                }
+                            }
+                        }
+                        break;
+                    case TEXT:
+                        String[] texts = (String[]) values[i];
+                        byte[][] encoded = new byte[rows][];
+                        int length = 0;
+                        for (int r = 0; r < rows; r++) {
+                            if (texts[r] != null) {
+                                encoded[r] = texts[r].getBytes(StandardCharsets.UTF_8);
+                                length += encoded[r].length;
+                            }
+                        }
+                        out.writeInt(length);
+                        int position = 0;
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(position);
+                            position += encoded[r] == null ? 0 : encoded[r].length;
+                        }
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(encoded[r] == null ? -1 : encoded[r].length);
+                        }
+                        for (int r = 0; r < rows; r++) {
+                            if (encoded[r] != null) {
+                                out.write(encoded[r]);
+                            }
+                        }
+                        break;
+                    default:
+                        /*
+                         * Dictionary codes in order of first appearance.
+                         */
+                        String[] strings = (String[]) values[i];
+                        HashMap<String, Integer> codes = new HashMap<>();
+                        int[] code = new int[rows];
+                        for (int r = 0; r < rows; r++) {
+                            String s = strings[r];
+                            if (s == null) {
+                                code[r] = -1;
+                            } else {
+                                Integer c = codes.get(s);
+                                if (c == null) {
+                                    c = codes.size();
+                                    codes.put(s, c);
+                                }
+                                code[r] = c;
+                            }
+                        }
+                        String[] distinct = new String[codes.size()];
+                        for (Map.Entry<String, Integer> e : codes.entrySet()) {
+                            distinct[e.getValue()] = e.getKey();
+                        }
+                        out.writeInt(distinct.length);
+                        for (int r = 0; r < rows; r++) {
+                            out.writeInt(code[r]);
+                        }
+                        for (String s : distinct) {
+                            byte[] text = s.getBytes("UTF-8");
+                            out.writeInt(text.length);
+                            out.write(text);
+                        }
+                        break;
+                }
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            for (int i = 0; i < n; i++) {
+                file.seek(slots[i]);
+                file.writeLong(offsets[i]);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,693 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of physical database connections.
+ *
+ * Connections are borrowed with {@link #borrow()} and returned by closing the
+ * handle, so the usual try-with-resources block is all a caller needs. Each
+ * borrow hands out a fresh handle; a handle that has been closed can no longer
+ * reach the physical connection, even if it is kept around by mistake.
+ *
+ * Each physical connection carries its own {@link StatementCache}, reached
+ * with {@code unwrap(StatementCache.class)} on a borrowed handle. Statements
+ * report the handle, not the physical connection, as their connection.
+ * Statements created through a handle are closed when it is returned;
+ * cached statements stay open for the next borrower.
+ *
+ * Idle connections above the minimum are closed by a background
+ * housekeeping thread, which also reports connections held longer than the
+ * leak threshold.
+ *
+ * @author Bruce Peret
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final String uri;
+    private final String user;
+    private final String password;
+    /**
+     * Connections kept open even when idle.
+     */
+    public final int min;
+    /**
+     * Upper limit of open connections.
+     */
+    public final int max;
+    /**
+     * Milliseconds a borrower waits for a free connection.
+     */
+    public final long timeout;
+    /**
+     * Milliseconds a connection may sit idle before it is closed.
+     */
+    public final long idle;
+    /**
+     * Milliseconds a connection may be held before it is reported as leaked,
+     * or zero to disable leak detection.
+     */
+    public final long leak;
+    /**
+     * Seconds allowed to validate a connection on borrow.
+     */
+    public final int validation;
+    /**
+     * Prepared statements cached per connection.
+     */
+    public final int statements;
+
+    private final ArrayDeque<Entry> free = new ArrayDeque<>();
+    private final Set<Entry> busy = new HashSet<>();
+    private final ScheduledExecutorService housekeeper;
+    private int total;
+    private boolean closed;
+    /*
+     * Metrics, guarded by this.
+     */
+    private long borrows;
+    private long waits;
+    private long waitNanos;
+    private long maxWaitNanos;
+    private long timeouts;
+    private long created;
+    private long evicted;
+    private long leaks;
+    private volatile QueryMetrics metrics;
+
+    /**
+     * Create a pool and open the minimum number of connections.
+     *
+     * @param uri JDBC connection URI.
+     * @param user Database user.
+     * @param password Database password.
+     * @param min Connections kept open.
+     * @param max Maximum open connections.
+     * @param timeout Borrow wait limit in milliseconds.
+     * @param idle Idle eviction time in milliseconds.
+     * @param leak Leak report time in milliseconds, zero to disable.
+     * @param validation Validation timeout in seconds.
+     * @param statements Statement cache size per connection.
+     * @throws SQLException
+     */
+    public ConnectionPool(
+        String uri, String user, String password,
+        int min, int max, long timeout, long idle, long leak, int validation,
+        int statements
+    ) throws SQLException {
+        if (max < 1 || min < 0 || min > max) {
+            throw new IllegalArgumentException("Invalid pool size: " + min + "-" + max);
+        }
+        this.uri = uri;
+        this.user = user;
+        this.password = password;
+        this.min = min;
+        this.max = max;
+        this.timeout = timeout;
+        this.idle = idle;
+        this.leak = leak;
+        this.validation = validation;
+        this.statements = statements;
+        try {
+            for (int i = 0; i < min; i++) {
+                free.add(new Entry(open()));
+                total++;
+            }
+        } catch (SQLException ex) {
+            for (Entry e : free) {
+                quietly(e.connection);
+            }
+            free.clear();
+            total = 0;
+            throw ex;
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ConnectionPool housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idle, leak > 0 ? leak : idle) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a pool from configuration properties. Recognized keys are
+     * pool_min, pool_max, pool_timeout, pool_idle, pool_leak (all times in
+     * milliseconds), pool_validation (seconds) and statement_cache.
+     *
+     * @param uri JDBC connection URI.
+     * @param user Database user.
+     * @param password Database password.
+     * @param config Configuration properties.
+     * @throws SQLException
+     */
+    public ConnectionPool(String uri, String user, String password, Properties config) throws SQLException {
+        this(
+            uri, user, password,
+            Integer.parseInt(config.getProperty("pool_min", "1")),
+            Integer.parseInt(config.getProperty("pool_max", "8")),
+            Long.parseLong(config.getProperty("pool_timeout", "30000")),
+            Long.parseLong(config.getProperty("pool_idle", "600000")),
+            Long.parseLong(config.getProperty("pool_leak", "0")),
+            Integer.parseInt(config.getProperty("pool_validation", "5")),
+            Integer.parseInt(config.getProperty("statement_cache", "32"))
+        );
+    }
+
+    /**
+     * Record the statements prepared on borrowed connections. Cached
+     * statements are instrumented once, when first prepared, and keep
+     * recording to the registry in force at that time.
+     *
+     * @param metrics Registry to record to, or null to stop recording.
+     */
+    public void instrument(QueryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Borrow a connection, waiting up to the pool timeout for one to become
+     * free. Close the returned connection to give it back to the pool.
+     *
+     * @return Pooled connection handle.
+     * @throws SQLException if the pool is closed, the wait times out, or a new
+     * connection cannot be opened.
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean waited = false;
+        Entry e = null;
+        while (e == null) {
+            boolean create = false;
+            synchronized (this) {
+                while (!closed && free.isEmpty() && total >= max) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts++;
+                        throw new SQLTimeoutException(
+                            "Timed out waiting for a connection (" + total + " in use)"
+                        );
+                    }
+                    waited = true;
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for a connection", ex);
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (free.isEmpty()) {
+                    total++;
+                    create = true;
+                } else {
+                    e = free.pollFirst();
+                }
+            }
+            if (create) {
+                try {
+                    e = new Entry(open());
+                } catch (SQLException ex) {
+                    synchronized (this) {
+                        total--;
+                        notifyAll();
+                    }
+                    throw ex;
+                }
+            } else if (!valid(e)) {
+                discard(e);
+                e = null;
+            }
+        }
+        long wait = System.nanoTime() - start;
+        synchronized (this) {
+            busy.add(e);
+            borrows++;
+            if (waited) {
+                waits++;
+            }
+            waitNanos += wait;
+            maxWaitNanos = Math.max(maxWaitNanos, wait);
+        }
+        return e.lend();
+    }
+
+    /**
+     * Close all idle connections and stop handing out new ones. Connections
+     * still borrowed are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        List<Entry> idle;
+        synchronized (this) {
+            closed = true;
+            idle = new ArrayList<>(free);
+            free.clear();
+            total -= idle.size();
+            notifyAll();
+        }
+        housekeeper.shutdownNow();
+        for (Entry e : idle) {
+            quietly(e.connection);
+        }
+    }
+
+    /**
+     * @return Number of connections currently borrowed.
+     */
+    public synchronized int active() {
+        return busy.size();
+    }
+
+    /**
+     * @return Number of open connections waiting to be borrowed.
+     */
+    public synchronized int available() {
+        return free.size();
+    }
+
+    /**
+     * @return Number of open connections, borrowed or not.
+     */
+    public synchronized int size() {
+        return total;
+    }
+
+    /**
+     * @return Fraction (0.0-1.0) of the maximum pool size currently borrowed.
+     */
+    public synchronized double utilization() {
+        return (double) busy.size() / max;
+    }
+
+    /**
+     * @return Total number of successful borrows.
+     */
+    public synchronized long borrows() {
+        return borrows;
+    }
+
+    /**
+     * @return Number of borrows that had to wait for a free connection.
+     */
+    public synchronized long waits() {
+        return waits;
+    }
+
+    /**
+     * @return Mean time to borrow a connection, in milliseconds.
+     */
+    public synchronized double meanWait() {
+        return borrows == 0 ? 0 : waitNanos / 1e6 / borrows;
+    }
+
+    /**
+     * @return Longest time taken to borrow a connection, in milliseconds.
+     */
+    public synchronized double maxWait() {
+        return maxWaitNanos / 1e6;
+    }
+
+    /**
+     * @return Number of borrows that gave up waiting.
+     */
+    public synchronized long timeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return Number of physical connections opened.
+     */
+    public synchronized long created() {
+        return created;
+    }
+
+    /**
+     * @return Number of connections closed for being idle or invalid.
+     */
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    /**
+     * @return Number of connections reported as leaked.
+     */
+    public synchronized long leaks() {
+        return leaks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "pool[%d/%d active, %d idle, %.0f%% used, %d borrows, %d waits, mean %.3fms, max %.3fms, %d timeouts]",
+            busy.size(), max, free.size(), 100. * busy.size() / max,
+            borrows, waits, meanWait(), maxWait(), timeouts
+        );
+    }
+
+    private Connection open() throws SQLException {
+        Connection c = DriverManager.getConnection(uri, user, password);
+        synchronized (this) {
+            created++;
+        }
+        return c;
+    }
+
+    private boolean valid(Entry e) {
+        try {
+            return e.connection.isValid(validation);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void discard(Entry e) {
+        quietly(e.connection);
+        synchronized (this) {
+            total--;
+            evicted++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Return a connection to the pool, resetting any transaction left open.
+     */
+    private void release(Entry e) {
+        boolean reusable;
+        try {
+            reusable = !e.connection.isClosed();
+            if (reusable && !e.connection.getAutoCommit()) {
+                e.connection.rollback();
+                e.connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            reusable = false;
+        }
+        synchronized (this) {
+            if (!busy.remove(e)) {
+                return;
+            }
+            if (reusable && !closed) {
+                e.returned = System.currentTimeMillis();
+                free.addFirst(e);
+                notifyAll();
+                return;
+            }
+            total--;
+            notifyAll();
+        }
+        quietly(e.connection);
+    }
+
+    /**
+     * Close idle connections above the minimum, top the pool back up to the
+     * minimum and report leaked connections.
+     */
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+        List<Entry> expired = new ArrayList<>();
+        int missing;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            Iterator<Entry> it = free.descendingIterator();
+            while (it.hasNext() && total - expired.size() > min) {
+                Entry e = it.next();
+                if (now - e.returned >= idle) {
+                    it.remove();
+                    expired.add(e);
+                }
+            }
+            total -= expired.size();
+            evicted += expired.size();
+            if (leak > 0) {
+                for (Entry e : busy) {
+                    if (!e.reported && now - e.borrowed >= leak) {
+                        e.reported = true;
+                        leaks++;
+                        LOG.log(Level.WARNING, "Connection held for " + (now - e.borrowed) + "ms", e.trace);
+                    }
+                }
+            }
+            missing = min - total;
+            total += Math.max(0, missing);
+        }
+        for (Entry e : expired) {
+            quietly(e.connection);
+        }
+        for (int i = 0; i < missing; i++) {
+            try {
+                Entry e = new Entry(open());
+                synchronized (this) {
+                    free.addLast(e);
+                    notifyAll();
+                }
+            } catch (SQLException ex) {
+                synchronized (this) {
+                    total--;
+                }
+                LOG.log(Level.WARNING, "Could not replenish connection pool", ex);
+            }
+        }
+    }
+
+    private static void quietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException ex) {
+            LOG.log(Level.FINE, "Error closing connection", ex);
+        }
+    }
+
+    private static void quietly(Statement s) {
+        try {
+            s.close();
+        } catch (SQLException ex) {
+            LOG.log(Level.FINE, "Error closing statement", ex);
+        }
+    }
+
+    /**
+     * Wrap a statement of a pooled connection so that it reports the current
+     * handle of the connection as its connection.
+     */
+    private static <T extends Statement> T wrap(Class<T> type, T statement, Entry entry) {
+        return type.cast(Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[]{type},
+            new Pooled(statement, entry)
+        ));
+    }
+
+    /**
+     * Statement of a pooled connection.
+     */
+    private static final class Pooled implements InvocationHandler {
+
+        private final Statement statement;
+        private final Entry entry;
+
+        Pooled(Statement statement, Entry entry) {
+            this.statement = statement;
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    return entry.handle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return statement.toString();
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+    /**
+     * A physical connection and its borrowing state.
+     */
+    private final class Entry {
+
+        final Connection connection;
+        final StatementCache cache;
+        volatile Connection handle;
+        long borrowed;
+        long returned = System.currentTimeMillis();
+        boolean reported;
+        Throwable trace;
+
+        Entry(Connection connection) {
+            this.connection = connection;
+            this.cache = new StatementCache(connection, statements) {
+                @Override
+                protected PreparedStatement create(String sql) throws SQLException {
+                    PreparedStatement ps = wrap(PreparedStatement.class, connection.prepareStatement(sql), Entry.this);
+                    QueryMetrics m = metrics;
+                    return m == null ? ps : m.instrument(ps, sql);
+                }
+            };
+        }
+
+        Connection lend() {
+            borrowed = System.currentTimeMillis();
+            reported = false;
+            trace = leak > 0 ? new Throwable("Connection borrowed here") : null;
+            handle = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Handle(this)
+            );
+            return handle;
+        }
+    }
+
+    /**
+     * Connection handle given to a borrower. Closing it closes the statements
+     * created through it and returns the physical connection to the pool.
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final Entry entry;
+        private final List<Statement> created = new ArrayList<>();
+        private volatile boolean closed;
+
+        Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        closeStatements();
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "pooled " + entry.connection;
+                case "unwrap":
+                    if (args[0] == StatementCache.class && !closed) {
+                        return entry.cache;
+                    }
+                    break;
+                case "isWrapperFor":
+                    if (args[0] == StatementCache.class) {
+                        return true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            Object result;
+            try {
+                result = method.invoke(entry.connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+            if (result instanceof Statement) {
+                result = track(method.getReturnType().asSubclass(Statement.class), (Statement) result);
+            }
+            QueryMetrics m = metrics;
+            if (m != null && result instanceof PreparedStatement && args[0] instanceof String) {
+                result = m.instrument((PreparedStatement) result, (String) args[0]);
+            }
+            return result;
+        }
+
+        private <T extends Statement> T track(Class<T> type, Statement statement) {
+            T wrapped = wrap(type, type.cast(statement), entry);
+            synchronized (created) {
+                if (created.size() >= 64) {
+                    created.removeIf(ConnectionPool::closed);
+                }
+                created.add(statement);
+            }
+            return wrapped;
+        }
+
+        private void closeStatements() {
+            List<Statement> open;
+            synchronized (created) {
+                open = new ArrayList<>(created);
+                created.clear();
+            }
+            for (Statement s : open) {
+                quietly(s);
+            }
+        }
+    }
+
+    private static boolean closed(Statement s) {
+        try {
+            return s.isClosed();
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+}
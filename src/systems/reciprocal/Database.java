@@ -16,82 +16,247 @@
  */
 package systems.reciprocal;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import javafx.collections.ObservableList;
-import javafx.scene.chart.XYChart;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Functions common to all database activity.
  *
- * The physical database connection is from the parent Rs class.
+ * The physical database connection is from the parent Rs class. Queries
+ * borrow a connection from the pool with {@link #connection()} and return it
+ * by closing it; the single shared {@link #db} connection is kept for
+ * existing applications.
+ *
+ * Instead of connecting, a {@link Snapshot} of the reference tables can be
+ * opened with {@link #open(Path)}; the record classes then serve their
+ * lookups from it, and anything needing a connection fails as when not
+ * connected.
  *
  * @author Bruce Peret
  */
 public class Database extends Rs {
 
+    /**
+     * Rows fetched per round trip when streaming large tables through a
+     * cursor.
+     */
+    public static final int FETCH_SIZE = 1000;
     /**
      * Database connection
      */
     public static Connection db;
+    /**
+     * Connection pool shared by all record classes.
+     */
+    public static ConnectionPool pool;
+    /**
+     * Query metrics for the pool and the statement caches.
+     */
+    public static QueryMetrics metrics;
+    /**
+     * Executor for asynchronous queries.
+     */
+    public static AsyncQuery async;
+    /**
+     * Snapshot served in place of the database, or null when connected.
+     */
+    public static volatile Snapshot embedded;
+    /**
+     * Resets run when the data source is switched.
+     */
+    private static final List<Runnable> resets = new CopyOnWriteArrayList<>();
 
     public static void connect(String uri, String user, String password) throws SQLException {
+        connect(uri, user, password, new Properties());
+    }
+
+    /**
+     * Connect to the database, creating the connection pool from the pool_*
+     * configuration properties, the query metrics from metrics, slow_query
+     * and jmx, and the asynchronous query executor from async_threads and
+     * async_queue. With metrics=false no statement is wrapped.
+     *
+     * @param uri JDBC connection URI.
+     * @param user Database user.
+     * @param password Database password.
+     * @param config Configuration properties.
+     * @throws SQLException
+     */
+    public static void connect(String uri, String user, String password, Properties config) throws SQLException {
+        disconnect();
+        embedded = null;
+        pool = new ConnectionPool(uri, user, password, config);
+        if (Boolean.parseBoolean(config.getProperty("metrics", "true"))) {
+            metrics = new QueryMetrics(config, pool);
+            pool.instrument(metrics);
+        }
+        async = new AsyncQuery(config, pool);
         db = DriverManager.getConnection(uri, user, password);
     }
 
     /**
-     * Retrieve the last serial key insert value for a prepared statement.
+     * Serve the record classes from a snapshot file instead of the database,
+     * closing any connections.
      *
-     * @param ps Prepared statement
-     * @return The integer serial number, or zero.
+     * @param path Snapshot file.
+     * @throws IOException
      * @throws SQLException
      */
-    public static int lastkey(PreparedStatement ps) throws SQLException {
-        int key = 0;
-        ResultSet rs = ps.getGeneratedKeys();
-        if (rs != null && rs.next()) {
-            key = rs.getInt(1);
+    public static void open(Path path) throws IOException, SQLException {
+        Snapshot s = Snapshot.open(path);
+        disconnect();
+        embedded = s;
+    }
+
+    /**
+     * Register a reset to run whenever {@link #connect} or {@link #open}
+     * switches the data source, such as discarding data cached from the old
+     * source.
+     *
+     * @param reset Reset to run.
+     */
+    public static void onDisconnect(Runnable reset) {
+        resets.add(reset);
+    }
+
+    private static void disconnect() throws SQLException {
+        for (Runnable r : resets) {
+            r.run();
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+        if (metrics != null) {
+            metrics.unregister();
+            metrics = null;
+        }
+        if (async != null) {
+            async.close();
+            async = null;
+        }
+        if (db != null) {
+            db.close();
+            db = null;
         }
-        return key;
     }
 
     /**
-     * Return an XY Chart Series for an SQL query.
+     * Borrow a connection from the pool. Close it to return it.
      *
-     * @param ps Prepared statement to execute query on.
-     * @return series with data from first two columns of query.
+     * @return Pooled connection.
+     * @throws SQLException if not connected, or no connection is available.
+     */
+    public static Connection connection() throws SQLException {
+        if (pool == null) {
+            throw new SQLException("Database is not connected");
+        }
+        return pool.borrow();
+    }
+
+    /**
+     * Run database work on the asynchronous query executor.
+     *
+     * @param <T> Result type.
+     * @param body Work to run, preparing its statements from the task.
+     * @return Future result; cancelling it cancels the running statement.
+     */
+    public static <T> AsyncQuery.Task<T> submit(AsyncQuery.Body<T> body) {
+        AsyncQuery a = async;
+        if (a == null) {
+            return AsyncQuery.failed(new SQLException("Database is not connected"));
+        }
+        return a.submit(body);
+    }
+
+    /**
+     * Fetch a reusable prepared statement for a connection borrowed from
+     * {@link #connection()}, from the statement cache of its pooled
+     * connection. The statement stays open for reuse, so do not close it; set
+     * every parameter before executing it. The pool instrumented it for the
+     * query metrics when it was cached, so this returns it without wrapping.
+     *
+     * Other connections, such as {@link #db}, are not cached: each call
+     * prepares a new statement that the caller owns. It closes itself once
+     * the result set of a query is closed, but an update returns no result
+     * set, so close statements used for updates, or any statement that may
+     * not run, yourself; otherwise they stay open until the connection
+     * closes.
+     *
+     * @param c Connection, usually borrowed from {@link #connection()}.
+     * @param sql SQL text of the statement.
+     * @return Prepared statement.
      * @throws SQLException
      */
-    public static XYChart.Series xychart(PreparedStatement ps) throws SQLException {
-        XYChart.Series series = new XYChart.Series();
-        try (ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                series.getData().add(
-                    new XYChart.Data(
-                        rs.getObject(1), rs.getObject(2)
-                    )
-                );
-            }
+    public static PreparedStatement prepare(Connection c, String sql) throws SQLException {
+        if (c.isWrapperFor(StatementCache.class)) {
+            return c.unwrap(StatementCache.class).prepare(sql);
         }
-        return series;
+        PreparedStatement ps = c.prepareStatement(sql);
+        ps.closeOnCompletion();
+        return metrics == null ? ps : metrics.instrument(ps, sql);
+    }
+
+    /**
+     * Record the executions of a statement prepared outside the pool and the
+     * statement caches, unless it is already recorded.
+     *
+     * @param ps Prepared statement.
+     * @param name Key for its metrics.
+     * @return Instrumented statement, or ps when metrics are off.
+     */
+    public static PreparedStatement instrument(PreparedStatement ps, String name) {
+        return metrics == null ? ps : metrics.instrument(ps, name);
     }
 
-    public static ObservableList<XYChart.Data<Number, Number>> xychartdata(
-        PreparedStatement ps,
-        ObservableList<XYChart.Data<Number, Number>> data
-    ) throws SQLException {
-        try (ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                data.add(
-                    new XYChart.Data(
-                        rs.getObject(1), rs.getObject(2)
-                    )
-                );
+    /**
+     * Read an SQL integer array column as a primitive array. NULL elements
+     * read as 0, as getInt reads a NULL column; a NULL array reads as null.
+     *
+     * @param rs ResultSet positioned on a row.
+     * @param column Column name.
+     * @return Array of values, or null if the column is NULL.
+     * @throws SQLException
+     */
+    public static int[] ints(ResultSet rs, String column) throws SQLException {
+        Array array = rs.getArray(column);
+        if (array == null) {
+            return null;
+        }
+        try {
+            Object[] values = (Object[]) array.getArray();
+            int[] result = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = values[i] == null ? 0 : ((Number) values[i]).intValue();
             }
+            return result;
+        } finally {
+            array.free();
+        }
+    }
+
+    /**
+     * Retrieve the last serial key insert value for a prepared statement.
+     *
+     * @param ps Prepared statement
+     * @return The integer serial number, or zero.
+     * @throws SQLException
+     */
+    public static int lastkey(PreparedStatement ps) throws SQLException {
+        int key = 0;
+        ResultSet rs = ps.getGeneratedKeys();
+        if (rs != null && rs.next()) {
+            key = rs.getInt(1);
         }
-        return data;
+        return key;
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.util.Properties;
+
+/**
+ * Precomputed {@link Rs#standard_mass(int, int)} and
+ * {@link Rs#unstable_element(int)} for atomic numbers 0-{@link Rs#Z_LIMIT}
+ * and a range of magnetic ionization levels, for one inter-regional ratio.
+ *
+ * Values are computed by the Rs functions, so they are identical to calling
+ * them; levels outside the range are computed on each call. Masses are held
+ * one row of Z_LIMIT + 1 values per level, indexed by atomic number, and the
+ * bulk methods copy whole rows. The table is immutable and may be shared
+ * between threads.
+ *
+ * The shared {@link #magnetic()} and {@link #electric()} tables are built on
+ * first use for the levels set by the configuration properties
+ * mass_table_min_ion and mass_table_max_ion (default 0 to 100).
+ *
+ * @author Bruce Peret
+ */
+public final class MassTable {
+
+    /**
+     * Values per level: atomic numbers 0-{@link Rs#Z_LIMIT}.
+     */
+    public static final int WIDTH = Rs.Z_LIMIT + 1;
+
+    private static volatile MassTable magnetic;
+    private static volatile MassTable electric;
+
+    /**
+     * Inter-regional ratio.
+     */
+    public final double ratio;
+    /**
+     * Lowest ionization level held.
+     */
+    public final int min_ion;
+    /**
+     * Highest ionization level held.
+     */
+    public final int max_ion;
+    private final double[] masses;
+    private final int[] unstable;
+
+    /**
+     * Compute a table.
+     *
+     * @param ratio Inter-regional ratio, {@link Rs#IRR} or {@link Rs#IRR1D}.
+     * @param min_ion Lowest magnetic ionization level.
+     * @param max_ion Highest magnetic ionization level.
+     */
+    public MassTable(double ratio, int min_ion, int max_ion) {
+        if (min_ion > max_ion) {
+            throw new IllegalArgumentException("Empty ionization range " + min_ion + "-" + max_ion);
+        }
+        this.ratio = ratio;
+        this.min_ion = min_ion;
+        this.max_ion = max_ion;
+        int levels = max_ion - min_ion + 1;
+        masses = new double[levels * WIDTH];
+        unstable = new int[levels];
+        for (int l = 0; l < levels; l++) {
+            int ion = min_ion + l;
+            for (int z = 0; z < WIDTH; z++) {
+                masses[l * WIDTH + z] = Rs.standard_mass(z, ion, ratio);
+            }
+            unstable[l] = Rs.unstable_element(ion, ratio);
+        }
+    }
+
+    /**
+     * The shared table for the magnetic (2D) ratio {@link Rs#IRR}.
+     *
+     * @return Mass table.
+     */
+    public static MassTable magnetic() {
+        MassTable t = magnetic;
+        if (t == null) {
+            synchronized (MassTable.class) {
+                t = magnetic;
+                if (t == null) {
+                    t = configured(Rs.IRR);
+                    magnetic = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * The shared table for the electric (1D) ratio {@link Rs#IRR1D}.
+     *
+     * @return Mass table.
+     */
+    public static MassTable electric() {
+        MassTable t = electric;
+        if (t == null) {
+            synchronized (MassTable.class) {
+                t = electric;
+                if (t == null) {
+                    t = configured(Rs.IRR1D);
+                    electric = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    private static MassTable configured(double ratio) {
+        Properties config = Rs.config == null ? new Properties() : Rs.config;
+        return new MassTable(ratio,
+            Integer.parseInt(config.getProperty("mass_table_min_ion", "0")),
+            Integer.parseInt(config.getProperty("mass_table_max_ion", "100"))
+        );
+    }
+
+    /**
+     * @return Number of ionization levels held.
+     */
+    public int levels() {
+        return unstable.length;
+    }
+
+    /**
+     * @param ion Magnetic ionization level.
+     * @return True if the level is held.
+     */
+    public boolean has(int ion) {
+        return ion >= min_ion && ion <= max_ion;
+    }
+
+    /**
+     * Standard atomic mass for an element and ionization level.
+     *
+     * @param z Atomic number.
+     * @param ion Magnetic ionization level.
+     * @return Standard atomic mass in u.
+     */
+    public double standard_mass(int z, int ion) {
+        if (z < 0 || z > Rs.Z_LIMIT || !has(ion)) {
+            return Rs.standard_mass(z, ion, ratio);
+        }
+        return masses[(ion - min_ion) * WIDTH + z];
+    }
+
+    /**
+     * First unstable element for an ionization level.
+     *
+     * @param ion Magnetic ionization level.
+     * @return Atomic number.
+     */
+    public int unstable_element(int ion) {
+        return has(ion) ? unstable[ion - min_ion] : Rs.unstable_element(ion, ratio);
+    }
+
+    /**
+     * Fill in the standard atomic masses of every element at one ionization
+     * level, indexed by atomic number.
+     *
+     * @param ion Magnetic ionization level.
+     * @param dest Array of at least {@link #WIDTH} values to fill.
+     * @return dest
+     */
+    public double[] standard_masses(int ion, double[] dest) {
+        if (has(ion)) {
+            System.arraycopy(masses, (ion - min_ion) * WIDTH, dest, 0, WIDTH);
+        } else {
+            for (int z = 0; z < WIDTH; z++) {
+                dest[z] = Rs.standard_mass(z, ion, ratio);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Fill in the standard atomic masses of every element at every level
+     * held, one row of {@link #WIDTH} values per level from min_ion, so the
+     * mass of z at ion is at (ion - min_ion) * WIDTH + z.
+     *
+     * @param dest Array of at least levels() * WIDTH values to fill.
+     * @return dest
+     */
+    public double[] standard_masses(double[] dest) {
+        System.arraycopy(masses, 0, dest, 0, masses.length);
+        return dest;
+    }
+
+    /**
+     * Fill in the first unstable element of every level held, from min_ion.
+     *
+     * @param dest Array of at least levels() values to fill.
+     * @return dest
+     */
+    public int[] unstable_elements(int[] dest) {
+        System.arraycopy(unstable, 0, dest, 0, unstable.length);
+        return dest;
+    }
+}
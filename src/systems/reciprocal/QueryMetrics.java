@@ -0,0 +1,653 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-statement query metrics.
+ *
+ * Statements are instrumented by wrapping them: every execution records its
+ * latency in a histogram, with the rows it returned or updated and the
+ * bytes the caller decoded from them. The latency of a query is the time
+ * spent in its execute call plus the time spent fetching rows in next();
+ * the fetch time is also kept on its own. Time the caller spends between
+ * rows is not counted. A query is recorded when its ResultSet is closed.
+ * Statements are keyed by their SQL text.
+ *
+ * Queries slower than the slow-query threshold are logged as warnings.
+ * Every completed query is also passed to the registered listeners, which is
+ * the hook for other metrics registries or event recorders. With JMX
+ * enabled, each statement and the totals, including the connection pool
+ * wait times, are published as MXBeans under "systems.reciprocal".
+ *
+ * @author Bruce Peret
+ */
+public class QueryMetrics {
+
+    private static final Logger LOG = Logger.getLogger(QueryMetrics.class.getName());
+    private static final String DOMAIN = "systems.reciprocal";
+    /**
+     * Histogram buckets: bucket b counts latencies below 2^b microseconds.
+     */
+    private static final int BUCKETS = 40;
+
+    /**
+     * Receives every completed query.
+     */
+    public interface Listener {
+
+        /**
+         * @param sql SQL text of the statement.
+         * @param nanos Latency in nanoseconds.
+         * @param rows Rows returned or updated.
+         * @param bytes Bytes decoded from the rows.
+         * @param error Failure, or null.
+         */
+        void completed(String sql, long nanos, long rows, long bytes, SQLException error);
+    }
+
+    /**
+     * JMX view of one statement's metrics.
+     */
+    public interface StatementMXBean {
+
+        String getSql();
+
+        long getCount();
+
+        long getErrors();
+
+        long getRows();
+
+        long getBytes();
+
+        double getMeanMillis();
+
+        double getMeanFetchMillis();
+
+        double getMaxMillis();
+
+        double getMedianMillis();
+
+        double getP95Millis();
+
+        double getP99Millis();
+    }
+
+    /**
+     * JMX view of the totals and the connection pool.
+     */
+    public interface SummaryMXBean {
+
+        int getStatements();
+
+        long getQueries();
+
+        long getSlowQueries();
+
+        long getSlowQueryMillis();
+
+        void setSlowQueryMillis(long millis);
+
+        int getPoolActive();
+
+        int getPoolSize();
+
+        long getPoolWaits();
+
+        double getPoolMeanWaitMillis();
+
+        double getPoolMaxWaitMillis();
+
+        long getPoolTimeouts();
+
+        void reset();
+    }
+
+    /**
+     * Metrics of one statement.
+     */
+    public static final class Stats implements StatementMXBean {
+
+        private final String sql;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder fetch = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private volatile long max;
+
+        Stats(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long ns, long fetchNs, long r, long b, boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            rows.add(r);
+            bytes.add(b);
+            nanos.add(ns);
+            fetch.add(fetchNs);
+            long micros = ns / 1000;
+            histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            if (ns > max) {
+                synchronized (this) {
+                    if (ns > max) {
+                        max = ns;
+                    }
+                }
+            }
+        }
+
+        void reset() {
+            count.reset();
+            errors.reset();
+            rows.reset();
+            bytes.reset();
+            nanos.reset();
+            fetch.reset();
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+            max = 0;
+        }
+
+        /**
+         * Latency below which a fraction of the queries completed, to the
+         * resolution of the histogram (a factor of two).
+         *
+         * @param fraction Fraction of queries, 0 to 1.
+         * @return Upper bound of the latency in milliseconds.
+         */
+        public double percentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += histogram.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= Math.max(1, target)) {
+                    return Math.min((1L << i) / 1000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        @Override
+        public String getSql() {
+            return sql;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getRows() {
+            return rows.sum();
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : nanos.sum() / 1e6 / n;
+        }
+
+        @Override
+        public double getMeanFetchMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : fetch.sum() / 1e6 / n;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return max / 1e6;
+        }
+
+        @Override
+        public double getMedianMillis() {
+            return percentile(0.5);
+        }
+
+        @Override
+        public double getP95Millis() {
+            return percentile(0.95);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d queries, %d errors, %d rows, %d bytes, mean %.3f ms (fetch %.3f ms), p95 %.3f ms, max %.3f ms: %s",
+                    getCount(), getErrors(), getRows(), getBytes(), getMeanMillis(), getMeanFetchMillis(), getP95Millis(),
+                    getMaxMillis(), sql);
+        }
+    }
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder slow = new LongAdder();
+    private volatile long slowNanos;
+    private volatile ConnectionPool pool;
+    private volatile MBeanServer server;
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a registry.
+     *
+     * @param slowQuery Slow-query log threshold in milliseconds, zero to
+     * disable.
+     */
+    public QueryMetrics(long slowQuery) {
+        this.slowNanos = slowQuery * 1000000L;
+    }
+
+    /**
+     * Create a registry from configuration properties: slow_query (the
+     * threshold in milliseconds) and jmx (true to publish MXBeans).
+     *
+     * @param config Configuration properties.
+     * @param pool Connection pool whose wait times are published, or null.
+     */
+    public QueryMetrics(Properties config, ConnectionPool pool) {
+        this(Long.parseLong(config.getProperty("slow_query", "1000")));
+        this.pool = pool;
+        if (Boolean.parseBoolean(config.getProperty("jmx", "true"))) {
+            register(ManagementFactory.getPlatformMBeanServer());
+        }
+    }
+
+    /**
+     * Add a listener for completed queries.
+     *
+     * @param listener Listener.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener Listener.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return Metrics of every statement seen.
+     */
+    public Collection<Stats> statements() {
+        return new ArrayList<>(stats.values());
+    }
+
+    /**
+     * @param sql SQL text of a statement.
+     * @return Its metrics, or null if it has not run.
+     */
+    public Stats statement(String sql) {
+        return stats.get(sql);
+    }
+
+    private Stats stats(String sql) {
+        Stats s = stats.get(sql);
+        if (s == null) {
+            Stats created = new Stats(sql);
+            s = stats.putIfAbsent(sql, created);
+            if (s == null) {
+                s = created;
+                publish(s);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Record a completed query.
+     *
+     * @param sql SQL text of the statement.
+     * @param nanos Latency in nanoseconds.
+     * @param rows Rows returned or updated.
+     * @param bytes Bytes decoded from the rows.
+     * @param error Failure, or null.
+     */
+    public void record(String sql, long nanos, long rows, long bytes, SQLException error) {
+        record(sql, nanos, 0, rows, bytes, error);
+    }
+
+    /**
+     * Record a completed query.
+     *
+     * @param sql SQL text of the statement.
+     * @param nanos Latency in nanoseconds, executing and fetching.
+     * @param fetch Part of the latency spent fetching rows.
+     * @param rows Rows returned or updated.
+     * @param bytes Bytes decoded from the rows.
+     * @param error Failure, or null.
+     */
+    public void record(String sql, long nanos, long fetch, long rows, long bytes, SQLException error) {
+        stats(sql).record(nanos, fetch, rows, bytes, error != null);
+        long threshold = slowNanos;
+        if (threshold > 0 && nanos >= threshold) {
+            slow.increment();
+            LOG.log(Level.WARNING, String.format("Slow query: %.1f ms, %d rows: %s", nanos / 1e6, rows, sql));
+        }
+        for (Listener l : listeners) {
+            l.completed(sql, nanos, rows, bytes, error);
+        }
+    }
+
+    /**
+     * Publish the metrics as MXBeans.
+     *
+     * @param mbeans MBean server, usually the platform server.
+     */
+    public final void register(MBeanServer mbeans) {
+        server = mbeans;
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=QueryMetrics");
+            if (!mbeans.isRegistered(name)) {
+                mbeans.registerMBean(new Summary(), name);
+                registered.add(name);
+            }
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "Cannot register query metrics", ex);
+        }
+        for (Stats s : stats.values()) {
+            publish(s);
+        }
+    }
+
+    private void publish(Stats s) {
+        MBeanServer mbeans = server;
+        if (mbeans == null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Query,name=" + ObjectName.quote(s.sql));
+            if (!mbeans.isRegistered(name)) {
+                mbeans.registerMBean(s, name);
+                registered.add(name);
+            }
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "Cannot register query metrics", ex);
+        }
+    }
+
+    /**
+     * Remove the MXBeans published by {@link #register(MBeanServer)}.
+     */
+    public void unregister() {
+        MBeanServer mbeans = server;
+        server = null;
+        if (mbeans == null) {
+            return;
+        }
+        for (ObjectName name : registered) {
+            try {
+                mbeans.unregisterMBean(name);
+            } catch (JMException ex) {
+                LOG.log(Level.FINE, "Cannot unregister " + name, ex);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Clear all counters.
+     */
+    public void reset() {
+        for (Stats s : stats.values()) {
+            s.reset();
+        }
+        slow.reset();
+    }
+
+    /**
+     * Wrap a prepared statement so its executions are recorded. A statement
+     * that is already instrumented is returned as is.
+     *
+     * @param ps Prepared statement.
+     * @param sql SQL text, the key for its metrics.
+     * @return Instrumented statement.
+     */
+    public PreparedStatement instrument(PreparedStatement ps, String sql) {
+        if (Proxy.isProxyClass(ps.getClass()) && Proxy.getInvocationHandler(ps) instanceof Statement) {
+            return ps;
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[]{PreparedStatement.class},
+            new Statement(ps, sql)
+        );
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Times executions of a prepared statement.
+     */
+    private final class Statement implements InvocationHandler {
+
+        private final PreparedStatement ps;
+        private final String sql;
+
+        Statement(PreparedStatement ps, String sql) {
+            this.ps = ps;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return ps.toString();
+                case "executeQuery":
+                case "execute":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    break;
+                default:
+                    return forward(ps, method, args);
+            }
+            String key = args != null && args[0] instanceof String ? (String) args[0] : sql;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = forward(ps, method, args);
+            } catch (SQLException ex) {
+                record(key, System.nanoTime() - start, 0, 0, ex);
+                throw ex;
+            }
+            if (result instanceof ResultSet) {
+                return new MeteredResultSet((ResultSet) result, (PreparedStatement) proxy, QueryMetrics.this, key,
+                    System.nanoTime() - start);
+            }
+            long updated = 0;
+            if (result instanceof Number) {
+                updated = ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                for (int n : (int[]) result) {
+                    updated += Math.max(0, n);
+                }
+            } else if (result instanceof long[]) {
+                for (long n : (long[]) result) {
+                    updated += Math.max(0, n);
+                }
+            } else if (Boolean.TRUE.equals(result)) {
+                /*
+                 * execute() produced a ResultSet; the caller reads it
+                 * through getResultSet, which is not followed.
+                 */
+                updated = 0;
+            } else {
+                updated = Math.max(0, ps.getUpdateCount());
+            }
+            record(key, System.nanoTime() - start, updated, 0, null);
+            return result;
+        }
+    }
+
+    /**
+     * JMX totals.
+     */
+    private final class Summary implements SummaryMXBean {
+
+        @Override
+        public int getStatements() {
+            return stats.size();
+        }
+
+        @Override
+        public long getQueries() {
+            long n = 0;
+            for (Stats s : stats.values()) {
+                n += s.getCount();
+            }
+            return n;
+        }
+
+        @Override
+        public long getSlowQueries() {
+            return slow.sum();
+        }
+
+        @Override
+        public long getSlowQueryMillis() {
+            return slowNanos / 1000000L;
+        }
+
+        @Override
+        public void setSlowQueryMillis(long millis) {
+            slowNanos = millis * 1000000L;
+        }
+
+        @Override
+        public int getPoolActive() {
+            ConnectionPool p = pool;
+            return p == null ? 0 : p.active();
+        }
+
+        @Override
+        public int getPoolSize() {
+            ConnectionPool p = pool;
+            return p == null ? 0 : p.size();
+        }
+
+        @Override
+        public long getPoolWaits() {
+            ConnectionPool p = pool;
+            return p == null ? 0 : p.waits();
+        }
+
+        @Override
+        public double getPoolMeanWaitMillis() {
+            ConnectionPool p = pool;
+            return p == null ? 0 : p.meanWait();
+        }
+
+        @Override
+        public double getPoolMaxWaitMillis() {
+            ConnectionPool p = pool;
+            return p == null ? 0 : p.maxWait();
+        }
+
+        @Override
+        public long getPoolTimeouts() {
+            ConnectionPool p = pool;
+            return p == null ? 0 : p.timeouts();
+        }
+
+        @Override
+        public void reset() {
+            QueryMetrics.this.reset();
+        }
+    }
+
+    /**
+     * Report every statement's metrics, one per line.
+     *
+     * @return Textual report.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stats s : stats.values()) {
+            sb.append(s).append('\n');
+        }
+        return sb.toString();
+    }
+}
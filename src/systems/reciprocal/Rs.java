@@ -18,6 +18,7 @@ package systems.reciprocal;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.Locale;
 import java.util.Properties;
@@ -84,6 +85,15 @@ public class Rs {
             config.getProperty("timezone", "UTC")
         );
         /*
+        * Serve the reference tables from a snapshot file, if one is set,
+        * instead of connecting
+         */
+        String snapshot = config.getProperty("snapshot");
+        if (snapshot != null) {
+            Database.open(Paths.get(snapshot));
+            return;
+        }
+        /*
         * Connect to the model database
          */
 
@@ -96,35 +106,63 @@ public class Rs {
         Database.connect(
             uri,
             config.getProperty("user", "username"),
-            config.getProperty("password", "password")
+            config.getProperty("password", "password"),
+            config
         );
     }
 
     /**
      * Calculate the standard atomic mass for an element and ionization level.
+     * For sweeps over many elements and levels use {@link MassTable}.
      *
      * @param z Atomic number.
      * @param ion Magnetic ionization level.
      * @return Standard atomic mass in u.
      */
     public static double standard_mass(int z, int ion) {
-        return 2. * z + ion * z * z / IRR;
+        return standard_mass(z, ion, IRR);
+    }
+
+    /**
+     * Calculate the standard atomic mass for an element and ionization level
+     * with a given inter-regional ratio.
+     *
+     * @param z Atomic number.
+     * @param ion Magnetic ionization level.
+     * @param ratio Inter-regional ratio, {@link #IRR} or {@link #IRR1D}.
+     * @return Standard atomic mass in u.
+     */
+    public static double standard_mass(int z, int ion, double ratio) {
+        return 2. * z + ion * z * z / ratio;
     }
 
     /**
      * Determine the first unstable element given a magnetic ionization level.
+     * For sweeps over many levels use {@link MassTable}.
      *
      * @param magnetic_ionization_level The magnetic ionization level.
      * @return Atomic number.
      */
     public static int unstable_element(int magnetic_ionization_level) {
+        return unstable_element(magnetic_ionization_level, IRR);
+    }
+
+    /**
+     * Determine the first unstable element given a magnetic ionization level
+     * and an inter-regional ratio.
+     *
+     * @param magnetic_ionization_level The magnetic ionization level.
+     * @param ratio Inter-regional ratio, {@link #IRR} or {@link #IRR1D}.
+     * @return Atomic number.
+     */
+    public static int unstable_element(int magnetic_ionization_level, double ratio) {
         if (magnetic_ionization_level < 1) {
             return Z_LIMIT;
         } else {
-            return (int) Math.ceil(Math.sqrt(Z_LIMIT * 2 * IRR / magnetic_ionization_level
-                    + (IRR * IRR) / (magnetic_ionization_level * magnetic_ionization_level)
+            return (int) Math.ceil(Math.sqrt(Z_LIMIT * 2 * ratio / magnetic_ionization_level
+                    + (ratio * ratio) / (magnetic_ionization_level * magnetic_ionization_level)
                 )
-                - IRR / magnetic_ionization_level
+                - ratio / magnetic_ionization_level
             );
         }
     }
@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * XY data series held in primitive arrays, for charting query results
+ * without a user interface toolkit.
+ *
+ * The first two columns of a query are decoded straight to doubles, rows
+ * with a NULL in either being skipped. Large results can be reduced to a
+ * target number of points as they are read:
+ *
+ * <ul>
+ * <li>{@link Downsample#MIN_MAX} keeps the lowest and highest point of each
+ * bucket of rows. It streams, holding no more than the target number of
+ * points however many rows the query returns.</li>
+ * <li>{@link Downsample#LTTB} (largest triangle three buckets) keeps the
+ * point of each bucket that forms the largest triangle with its neighbours,
+ * which follows the visual shape of a line closely. It needs the row count,
+ * so the whole result is read first, at 16 bytes a row.</li>
+ * </ul>
+ *
+ * Both keep the first and last rows, and assume rows ordered by x.
+ * {@link SeriesChart} turns a series into a JavaFX chart series.
+ *
+ * @author Bruce Peret
+ */
+public final class Series {
+
+    /**
+     * Downsampling methods.
+     */
+    public enum Downsample {
+        /**
+         * Keep every point.
+         */
+        NONE,
+        /**
+         * Largest triangle three buckets.
+         */
+        LTTB,
+        /**
+         * Lowest and highest point of each bucket.
+         */
+        MIN_MAX
+    }
+
+    private double[] x;
+    private double[] y;
+    private int size;
+
+    /**
+     * Create an empty series.
+     */
+    public Series() {
+        this(16);
+    }
+
+    /**
+     * Create an empty series.
+     *
+     * @param capacity Initial number of points.
+     */
+    public Series(int capacity) {
+        x = new double[Math.max(1, capacity)];
+        y = new double[x.length];
+    }
+
+    /**
+     * Create a series over existing arrays, without copying them.
+     *
+     * @param x X values.
+     * @param y Y values.
+     * @param size Number of points.
+     */
+    public Series(double[] x, double[] y, int size) {
+        if (size < 0 || size > x.length || size > y.length) {
+            throw new IllegalArgumentException("Series size " + size + " out of range");
+        }
+        this.x = x;
+        this.y = y;
+        this.size = size;
+    }
+
+    /**
+     * @return Number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i Point index.
+     * @return X value.
+     */
+    public double x(int i) {
+        return x[i];
+    }
+
+    /**
+     * @param i Point index.
+     * @return Y value.
+     */
+    public double y(int i) {
+        return y[i];
+    }
+
+    /**
+     * @return Copy of the x values.
+     */
+    public double[] x() {
+        return Arrays.copyOf(x, size);
+    }
+
+    /**
+     * @return Copy of the y values.
+     */
+    public double[] y() {
+        return Arrays.copyOf(y, size);
+    }
+
+    /**
+     * Append a point.
+     *
+     * @param px X value.
+     * @param py Y value.
+     * @return this
+     */
+    public Series add(double px, double py) {
+        if (size == x.length) {
+            x = Arrays.copyOf(x, size * 2);
+            y = Arrays.copyOf(y, size * 2);
+        }
+        x[size] = px;
+        y[size++] = py;
+        return this;
+    }
+
+    /**
+     * Execute a query into a series.
+     *
+     * @param ps Prepared statement to execute query on.
+     * @return Series with data from first two columns of query.
+     * @throws SQLException
+     */
+    public static Series query(PreparedStatement ps) throws SQLException {
+        return query(ps, Downsample.NONE, 0);
+    }
+
+    /**
+     * Execute a query into a series, downsampling it as it is read. The
+     * result is streamed through a cursor where the connection allows.
+     *
+     * @param ps Prepared statement to execute query on.
+     * @param method Downsampling method.
+     * @param target Largest number of points kept; ignored for NONE.
+     * @return Series with data from first two columns of query.
+     * @throws SQLException
+     */
+    public static Series query(PreparedStatement ps, Downsample method, int target) throws SQLException {
+        ps = Database.instrument(ps, "Series.query");
+        ps.setFetchSize(Database.FETCH_SIZE);
+        try (ResultSet rs = ps.executeQuery()) {
+            return read(rs, method, target);
+        }
+    }
+
+    /**
+     * Read the remaining rows of a result into a series.
+     *
+     * @param rs Result positioned before its first unread row.
+     * @return Series with data from the first two columns.
+     * @throws SQLException
+     */
+    public static Series read(ResultSet rs) throws SQLException {
+        return read(rs, Downsample.NONE, 0);
+    }
+
+    /**
+     * Read the remaining rows of a result into a series, downsampling it as
+     * it is read.
+     *
+     * @param rs Result positioned before its first unread row.
+     * @param method Downsampling method.
+     * @param target Largest number of points kept; ignored for NONE.
+     * @return Series with data from the first two columns.
+     * @throws SQLException
+     */
+    public static Series read(ResultSet rs, Downsample method, int target) throws SQLException {
+        if (method != Downsample.NONE && target < 2) {
+            throw new IllegalArgumentException("Downsampling target must be at least 2: " + target);
+        }
+        if (method == Downsample.MIN_MAX) {
+            MinMax reducer = new MinMax(target);
+            while (rs.next()) {
+                double px = rs.getDouble(1);
+                if (rs.wasNull()) {
+                    continue;
+                }
+                double py = rs.getDouble(2);
+                if (!rs.wasNull()) {
+                    reducer.add(px, py);
+                }
+            }
+            return reducer.series();
+        }
+        Series series = new Series(256);
+        while (rs.next()) {
+            double px = rs.getDouble(1);
+            if (rs.wasNull()) {
+                continue;
+            }
+            double py = rs.getDouble(2);
+            if (!rs.wasNull()) {
+                series.add(px, py);
+            }
+        }
+        return method == Downsample.LTTB ? series.lttb(target) : series;
+    }
+
+    /**
+     * Downsample by largest triangle three buckets. The first and last
+     * points are kept; the others are divided into target - 2 buckets, and
+     * from each the point forming the largest triangle with the point kept
+     * before it and the mean of the next bucket is kept.
+     *
+     * @param target Largest number of points kept, at least 2.
+     * @return New series, or this if it has no more than target points.
+     */
+    public Series lttb(int target) {
+        if (target < 2) {
+            throw new IllegalArgumentException("Downsampling target must be at least 2: " + target);
+        }
+        if (size <= target) {
+            return this;
+        }
+        Series out = new Series(target);
+        out.add(x[0], y[0]);
+        double every = (double) (size - 2) / (target - 2);
+        int a = 0;
+        for (int b = 0; b < target - 2; b++) {
+            int from = (int) (b * every) + 1;
+            int to = (int) ((b + 1) * every) + 1;
+            int nextTo = Math.min((int) ((b + 2) * every) + 1, size - 1);
+            double meanX = 0, meanY = 0;
+            if (nextTo > to) {
+                for (int i = to; i < nextTo; i++) {
+                    meanX += x[i];
+                    meanY += y[i];
+                }
+                meanX /= nextTo - to;
+                meanY /= nextTo - to;
+            } else {
+                meanX = x[size - 1];
+                meanY = y[size - 1];
+            }
+            double ax = x[a], ay = y[a];
+            double best = -1;
+            int pick = from;
+            for (int i = from; i < to; i++) {
+                double area = Math.abs((ax - meanX) * (y[i] - ay) - (ax - x[i]) * (meanY - ay));
+                if (area > best) {
+                    best = area;
+                    pick = i;
+                }
+            }
+            out.add(x[pick], y[pick]);
+            a = pick;
+        }
+        out.add(x[size - 1], y[size - 1]);
+        return out;
+    }
+
+    /**
+     * Downsample by keeping the lowest and highest point of each bucket of
+     * consecutive points.
+     *
+     * @param target Largest number of points kept, at least 2.
+     * @return New series, or this if it has no more than target points.
+     */
+    public Series minMax(int target) {
+        if (target < 2) {
+            throw new IllegalArgumentException("Downsampling target must be at least 2: " + target);
+        }
+        if (size <= target) {
+            return this;
+        }
+        MinMax reducer = new MinMax(target);
+        for (int i = 0; i < size; i++) {
+            reducer.add(x[i], y[i]);
+        }
+        return reducer.series();
+    }
+
+    /**
+     * Streaming min/max reduction in bounded memory. Rows are counted into
+     * buckets of equal width; when every bucket is used, neighbouring
+     * buckets are merged in pairs and the width doubles. Each bucket holds
+     * its lowest and highest point with their row numbers, so they are
+     * written out in row order. The first and last rows are kept apart.
+     */
+    private static final class MinMax {
+
+        private final int capacity;
+        private final long[] loRow;
+        private final double[] loX;
+        private final double[] loY;
+        private final long[] hiRow;
+        private final double[] hiX;
+        private final double[] hiY;
+        private final long[] rows;
+        private long width = 1;
+        private int buckets;
+        private long count;
+        private double firstX, firstY;
+        private boolean pending;
+        private double lastX, lastY;
+
+        MinMax(int target) {
+            /*
+             * Two points a bucket, after the first and last rows.
+             */
+            capacity = (target - 2) / 2;
+            loRow = new long[capacity];
+            loX = new double[capacity];
+            loY = new double[capacity];
+            hiRow = new long[capacity];
+            hiX = new double[capacity];
+            hiY = new double[capacity];
+            rows = new long[capacity];
+        }
+
+        void add(double px, double py) {
+            if (count++ == 0) {
+                firstX = px;
+                firstY = py;
+                return;
+            }
+            /*
+             * The latest row is held back until another arrives, so the last
+             * row is never bucketed.
+             */
+            if (pending) {
+                bucket(count - 2, lastX, lastY);
+            }
+            lastX = px;
+            lastY = py;
+            pending = true;
+        }
+
+        private void bucket(long row, double px, double py) {
+            if (capacity == 0) {
+                return;
+            }
+            if (buckets == 0 || rows[buckets - 1] == width) {
+                if (buckets == capacity) {
+                    merge();
+                }
+                if (buckets == 0 || rows[buckets - 1] == width) {
+                    int b = buckets++;
+                    rows[b] = 0;
+                    loRow[b] = hiRow[b] = row;
+                    loX[b] = hiX[b] = px;
+                    loY[b] = hiY[b] = py;
+                }
+            }
+            int b = buckets - 1;
+            rows[b]++;
+            if (py < loY[b]) {
+                loRow[b] = row;
+                loX[b] = px;
+                loY[b] = py;
+            }
+            if (py > hiY[b]) {
+                hiRow[b] = row;
+                hiX[b] = px;
+                hiY[b] = py;
+            }
+        }
+
+        private void merge() {
+            int n = 0;
+            for (int b = 0; b < buckets; b += 2, n++) {
+                loRow[n] = loRow[b];
+                loX[n] = loX[b];
+                loY[n] = loY[b];
+                hiRow[n] = hiRow[b];
+                hiX[n] = hiX[b];
+                hiY[n] = hiY[b];
+                rows[n] = rows[b];
+                if (b + 1 < buckets) {
+                    int c = b + 1;
+                    if (loY[c] < loY[n]) {
+                        loRow[n] = loRow[c];
+                        loX[n] = loX[c];
+                        loY[n] = loY[c];
+                    }
+                    if (hiY[c] > hiY[n]) {
+                        hiRow[n] = hiRow[c];
+                        hiX[n] = hiX[c];
+                        hiY[n] = hiY[c];
+                    }
+                    rows[n] += rows[c];
+                }
+            }
+            buckets = n;
+            width *= 2;
+        }
+
+        Series series() {
+            Series out = new Series(2 * buckets + 2);
+            if (count == 0) {
+                return out;
+            }
+            out.add(firstX, firstY);
+            for (int b = 0; b < buckets; b++) {
+                if (loRow[b] == hiRow[b]) {
+                    out.add(loX[b], loY[b]);
+                } else if (loRow[b] < hiRow[b]) {
+                    out.add(loX[b], loY[b]).add(hiX[b], hiY[b]);
+                } else {
+                    out.add(hiX[b], hiY[b]).add(loX[b], loY[b]);
+                }
+            }
+            if (pending) {
+                out.add(lastX, lastY);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.XYChart;
+
+/**
+ * JavaFX chart data from a {@link Series} or an SQL query. This is the only
+ * place the database and series API touch JavaFX, so headless code never
+ * loads it.
+ *
+ * @author Bruce Peret
+ */
+public final class SeriesChart {
+
+    private SeriesChart() {
+    }
+
+    /**
+     * Return an XY Chart Series for a series.
+     *
+     * @param series Points to chart.
+     * @return New chart series.
+     */
+    public static XYChart.Series<Number, Number> series(Series series) {
+        XYChart.Series<Number, Number> chart = new XYChart.Series<>();
+        data(series, chart.getData());
+        return chart;
+    }
+
+    /**
+     * Add the points of a series to chart data, in one change notification.
+     *
+     * @param series Points to chart.
+     * @param data Chart data to add to.
+     * @return data
+     */
+    public static ObservableList<XYChart.Data<Number, Number>> data(
+        Series series,
+        ObservableList<XYChart.Data<Number, Number>> data
+    ) {
+        List<XYChart.Data<Number, Number>> points = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            points.add(new XYChart.Data<>(series.x(i), series.y(i)));
+        }
+        data.addAll(points);
+        return data;
+    }
+
+    /**
+     * Return an XY Chart Series for an SQL query. Every value is kept as
+     * returned by getObject, so category axes work; for large numeric
+     * results use {@link Series#query(PreparedStatement, Series.Downsample, int)}
+     * and {@link #series(Series)}.
+     *
+     * @param ps Prepared statement to execute query on.
+     * @return series with data from first two columns of query.
+     * @throws SQLException
+     */
+    public static XYChart.Series xychart(PreparedStatement ps) throws SQLException {
+        XYChart.Series series = new XYChart.Series();
+        xychartdata(ps, series.getData());
+        return series;
+    }
+
+    /**
+     * Add the rows of an SQL query to chart data, in one change
+     * notification. Every value is kept as returned by getObject, NULLs
+     * included.
+     *
+     * @param ps Prepared statement to execute query on.
+     * @param data Chart data to add the first two columns of query to.
+     * @return data
+     * @throws SQLException
+     */
+    public static ObservableList<XYChart.Data<Number, Number>> xychartdata(
+        PreparedStatement ps,
+        ObservableList<XYChart.Data<Number, Number>> data
+    ) throws SQLException {
+        ps = Database.instrument(ps, "SeriesChart.xychart");
+        List<XYChart.Data> points = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                points.add(new XYChart.Data(rs.getObject(1), rs.getObject(2)));
+            }
+        }
+        ((List) data).addAll(points);
+        return data;
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only, versioned snapshot of several tables in one memory-mapped file,
+ * for running without a database.
+ *
+ * Each table is a {@link ColumnFile} within the file, so numeric columns are
+ * read in place. Lookups by one or two int columns go through an index built
+ * on first use, which keeps rows with equal keys in file order; tables are
+ * written sorted by their key, so those rows come back in the order the
+ * database query would give.
+ *
+ * The file starts with "RSSN", the format version, the data version label,
+ * the time written and a directory of table names, offsets and lengths.
+ *
+ * @author Bruce Peret
+ */
+public final class Snapshot {
+
+    /**
+     * File signature, "RSSN".
+     */
+    public static final int MAGIC = 0x5253534E;
+    /**
+     * Format version written by this class.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * A table to write into a snapshot.
+     */
+    public static final class Table {
+
+        final String name;
+        final Class<?> type;
+        final String order;
+        final String[] dictionary;
+
+        /**
+         * @param name Qualified table name.
+         * @param type Record class; its public int, double, String and int[]
+         * fields that are columns of the table are written.
+         * @param order ORDER BY list giving the row order, usually the lookup
+         * key.
+         * @param dictionary Low cardinality string columns to dictionary
+         * encode.
+         */
+        public Table(String name, Class<?> type, String order, String... dictionary) {
+            this.name = name;
+            this.type = type;
+            this.order = order;
+            this.dictionary = dictionary;
+        }
+    }
+
+    /**
+     * Rows of a table sorted by a key of one or two int columns.
+     */
+    private static final class Index {
+
+        final long[] keys;
+        final int[] rows;
+
+        Index(IntBuffer high, IntBuffer low, int n) {
+            long[] key = new long[n];
+            for (int r = 0; r < n; r++) {
+                key[r] = high == null ? low.get(r) : AsyncQuery.key(high.get(r), low.get(r));
+            }
+            keys = key.clone();
+            Arrays.sort(keys);
+            /*
+             * Place each row after those before it with the same key.
+             */
+            rows = new int[n];
+            int[] filled = new int[n];
+            for (int r = 0; r < n; r++) {
+                int first = first(key[r]);
+                rows[first + filled[first]++] = r;
+            }
+        }
+
+        int first(long key) {
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final String version;
+    private final long created;
+    private final LinkedHashMap<String, ColumnFile> tables = new LinkedHashMap<>();
+    private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+
+    private Snapshot(ByteBuffer map) throws IOException {
+        if (map.getInt() != MAGIC) {
+            throw new IOException("Not a snapshot file");
+        }
+        int format = map.getInt();
+        if (format != VERSION) {
+            throw new IOException("Unsupported snapshot version " + format);
+        }
+        version = text(map);
+        created = map.getLong();
+        int n = map.getInt();
+        for (int i = 0; i < n; i++) {
+            String name = text(map);
+            long offset = map.getLong();
+            long length = map.getLong();
+            ByteBuffer region = map.duplicate();
+            region.position((int) offset);
+            region.limit((int) (offset + length));
+            tables.put(name, ColumnFile.open(region));
+        }
+    }
+
+    private static String text(ByteBuffer b) throws IOException {
+        byte[] text = new byte[b.getShort()];
+        b.get(text);
+        return new String(text, "UTF-8");
+    }
+
+    private static void text(DataOutputStream out, String s) throws IOException {
+        byte[] text = s.getBytes("UTF-8");
+        out.writeShort(text.length);
+        out.write(text);
+    }
+
+    /**
+     * Memory-map a snapshot file.
+     *
+     * @param path File to open.
+     * @return Snapshot.
+     * @throws IOException
+     */
+    public static Snapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot file too large to map: " + channel.size());
+            }
+            return new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return Version label of the data, as given when written.
+     */
+    public String version() {
+        return version;
+    }
+
+    /**
+     * @return When the snapshot was written, in milliseconds since the epoch.
+     */
+    public long created() {
+        return created;
+    }
+
+    /**
+     * @return Names of the tables held.
+     */
+    public String[] tables() {
+        return tables.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * @param table Qualified table name.
+     * @return True if the snapshot holds this table.
+     */
+    public boolean has(String table) {
+        return tables.containsKey(table);
+    }
+
+    /**
+     * @param table Qualified table name.
+     * @return Columns of the table.
+     */
+    public ColumnFile table(String table) {
+        ColumnFile t = tables.get(table);
+        if (t == null) {
+            throw new IllegalArgumentException("Snapshot " + version + " has no table " + table);
+        }
+        return t;
+    }
+
+    /**
+     * Every row of a table.
+     *
+     * @param <T> Record class.
+     * @param type Record class with a public no-argument constructor.
+     * @param table Qualified table name.
+     * @return Rows in file order.
+     */
+    public <T> ArrayList<T> all(Class<T> type, String table) {
+        ColumnFile t = table(table);
+        ArrayList<T> result = new ArrayList<>(t.rows());
+        for (int r = 0; r < t.rows(); r++) {
+            result.add(t.get(type, r));
+        }
+        return result;
+    }
+
+    /**
+     * Rows with a value in an int column.
+     *
+     * @param <T> Record class.
+     * @param type Record class.
+     * @param table Qualified table name.
+     * @param column Int column.
+     * @param value Value to find.
+     * @return Matching rows in file order.
+     */
+    public <T> ArrayList<T> find(Class<T> type, String table, String column, int value) {
+        return find(type, table, index(table, null, column), value);
+    }
+
+    /**
+     * Rows with values in two int columns.
+     *
+     * @param <T> Record class.
+     * @param type Record class.
+     * @param table Qualified table name.
+     * @param high First int column.
+     * @param h Value of the first column.
+     * @param low Second int column.
+     * @param l Value of the second column.
+     * @return Matching rows in file order.
+     */
+    public <T> ArrayList<T> find(Class<T> type, String table, String high, int h, String low, int l) {
+        return find(type, table, index(table, high, low), AsyncQuery.key(h, l));
+    }
+
+    /**
+     * First row with a value in an int column.
+     *
+     * @param <T> Record class.
+     * @param type Record class.
+     * @param table Qualified table name.
+     * @param column Int column.
+     * @param value Value to find.
+     * @return Row, or null if not found.
+     */
+    public <T> T first(Class<T> type, String table, String column, int value) {
+        ArrayList<T> found = find(type, table, column, value);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * First row with values in two int columns.
+     *
+     * @param <T> Record class.
+     * @param type Record class.
+     * @param table Qualified table name.
+     * @param high First int column.
+     * @param h Value of the first column.
+     * @param low Second int column.
+     * @param l Value of the second column.
+     * @return Row, or null if not found.
+     */
+    public <T> T first(Class<T> type, String table, String high, int h, String low, int l) {
+        ArrayList<T> found = find(type, table, high, h, low, l);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private Index index(String table, String high, String low) {
+        final ColumnFile t = table(table);
+        return indexes.computeIfAbsent(table + "(" + (high == null ? "" : high + ",") + low + ")",
+            k -> new Index(high == null ? null : t.ints(high), t.ints(low), t.rows())
+        );
+    }
+
+    private <T> ArrayList<T> find(Class<T> type, String table, Index index, long key) {
+        ColumnFile t = table(table);
+        ArrayList<T> result = new ArrayList<>(1);
+        for (int i = index.first(key); i < index.keys.length && index.keys[i] == key; i++) {
+            result.add(t.get(type, index.rows[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Write a snapshot of tables from a database. NULL numbers are written
+     * as 0, as the record classes read them.
+     *
+     * @param path File to write.
+     * @param version Version label of the data.
+     * @param c Connection to read through.
+     * @param tables Tables to write.
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static void write(Path path, String version, Connection c, Table... tables)
+        throws SQLException, IOException {
+        Path[] parts = new Path[tables.length];
+        boolean autoCommit = c.getAutoCommit();
+        try {
+            c.setAutoCommit(false);
+            for (int i = 0; i < tables.length; i++) {
+                parts[i] = Files.createTempFile(path.toAbsolutePath().getParent(), "snapshot", ".part");
+                export(c, tables[i], parts[i]);
+            }
+            /*
+             * Directory, then each table 8-byte aligned.
+             */
+            int header = 4 + 4 + 2 + version.getBytes("UTF-8").length + 8 + 4;
+            for (Table t : tables) {
+                header += 2 + t.name.getBytes("UTF-8").length + 8 + 8;
+            }
+            long[] offsets = new long[tables.length];
+            long offset = header;
+            for (int i = 0; i < tables.length; i++) {
+                offset = (offset + 7) & ~7L;
+                offsets[i] = offset;
+                offset += Files.size(parts[i]);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                text(out, version);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(tables.length);
+                for (int i = 0; i < tables.length; i++) {
+                    text(out, tables[i].name);
+                    out.writeLong(offsets[i]);
+                    out.writeLong(Files.size(parts[i]));
+                }
+                for (int i = 0; i < tables.length; i++) {
+                    while (out.size() < offsets[i]) {
+                        out.writeByte(0);
+                    }
+                    Files.copy(parts[i], out);
+                }
+            }
+        } finally {
+            c.setAutoCommit(autoCommit);
+            for (Path p : parts) {
+                if (p != null) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write one table as a column file.
+     */
+    private static void export(Connection c, Table table, Path path) throws SQLException, IOException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT * FROM " + table.name + " ORDER BY " + table.order)) {
+            ps.setFetchSize(Database.FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                HashSet<String> present = new HashSet<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    present.add(meta.getColumnLabel(i).toLowerCase());
+                }
+                ArrayList<Field> fields = new ArrayList<>();
+                for (Field f : table.type.getFields()) {
+                    Class<?> t = f.getType();
+                    if (!Modifier.isStatic(f.getModifiers()) && present.contains(f.getName())
+                        && (t == int.class || t == double.class || t == String.class || t == int[].class)) {
+                        fields.add(f);
+                    }
+                }
+                int n = fields.size();
+                String[] columns = new String[n];
+                Object[] values = new Object[n];
+                int capacity = 1024;
+                for (int i = 0; i < n; i++) {
+                    columns[i] = fields.get(i).getName();
+                    values[i] = empty(fields.get(i).getType(), capacity);
+                }
+                int rows = 0;
+                while (rs.next()) {
+                    if (rows == capacity) {
+                        capacity *= 2;
+                        for (int i = 0; i < n; i++) {
+                            Object grown = empty(fields.get(i).getType(), capacity);
+                            System.arraycopy(values[i], 0, grown, 0, rows);
+                            values[i] = grown;
+                        }
+                    }
+                    for (int i = 0; i < n; i++) {
+                        Class<?> t = fields.get(i).getType();
+                        if (t == int.class) {
+                            ((int[]) values[i])[rows] = rs.getInt(columns[i]);
+                        } else if (t == double.class) {
+                            ((double[]) values[i])[rows] = rs.getDouble(columns[i]);
+                        } else if (t == String.class) {
+                            ((String[]) values[i])[rows] = rs.getString(columns[i]);
+                        } else {
+                            ((int[][]) values[i])[rows] = Database.ints(rs, columns[i]);
+                        }
+                    }
+                    rows++;
+                }
+                ArrayList<String> dictionary = new ArrayList<>();
+                for (String d : table.dictionary) {
+                    if (Arrays.asList(columns).contains(d)) {
+                        dictionary.add(d);
+                    }
+                }
+                ColumnFile.write(path, columns, values, rows, dictionary.toArray(new String[0]));
+            }
+        }
+    }
+
+    private static Object empty(Class<?> type, int capacity) {
+        return type == int.class ? new int[capacity] : type == double.class ? new double[capacity]
+            : type == String.class ? new String[capacity] : new int[capacity][];
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot " + version + " " + tables.keySet();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prepared statements of one connection, keyed by SQL text. The least
+ * recently used statement is closed once the cache is full.
+ *
+ * Statements obtained from the cache belong to it and must not be closed by
+ * the caller; set every parameter before each execution.
+ *
+ * @author Bruce Peret
+ */
+public class StatementCache {
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    /**
+     * Create an empty cache for a connection.
+     *
+     * @param connection Physical connection statements are prepared on.
+     * @param capacity Maximum number of statements kept open.
+     */
+    public StatementCache(Connection connection, final int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > capacity) {
+                    quietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Fetch the statement for an SQL query, preparing it on first use.
+     *
+     * @param sql SQL text of the statement.
+     * @return Reusable prepared statement.
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            hits++;
+            return ps;
+        }
+        misses++;
+        ps = create(sql);
+        statements.put(sql, ps);
+        return ps;
+    }
+
+    /**
+     * Prepare a statement to cache.
+     *
+     * @param sql SQL text of the statement.
+     * @return New prepared statement.
+     * @throws SQLException
+     */
+    protected PreparedStatement create(String sql) throws SQLException {
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Close every cached statement.
+     */
+    public synchronized void clear() {
+        for (PreparedStatement ps : statements.values()) {
+            quietly(ps);
+        }
+        statements.clear();
+    }
+
+    /**
+     * @return Number of statements currently cached.
+     */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return Number of lookups served from the cache.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that had to prepare a statement.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    private static void quietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            // The connection is probably gone; nothing left to release.
+        }
+    }
+}
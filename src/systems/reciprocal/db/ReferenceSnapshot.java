@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import systems.reciprocal.Database;
+import systems.reciprocal.Rs;
+import systems.reciprocal.Snapshot;
+import systems.reciprocal.db.astronomy.Constellation;
+import systems.reciprocal.db.astronomy.Dso;
+import systems.reciprocal.db.astronomy.Hygv3;
+import systems.reciprocal.db.astronomy.Zodiac;
+import systems.reciprocal.db.physics.Abundance;
+import systems.reciprocal.db.physics.Element;
+import systems.reciprocal.db.physics.Isotope;
+import systems.reciprocal.db.physics.Lattice;
+import systems.reciprocal.db.physics.Nubase;
+
+/**
+ * The physics and astronomy reference tables, exported from the database to
+ * a {@link Snapshot} file that configuration.ini can name as "snapshot" to
+ * run without a database.
+ *
+ * @author Bruce Peret
+ */
+public final class ReferenceSnapshot {
+
+    /**
+     * Tables written, each in the order of its lookup key.
+     */
+    public static final Snapshot.Table[] TABLES = {
+        new Snapshot.Table(Isotope.TABLE, Isotope.class, "z, isotope"),
+        new Snapshot.Table(Nubase.TABLE, Nubase.class, "z, a, excitation_energy"),
+        new Snapshot.Table(Element.TABLE, Element.class, "z"),
+        new Snapshot.Table(Abundance.TABLE, Abundance.class, "z"),
+        new Snapshot.Table(Lattice.TABLE, Lattice.class, "lattice"),
+        new Snapshot.Table(Hygv3.TABLE, Hygv3.class, "id", Hygv3.DICTIONARY),
+        new Snapshot.Table(Dso.TABLE, Dso.class, "id"),
+        new Snapshot.Table(Constellation.TABLE, Constellation.class, "abbr"),
+        new Snapshot.Table(Zodiac.TABLE, Zodiac.class, "number")
+    };
+
+    private ReferenceSnapshot() {
+    }
+
+    /**
+     * Export the reference tables from the connected database.
+     *
+     * @param path File to write.
+     * @param version Version label of the data.
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static void export(Path path, String version) throws SQLException, IOException {
+        try (Connection c = Database.connection()) {
+            Snapshot.write(path, version, c, TABLES);
+        }
+    }
+
+    /**
+     * Export the reference tables, connecting as set in configuration.ini.
+     *
+     * Usage: ReferenceSnapshot file [version]
+     *
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ReferenceSnapshot file [version]");
+            System.exit(2);
+        }
+        Rs.factory();
+        export(Paths.get(args[0]), args.length > 1 ? args[1] : LocalDate.now().toString());
+        System.out.println(Snapshot.open(Paths.get(args[0])));
+    }
+}
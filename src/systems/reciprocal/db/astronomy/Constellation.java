@@ -16,6 +16,12 @@
  */
 package systems.reciprocal.db.astronomy;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Astronomy;
 
 /**
@@ -29,49 +35,109 @@ public class Constellation extends Astronomy {
     /**
      * IAC abbreviation for constellation.
      */
-    String abbr;
+    public String abbr;
     /**
      * Name of constellation.
      */
-    String name;
+    public String name;
     /**
      * Genitive name.
      */
-    String genitive;
+    public String genitive;
     /**
      * Pronunciation key.
      */
-    String pronunciation;
+    public String pronunciation;
     /**
      * Meaning of constellation name.
      */
-    String meaning;
+    public String meaning;
     /**
      * Solid Angle of region covered by constellation, in millisteradians.
      */
-    double solid_angle;
+    public double solid_angle;
     /**
      * Percentage of sky occupied by constellation.
      */
-    double percentage;
+    public double percentage;
     /**
      * Historical description of constellation.
      */
-    String description;
+    public String description;
     /**
      * Hemisphere located in (N or S).
      */
-    String hemisphere;
+    public String hemisphere;
     /**
      * Quadrant located in (1-4, 6h increments).
      */
-    int quadrant;
+    public int quadrant;
     /**
      * Right ascension to center of constellation, decimal degrees.
      */
-    double right_ascension;
+    public double right_ascension;
     /**
      * Declination to center of constellation, decimal degrees.
      */
-    double declination;
+    public double declination;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Constellation() {
+    }
+
+    /**
+     * Constructor to create a Constellation instance from a DB ResultSet.
+     *
+     * @param rs ResultSet containing row of constellation data.
+     * @throws SQLException
+     */
+    public Constellation(ResultSet rs) throws SQLException {
+        abbr = rs.getString("abbr");
+        name = rs.getString("name");
+        genitive = rs.getString("genitive");
+        pronunciation = rs.getString("pronunciation");
+        meaning = rs.getString("meaning");
+        solid_angle = rs.getDouble("solid_angle");
+        percentage = rs.getDouble("percentage");
+        description = rs.getString("description");
+        hemisphere = rs.getString("hemisphere");
+        quadrant = rs.getInt("quadrant");
+        right_ascension = rs.getDouble("right_ascension");
+        declination = rs.getDouble("declination");
+    }
+
+    /**
+     * Retrieve an ArrayList of Constellation instances based on an SQL query.
+     *
+     * @param ps Query with parameters resolved.
+     * @return ArrayList of Constellation instances.
+     * @throws SQLException
+     */
+    public static ArrayList<Constellation> query(PreparedStatement ps) throws SQLException {
+        ArrayList<Constellation> result = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Constellation(rs));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get every row from the database, or from the snapshot when embedded.
+     *
+     * @return ArrayList of Constellation instances, in abbr order.
+     * @throws SQLException
+     */
+    public static ArrayList<Constellation> all() throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.all(Constellation.class, TABLE);
+        }
+        try (Connection c = connection()) {
+            return query(prepare(c, "SELECT * FROM " + TABLE + " ORDER BY abbr"));
+        }
+    }
 }
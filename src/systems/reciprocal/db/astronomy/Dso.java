@@ -16,6 +16,12 @@
  */
 package systems.reciprocal.db.astronomy;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Astronomy;
 
 /**
@@ -31,11 +37,11 @@ public class Dso extends Astronomy {
     /**
      * The object's right ascension, for epoch 2000.0 and equinox 2000.0.
      */
-    double right_ascension;
+    public double right_ascension;
     /**
      * The object's declination, for epoch 2000.0 and equinox 2000.0.
      */
-    double declination;
+    public double declination;
     /**
      * The object's type, as in the Historically Corrected NGC (see
      * "dso_source"). A full list of types is in
@@ -43,45 +49,45 @@ public class Dso extends Astronomy {
      * is the canonical list of types for objects in this catalog, regardless of
      * source.
      */
-    String type;
+    public String type;
     /**
      * The object's constellation, if known.
      */
-    String constellation;
+    public String constellation;
     /**
      * The object's visual magnitude.
      */
-    double apparent_magnitude;
+    public double apparent_magnitude;
     /**
      * A common name for the object.
      */
-    String name;
+    public String name;
     /**
      * The object's right ascension, in radians.
      */
-    double right_ascension_radians;
+    public double right_ascension_radians;
     /**
      * The object's declination, in radians.
      */
-    double declination_radians;
+    public double declination_radians;
     /**
      * Database unique ID.
      */
-    int id;
+    public int id;
     /**
      * Semi-major axis of the object, in arcminutes.
      */
-    double radius_major;
+    public double radius_major;
     /**
      * Semi-minor axis of the object, in arcminutes. If radius_minor is
      * undefined, radius_major is interpreted as the object's radius.
      */
-    double radius_minor;
+    public double radius_minor;
     /**
      * Position angle of the semimajor axis of the object, in degrees. Only
      * defined if radii are present.
      */
-    double angle;
+    public double angle;
     /**
      * Source identifier for the object's position, size, and magnitude. Valid
      * values are: "0": miscellaneous, limited detail (e.g. Wikipedia). "1": NGC
@@ -92,39 +98,39 @@ public class Dso extends Astronomy {
      * size and magnitude (http://www.cloudynights.com/item.php?item_id=2544).
      * "5": Perek-Koh
      */
-    int dso_source;
+    public int dso_source;
     /**
      * Primary (most commonly used) ID number/designation and catalog name for
      * this object.
      */
-    String primary_id;
+    public String primary_id;
     /**
      * Primary (most commonly used) ID number/designation and catalog name for
      * this object.
      */
-    String primary_catalog;
+    public String primary_catalog;
     /**
      * Additional, frequently-used ID and catalog name for this object (e.g., an
      * NGC or IC number for Messier objects).
      */
-    String common_id;
+    public String common_id;
     /**
      * Additional, frequently-used ID and catalog name for this object (e.g., an
      * NGC or IC number for Messier objects).
      */
-    String common_catalog;
+    public String common_catalog;
     /**
      * Duplicate ID number+catalog name. Unlike id2 and cat2, a duplicate ID
      * normally means this object is better known by the duplicate ID, and
      * should be excluded from display.
      */
-    String duplicate_id;
+    public String duplicate_id;
     /**
      * Duplicate ID number+catalog name. Unlike id2 and cat2, a duplicate ID
      * normally means this object is better known by the duplicate ID, and
      * should be excluded from display.
      */
-    String duplicate_catalog;
+    public String duplicate_catalog;
     /**
      * For objects whose actual magnitude is either not known or is not
      * representative of their visibility (such as very large diffuse nebulas
@@ -132,5 +138,74 @@ public class Dso extends Astronomy {
      * cutoff for chart drawing software. This field can be safely ignored for
      * other purposes.
      */
-    double display_magnitude;
+    public double display_magnitude;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Dso() {
+    }
+
+    /**
+     * Constructor to create a Dso instance from a DB ResultSet.
+     *
+     * @param rs ResultSet containing row of deep sky object data.
+     * @throws SQLException
+     */
+    public Dso(ResultSet rs) throws SQLException {
+        right_ascension = rs.getDouble("right_ascension");
+        declination = rs.getDouble("declination");
+        type = rs.getString("type");
+        constellation = rs.getString("constellation");
+        apparent_magnitude = rs.getDouble("apparent_magnitude");
+        name = rs.getString("name");
+        right_ascension_radians = rs.getDouble("right_ascension_radians");
+        declination_radians = rs.getDouble("declination_radians");
+        id = rs.getInt("id");
+        radius_major = rs.getDouble("radius_major");
+        radius_minor = rs.getDouble("radius_minor");
+        angle = rs.getDouble("angle");
+        dso_source = rs.getInt("dso_source");
+        primary_id = rs.getString("primary_id");
+        primary_catalog = rs.getString("primary_catalog");
+        common_id = rs.getString("common_id");
+        common_catalog = rs.getString("common_catalog");
+        duplicate_id = rs.getString("duplicate_id");
+        duplicate_catalog = rs.getString("duplicate_catalog");
+        display_magnitude = rs.getDouble("display_magnitude");
+    }
+
+    /**
+     * Retrieve an ArrayList of Dso instances based on an SQL query.
+     *
+     * @param ps Query with parameters resolved.
+     * @return ArrayList of Dso instances.
+     * @throws SQLException
+     */
+    public static ArrayList<Dso> query(PreparedStatement ps) throws SQLException {
+        ArrayList<Dso> result = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Dso(rs));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get every deep sky object from the database, or from the snapshot when
+     * embedded.
+     *
+     * @return ArrayList of Dso instances, in id order.
+     * @throws SQLException
+     */
+    public static ArrayList<Dso> all() throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.all(Dso.class, TABLE);
+        }
+        try (Connection c = connection()) {
+            return query(prepare(c, "SELECT * FROM " + TABLE + " ORDER BY id"));
+        }
+    }
 }
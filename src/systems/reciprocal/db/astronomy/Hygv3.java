@@ -16,6 +16,21 @@
  */
 package systems.reciprocal.db.astronomy;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import systems.reciprocal.ColumnFile;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Astronomy;
 
 /**
@@ -27,23 +42,68 @@ import systems.reciprocal.db.Astronomy;
 public class Hygv3 extends Astronomy {
 
     public static final String TABLE = SCHEMA + ".hygv3";
+    /**
+     * Column names, in field order.
+     */
+    public static final String[] COLUMNS = {
+        "id",
+        "hipparcos_catalog",
+        "henry_draper_catalog",
+        "gliese_catalog",
+        "bayer_flamsteed_designation",
+        "right_ascension",
+        "declination",
+        "name",
+        "distance",
+        "proper_motion_right_ascension",
+        "proper_motion_declination",
+        "radial_velocity",
+        "apparent_magnitude",
+        "absolute_magnitude",
+        "spectral_type",
+        "color_index",
+        "x",
+        "y",
+        "z",
+        "vx",
+        "vy",
+        "vz",
+        "right_ascension_radians",
+        "declination_radians",
+        "proper_motion_right_ascension_radians",
+        "proper_motion_declination_radians",
+        "bayer_designation",
+        "flamsteed_number",
+        "constellation",
+        "companion_star_id",
+        "companion_primary_id",
+        "base_catalog_id",
+        "luminosity",
+        "variable_star_designation",
+        "variable_min",
+        "variable_max"
+    };
+    /**
+     * Low cardinality string columns, dictionary encoded in snapshots.
+     */
+    public static final String[] DICTIONARY = {"spectral_type", "constellation"};
 
     /**
      * Database primary key.
      */
-    int id;
+    public int id;
     /**
      * The star's ID in the Hipparcos catalog, if known.
      */
-    int hipparcos_catalog;
+    public int hipparcos_catalog;
     /**
      * The star's ID in the Henry Draper catalog, if known.
      */
-    int henry_draper_catalog;
+    public int henry_draper_catalog;
     /**
      * The star's ID in the third edition of the Gliese Catalog of Nearby Stars.
      */
-    String gliese_catalog;
+    public String gliese_catalog;
     /**
      * The Bayer / Flamsteed designation, primarily from the Fifth Edition of
      * the Yale Bright Star Catalog. This is a combination of the two
@@ -53,15 +113,15 @@ public class Hygv3 extends Astronomy {
      * constellation abbreviation. Thus Alpha Andromedae has the field value
      * "21Alp And", and Kappa1 Sculptoris (no Flamsteed number) has "Kap1Scl".
      */
-    String bayer_flamsteed_designation;
+    public String bayer_flamsteed_designation;
     /**
      * The star's right ascension for epoch and equinox 2000.0.
      */
-    double right_ascension;
+    public double right_ascension;
     /**
      * The star's declination for epoch and equinox 2000.0.
      */
-    double declination;
+    public double declination;
     /**
      * A common name for the star, such as "Barnard's Star" or "Sirius". I have
      * taken these names primarily from the Hipparcos project's web site, which
@@ -71,63 +131,63 @@ public class Hygv3 extends Astronomy {
      * Lalande, Groombridge, and Gould ["G."]) except for certain nearby stars
      * which are still best known by these designations.
      */
-    String name;
+    public String name;
     /**
      * The star's distance in parsecs, the most common unit in astrometry. To
      * convert parsecs to light years, multiply by 3.262. A value >= 10000000
      * indicates missing or dubious (e.g., negative) parallax data in Hipparcos.
      */
-    double distance;
+    public double distance;
     /**
      * The star's proper motion in right ascension, in milliarcseconds per year.
      */
-    double proper_motion_right_ascension;
+    public double proper_motion_right_ascension;
     /**
      * The star's proper motion in declination, in milliarcseconds per year.
      */
-    double proper_motion_declination;
+    public double proper_motion_declination;
     /**
      * The star's radial velocity in km/sec, where known.
      */
-    double radial_velocity;
+    public double radial_velocity;
     /**
      * The star's apparent visual magnitude.
      */
-    double apparent_magnitude;
+    public double apparent_magnitude;
     /**
      * The star's absolute visual magnitude (its apparent magnitude from a
      * distance of 10 parsecs).
      */
-    double absolute_magnitude;
+    public double absolute_magnitude;
     /**
      * The star's spectral type, if known.
      */
-    String spectral_type;
+    public String spectral_type;
     /**
      * The star's color index (blue magnitude - visual magnitude), where known.
      */
-    String color_index;
+    public String color_index;
     /**
      * The Cartesian coordinates of the star, in a system based on the
      * equatorial coordinates as seen from Earth. +X is in the direction of the
      * vernal equinox (at epoch 2000), +Z towards the north celestial pole, and
      * +Y in the direction of R.A. 6 hours, declination 0 degrees.
      */
-    double x;
+    public double x;
     /**
      * The Cartesian coordinates of the star, in a system based on the
      * equatorial coordinates as seen from Earth. +X is in the direction of the
      * vernal equinox (at epoch 2000), +Z towards the north celestial pole, and
      * +Y in the direction of R.A. 6 hours, declination 0 degrees.
      */
-    double y;
+    public double y;
     /**
      * The Cartesian coordinates of the star, in a system based on the
      * equatorial coordinates as seen from Earth. +X is in the direction of the
      * vernal equinox (at epoch 2000), +Z towards the north celestial pole, and
      * +Y in the direction of R.A. 6 hours, declination 0 degrees.
      */
-    double z;
+    public double z;
     /**
      * The Cartesian velocity components of the star, in the same coordinate
      * system described immediately above. They are determined from the proper
@@ -136,7 +196,7 @@ public class Hygv3 extends Astronomy {
      * year), but they enormously simplify calculations using parsecs as base
      * units for celestial mapping.
      */
-    double vx;
+    public double vx;
     /**
      * The Cartesian velocity components of the star, in the same coordinate
      * system described immediately above. They are determined from the proper
@@ -145,7 +205,7 @@ public class Hygv3 extends Astronomy {
      * year), but they enormously simplify calculations using parsecs as base
      * units for celestial mapping.
      */
-    double vy;
+    public double vy;
     /**
      * The Cartesian velocity components of the star, in the same coordinate
      * system described immediately above. They are determined from the proper
@@ -154,74 +214,687 @@ public class Hygv3 extends Astronomy {
      * year), but they enormously simplify calculations using parsecs as base
      * units for celestial mapping.
      */
-    double vz;
+    public double vz;
     /**
      * The positions in radians, and proper motions in radians per year.
      */
-    double right_ascension_radians;
+    public double right_ascension_radians;
     /**
      * The positions in radians, and proper motions in radians per year.
      */
-    double declination_radians;
+    public double declination_radians;
     /**
      * The positions in radians, and proper motions in radians per year.
      */
-    double proper_motion_right_ascension_radians;
+    public double proper_motion_right_ascension_radians;
     /**
      * The positions in radians, and proper motions in radians per year.
      */
-    double proper_motion_declination_radians;
+    public double proper_motion_declination_radians;
     /**
      * The Bayer designation as a distinct value
      */
-    String bayer_designation;
+    public String bayer_designation;
     /**
      * The Flamsteed number as a distinct value
      */
-    int flamsteed_number;
+    public int flamsteed_number;
     /**
      * The standard constellation abbreviation
      */
-    String constellation;
+    public String constellation;
     /**
      * Identifies a star in a multiple star system. comp = ID of companion star,
      * comp_primary = ID of primary star for this component, and base = catalog
      * ID or name for this multi-star system. Currently only used for Gliese
      * stars.
      */
-    int companion_star_id;
+    public int companion_star_id;
     /**
      * Identifies a star in a multiple star system. comp = ID of companion star,
      * comp_primary = ID of primary star for this component, and base = catalog
      * ID or name for this multi-star system. Currently only used for Gliese
      * stars.
      */
-    int companion_primary_id;
+    public int companion_primary_id;
     /**
      * Identifies a star in a multiple star system. comp = ID of companion star,
      * comp_primary = ID of primary star for this component, and base = catalog
      * ID or name for this multi-star system. Currently only used for Gliese
      * stars.
      */
-    String base_catalog_id;
+    public String base_catalog_id;
     /**
      * Star's luminosity as a multiple of Solar luminosity.
      */
-    double luminosity;
+    public double luminosity;
     /**
      * Star's standard variable star designation, when known.
      */
-    String variable_star_designation;
+    public String variable_star_designation;
     /**
      * Star's approximate magnitude range, for variables. This value is based on
      * the Hp magnitudes for the range in the original Hipparcos catalog,
      * adjusted to the V magnitude scale to match the "mag" field.
      */
-    double variable_min;
+    public double variable_min;
     /**
      * Star's approximate magnitude range, for variables. This value is based on
      * the Hp magnitudes for the range in the original Hipparcos catalog,
      * adjusted to the V magnitude scale to match the "mag" field.
      */
-    double variable_max;
+    public double variable_max;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Hygv3() {
+    }
+
+    /**
+     * Constructor to create a Hygv3 instance from a DB ResultSet containing
+     * every column.
+     *
+     * @param rs ResultSet containing row of star data.
+     * @throws SQLException
+     */
+    public Hygv3(ResultSet rs) throws SQLException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            set(i, rs, rs.findColumn(COLUMNS[i]));
+        }
+    }
+
+    /**
+     * Constructor to create a Hygv3 instance from a row of a column file,
+     * reading each column directly.
+     *
+     * @param t Column file of the catalogue.
+     * @param columns Column numbers from {@link #columns(ColumnFile)}.
+     * @param row Row number.
+     */
+    public Hygv3(ColumnFile t, int[] columns, int row) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] >= 0) {
+                set(i, t, columns[i], row);
+            }
+        }
+    }
+
+    /**
+     * Column numbers of the fields in a column file, -1 for a field the file
+     * does not hold.
+     *
+     * @param t Column file of the catalogue.
+     * @return Column number of each field in {@link #COLUMNS}.
+     */
+    public static int[] columns(ColumnFile t) {
+        int[] columns = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i] = t.index(COLUMNS[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * Set one field from a result set column.
+     *
+     * @param field Index of the field in {@link #COLUMNS}.
+     * @param rs ResultSet positioned on a row.
+     * @param column Result set column number.
+     * @throws SQLException
+     */
+    void set(int field, ResultSet rs, int column) throws SQLException {
+        switch (field) {
+            case 0:
+                id = rs.getInt(column);
+                break;
+            case 1:
+                hipparcos_catalog = rs.getInt(column);
+                break;
+            case 2:
+                henry_draper_catalog = rs.getInt(column);
+                break;
+            case 3:
+                gliese_catalog = rs.getString(column);
+                break;
+            case 4:
+                bayer_flamsteed_designation = rs.getString(column);
+                break;
+            case 5:
+                right_ascension = rs.getDouble(column);
+                break;
+            case 6:
+                declination = rs.getDouble(column);
+                break;
+            case 7:
+                name = rs.getString(column);
+                break;
+            case 8:
+                distance = rs.getDouble(column);
+                break;
+            case 9:
+                proper_motion_right_ascension = rs.getDouble(column);
+                break;
+            case 10:
+                proper_motion_declination = rs.getDouble(column);
+                break;
+            case 11:
+                radial_velocity = rs.getDouble(column);
+                break;
+            case 12:
+                apparent_magnitude = rs.getDouble(column);
+                break;
+            case 13:
+                absolute_magnitude = rs.getDouble(column);
+                break;
+            case 14:
+                spectral_type = rs.getString(column);
+                break;
+            case 15:
+                color_index = rs.getString(column);
+                break;
+            case 16:
+                x = rs.getDouble(column);
+                break;
+            case 17:
+                y = rs.getDouble(column);
+                break;
+            case 18:
+                z = rs.getDouble(column);
+                break;
+            case 19:
+                vx = rs.getDouble(column);
+                break;
+            case 20:
+                vy = rs.getDouble(column);
+                break;
+            case 21:
+                vz = rs.getDouble(column);
+                break;
+            case 22:
+                right_ascension_radians = rs.getDouble(column);
+                break;
+            case 23:
+                declination_radians = rs.getDouble(column);
+                break;
+            case 24:
+                proper_motion_right_ascension_radians = rs.getDouble(column);
+                break;
+            case 25:
+                proper_motion_declination_radians = rs.getDouble(column);
+                break;
+            case 26:
+                bayer_designation = rs.getString(column);
+                break;
+            case 27:
+                flamsteed_number = rs.getInt(column);
+                break;
+            case 28:
+                constellation = rs.getString(column);
+                break;
+            case 29:
+                companion_star_id = rs.getInt(column);
+                break;
+            case 30:
+                companion_primary_id = rs.getInt(column);
+                break;
+            case 31:
+                base_catalog_id = rs.getString(column);
+                break;
+            case 32:
+                luminosity = rs.getDouble(column);
+                break;
+            case 33:
+                variable_star_designation = rs.getString(column);
+                break;
+            case 34:
+                variable_min = rs.getDouble(column);
+                break;
+            case 35:
+                variable_max = rs.getDouble(column);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    /**
+     * Set one field from a column file.
+     *
+     * @param field Index of the field in {@link #COLUMNS}.
+     * @param t Column file.
+     * @param column Column number.
+     * @param row Row number.
+     */
+    void set(int field, ColumnFile t, int column, int row) {
+        switch (field) {
+            case 0:
+                id = t.getInt(column, row);
+                break;
+            case 1:
+                hipparcos_catalog = t.getInt(column, row);
+                break;
+            case 2:
+                henry_draper_catalog = t.getInt(column, row);
+                break;
+            case 3:
+                gliese_catalog = t.getString(column, row);
+                break;
+            case 4:
+                bayer_flamsteed_designation = t.getString(column, row);
+                break;
+            case 5:
+                right_ascension = t.getDouble(column, row);
+                break;
+            case 6:
+                declination = t.getDouble(column, row);
+                break;
+            case 7:
+                name = t.getString(column, row);
+                break;
+            case 8:
+                distance = t.getDouble(column, row);
+                break;
+            case 9:
+                proper_motion_right_ascension = t.getDouble(column, row);
+                break;
+            case 10:
+                proper_motion_declination = t.getDouble(column, row);
+                break;
+            case 11:
+                radial_velocity = t.getDouble(column, row);
+                break;
+            case 12:
+                apparent_magnitude = t.getDouble(column, row);
+                break;
+            case 13:
+                absolute_magnitude = t.getDouble(column, row);
+                break;
+            case 14:
+                spectral_type = t.getString(column, row);
+                break;
+            case 15:
+                color_index = t.getString(column, row);
+                break;
+            case 16:
+                x = t.getDouble(column, row);
+                break;
+            case 17:
+                y = t.getDouble(column, row);
+                break;
+            case 18:
+                z = t.getDouble(column, row);
+                break;
+            case 19:
+                vx = t.getDouble(column, row);
+                break;
+            case 20:
+                vy = t.getDouble(column, row);
+                break;
+            case 21:
+                vz = t.getDouble(column, row);
+                break;
+            case 22:
+                right_ascension_radians = t.getDouble(column, row);
+                break;
+            case 23:
+                declination_radians = t.getDouble(column, row);
+                break;
+            case 24:
+                proper_motion_right_ascension_radians = t.getDouble(column, row);
+                break;
+            case 25:
+                proper_motion_declination_radians = t.getDouble(column, row);
+                break;
+            case 26:
+                bayer_designation = t.getString(column, row);
+                break;
+            case 27:
+                flamsteed_number = t.getInt(column, row);
+                break;
+            case 28:
+                constellation = t.getString(column, row);
+                break;
+            case 29:
+                companion_star_id = t.getInt(column, row);
+                break;
+            case 30:
+                companion_primary_id = t.getInt(column, row);
+                break;
+            case 31:
+                base_catalog_id = t.getString(column, row);
+                break;
+            case 32:
+                luminosity = t.getDouble(column, row);
+                break;
+            case 33:
+                variable_star_designation = t.getString(column, row);
+                break;
+            case 34:
+                variable_min = t.getDouble(column, row);
+                break;
+            case 35:
+                variable_max = t.getDouble(column, row);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    /**
+     * Set one int field.
+     *
+     * @param field Index of the field in {@link #COLUMNS}.
+     * @param value Value.
+     */
+    void set(int field, int value) {
+        switch (field) {
+            case 0:
+                id = value;
+                break;
+            case 1:
+                hipparcos_catalog = value;
+                break;
+            case 2:
+                henry_draper_catalog = value;
+                break;
+            case 27:
+                flamsteed_number = value;
+                break;
+            case 29:
+                companion_star_id = value;
+                break;
+            case 30:
+                companion_primary_id = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Not an int field: " + field);
+        }
+    }
+
+    /**
+     * Set one double field.
+     *
+     * @param field Index of the field in {@link #COLUMNS}.
+     * @param value Value.
+     */
+    void set(int field, double value) {
+        switch (field) {
+            case 5:
+                right_ascension = value;
+                break;
+            case 6:
+                declination = value;
+                break;
+            case 8:
+                distance = value;
+                break;
+            case 9:
+                proper_motion_right_ascension = value;
+                break;
+            case 10:
+                proper_motion_declination = value;
+                break;
+            case 11:
+                radial_velocity = value;
+                break;
+            case 12:
+                apparent_magnitude = value;
+                break;
+            case 13:
+                absolute_magnitude = value;
+                break;
+            case 16:
+                x = value;
+                break;
+            case 17:
+                y = value;
+                break;
+            case 18:
+                z = value;
+                break;
+            case 19:
+                vx = value;
+                break;
+            case 20:
+                vy = value;
+                break;
+            case 21:
+                vz = value;
+                break;
+            case 22:
+                right_ascension_radians = value;
+                break;
+            case 23:
+                declination_radians = value;
+                break;
+            case 24:
+                proper_motion_right_ascension_radians = value;
+                break;
+            case 25:
+                proper_motion_declination_radians = value;
+                break;
+            case 32:
+                luminosity = value;
+                break;
+            case 34:
+                variable_min = value;
+                break;
+            case 35:
+                variable_max = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a double field: " + field);
+        }
+    }
+
+    /**
+     * Set one text field.
+     *
+     * @param field Index of the field in {@link #COLUMNS}.
+     * @param value Value.
+     */
+    void set(int field, String value) {
+        switch (field) {
+            case 3:
+                gliese_catalog = value;
+                break;
+            case 4:
+                bayer_flamsteed_designation = value;
+                break;
+            case 7:
+                name = value;
+                break;
+            case 14:
+                spectral_type = value;
+                break;
+            case 15:
+                color_index = value;
+                break;
+            case 26:
+                bayer_designation = value;
+                break;
+            case 28:
+                constellation = value;
+                break;
+            case 31:
+                base_catalog_id = value;
+                break;
+            case 33:
+                variable_star_designation = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a text field: " + field);
+        }
+    }
+
+    /**
+     * Index of a column name in {@link #COLUMNS}.
+     *
+     * @param column Column name.
+     * @return Field index.
+     */
+    static int field(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown " + TABLE + " column: " + column);
+    }
+
+    /**
+     * Stream the rows of a query through a database cursor, so only one fetch
+     * of rows is held in memory at a time. Only the columns selected by the
+     * query are decoded; the other fields keep their default values.
+     *
+     * PostgreSQL only uses a cursor when the statement's connection is not in
+     * auto-commit mode. The stream must be closed, which closes the result
+     * set but not the statement.
+     *
+     * @param ps Query with parameters resolved.
+     * @return Stream of stars.
+     * @throws SQLException
+     */
+    public static Stream<Hygv3> stream(PreparedStatement ps) throws SQLException {
+        ps.setFetchSize(FETCH_SIZE);
+        final ResultSet rs = ps.executeQuery();
+        try {
+            ResultSetMetaData meta = rs.getMetaData();
+            final int[] fields = new int[meta.getColumnCount()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = field(meta.getColumnLabel(i + 1));
+            }
+            Spliterator<Hygv3> rows = new Spliterators.AbstractSpliterator<Hygv3>(
+                Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL
+            ) {
+                @Override
+                public boolean tryAdvance(Consumer<? super Hygv3> action) {
+                    try {
+                        if (!rs.next()) {
+                            return false;
+                        }
+                        Hygv3 h = new Hygv3();
+                        for (int i = 0; i < fields.length; i++) {
+                            h.set(fields[i], rs, i + 1);
+                        }
+                        action.accept(h);
+                        return true;
+                    } catch (SQLException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            };
+            return StreamSupport.stream(rows, false).onClose(() -> {
+                try {
+                    rs.close();
+                } catch (SQLException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+        } catch (SQLException | RuntimeException ex) {
+            rs.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Stream selected columns of the whole catalogue on a pooled connection.
+     * The stream must be closed to return the connection. When embedded, the
+     * stars are read from the snapshot with every column decoded.
+     *
+     * @param columns Columns to decode, or none for every column.
+     * @return Stream of stars.
+     * @throws SQLException
+     */
+    public static Stream<Hygv3> stream(String... columns) throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            for (String column : columns) {
+                field(column);
+            }
+            ColumnFile t = s.table(TABLE);
+            int[] fields = columns(t);
+            return IntStream.range(0, t.rows()).mapToObj(r -> new Hygv3(t, fields, r));
+        }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (columns.length == 0) {
+            sql.append(String.join(",", COLUMNS));
+        } else {
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(COLUMNS[field(columns[i])]);
+            }
+        }
+        sql.append(" FROM ").append(TABLE);
+        final Connection c = connection();
+        try {
+            c.setAutoCommit(false);
+            final PreparedStatement ps = c.prepareStatement(sql.toString());
+            return stream(ps).onClose(() -> {
+                try {
+                    try {
+                        ps.close();
+                    } finally {
+                        c.close();
+                    }
+                } catch (SQLException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+        } catch (SQLException | RuntimeException ex) {
+            c.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Visit every star in the catalogue in constant memory.
+     *
+     * @param visitor Called once for each star.
+     * @param columns Columns to decode, or none for every column.
+     * @throws SQLException
+     */
+    public static void scan(Consumer<Hygv3> visitor, String... columns) throws SQLException {
+        try (Stream<Hygv3> stars = stream(columns)) {
+            stars.forEach(visitor);
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Export the whole catalogue to a columnar snapshot file, to be opened
+     * later with {@link #snapshot(Path)} instead of querying the database.
+     *
+     * @param path File to write.
+     * @return Number of stars written.
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static int export(Path path) throws SQLException, IOException {
+        try (Stream<Hygv3> stars = stream()) {
+            return ColumnFile.write(path, Hygv3.class, COLUMNS, stars.iterator(), DICTIONARY);
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Memory-map a catalogue snapshot written by {@link #export(Path)}.
+     * Numeric columns are read in place from the file, for example
+     * {@code snapshot(path).doubles("x")}.
+     *
+     * @param path Snapshot file.
+     * @return Columnar catalogue.
+     * @throws IOException
+     */
+    public static ColumnFile snapshot(Path path) throws IOException {
+        return ColumnFile.open(path);
+    }
 }
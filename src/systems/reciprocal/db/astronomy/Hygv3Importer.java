@@ -0,0 +1,552 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.astronomy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import systems.reciprocal.Ascii;
+import systems.reciprocal.BulkLoad;
+import systems.reciprocal.ColumnFile;
+import systems.reciprocal.Database;
+import systems.reciprocal.Rs;
+
+/**
+ * Import of the HYG v3 catalogue CSV (hygdata_v3.csv) into columns held in
+ * arrays, to be bulk loaded into the hygv3 table or written as a column
+ * file snapshot.
+ *
+ * The CSV is memory-mapped and cut at line boundaries into pieces parsed in
+ * parallel. Each piece is read through a small window, and numbers are
+ * decoded straight from the bytes; only text columns become Strings. CSV
+ * columns are matched to fields by the header line, so their order does not
+ * matter, and the radian columns are computed from the degree and hour
+ * columns while parsing. Quoted fields are allowed, but not line breaks
+ * inside them.
+ *
+ * Missing integers are held as {@link #MISSING} and missing numbers as NaN;
+ * both load as NULL, and are written to a column file as 0, as
+ * {@link Hygv3#export(Path)} does.
+ *
+ * @author Bruce Peret
+ */
+public final class Hygv3Importer {
+
+    private static final Logger LOG = Logger.getLogger(Hygv3Importer.class.getName());
+
+    /**
+     * Value of a missing integer.
+     */
+    public static final int MISSING = Integer.MIN_VALUE;
+    /**
+     * CSV header name of each field in {@link Hygv3#COLUMNS}, null for the
+     * derived radian columns.
+     */
+    private static final String[] CSV = {
+        "id", "hip", "hd", "gl", "bf", "ra", "dec", "proper", "dist", "pmra", "pmdec", "rv", "mag",
+        "absmag", "spect", "ci", "x", "y", "z", "vx", "vy", "vz", null, null, null, null,
+        "bayer", "flam", "con", "comp", "comp_primary", "base", "lum", "var", "var_min", "var_max"
+    };
+    private static final byte INT = 'I';
+    private static final byte DOUBLE = 'D';
+    private static final byte STRING = 'S';
+    /**
+     * Field types, from the Hygv3 field declarations.
+     */
+    private static final byte[] TYPES = new byte[Hygv3.COLUMNS.length];
+    private static final int RA = Hygv3.field("right_ascension");
+    private static final int DEC = Hygv3.field("declination");
+    private static final int PMRA = Hygv3.field("proper_motion_right_ascension");
+    private static final int PMDEC = Hygv3.field("proper_motion_declination");
+    private static final int RA_RADIANS = Hygv3.field("right_ascension_radians");
+    private static final int DEC_RADIANS = Hygv3.field("declination_radians");
+    private static final int PMRA_RADIANS = Hygv3.field("proper_motion_right_ascension_radians");
+    private static final int PMDEC_RADIANS = Hygv3.field("proper_motion_declination_radians");
+    /**
+     * Radians in a milliarcsecond.
+     */
+    private static final double MAS = Math.PI / (180 * 3600 * 1000.0);
+    /**
+     * Bytes read into a window at a time.
+     */
+    private static final int WINDOW = 1 << 18;
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            try {
+                Class<?> t = Hygv3.class.getField(Hygv3.COLUMNS[i]).getType();
+                TYPES[i] = t == int.class ? INT : t == double.class ? DOUBLE : STRING;
+            } catch (NoSuchFieldException ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+    }
+
+    private final int rows;
+    private final Object[] values;
+    private final long nanos;
+
+    private Hygv3Importer(int rows, Object[] values, long nanos) {
+        this.rows = rows;
+        this.values = values;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Parse a HYG v3 CSV file.
+     *
+     * @param csv CSV file, with a header line.
+     * @return Parsed catalogue.
+     * @throws IOException if the file cannot be read, or lacks a column.
+     */
+    public static Hygv3Importer parse(Path csv) throws IOException {
+        long start = System.nanoTime();
+        final MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("CSV file too large to map: " + channel.size());
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final int size = map.limit();
+        int body = lineEnd(map, 0, size);
+        byte[] header = new byte[body];
+        map.duplicate().get(header);
+        final int[] target = header(header);
+        body = Math.min(body + 1, size);
+        /*
+         * Pieces of about 1 MB, at least four per processor, each starting
+         * after a line break.
+         */
+        int parts = Math.max(1, Math.max(Runtime.getRuntime().availableProcessors() * 4, (size - body) >> 20));
+        final int[] bounds = new int[parts + 1];
+        bounds[0] = body;
+        for (int k = 1; k < parts; k++) {
+            int at = Math.max(bounds[k - 1], body + (int) ((long) (size - body) * k / parts));
+            bounds[k] = at == body ? body : Math.min(lineEnd(map, at - 1, size) + 1, size);
+        }
+        bounds[parts] = size;
+        List<Piece> pieces = IntStream.range(0, parts).parallel()
+            .mapToObj(k -> new Piece(map, bounds[k], bounds[k + 1], target))
+            .collect(Collectors.toList());
+        /*
+         * Join the pieces in file order.
+         */
+        int rows = 0;
+        for (Piece p : pieces) {
+            rows += p.rows;
+        }
+        Object[] values = new Object[TYPES.length];
+        for (int f = 0; f < TYPES.length; f++) {
+            Object column = TYPES[f] == INT ? new int[rows] : TYPES[f] == DOUBLE ? new double[rows] : new String[rows];
+            int at = 0;
+            for (Piece p : pieces) {
+                System.arraycopy(p.values[f], 0, column, at, p.rows);
+                at += p.rows;
+            }
+            values[f] = column;
+        }
+        Hygv3Importer catalogue = new Hygv3Importer(rows, values, System.nanoTime() - start);
+        LOG.info(catalogue.toString());
+        return catalogue;
+    }
+
+    /**
+     * Position of the line break ending the line containing a position, or
+     * the end of the data.
+     */
+    private static int lineEnd(ByteBuffer b, int from, int size) {
+        for (int i = Math.max(from, 0); i < size; i++) {
+            if (b.get(i) == '\n') {
+                return i;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Field index for each CSV column, -1 for columns not loaded.
+     */
+    private static int[] header(byte[] line) throws IOException {
+        String[] names = new String(line, StandardCharsets.UTF_8).trim().split(",", -1);
+        HashMap<String, Integer> fields = new HashMap<>();
+        for (int f = 0; f < CSV.length; f++) {
+            if (CSV[f] != null) {
+                fields.put(CSV[f], f);
+            }
+        }
+        int[] target = new int[names.length];
+        boolean[] found = new boolean[CSV.length];
+        for (int c = 0; c < names.length; c++) {
+            Integer f = fields.get(names[c].trim().replace("\"", "").toLowerCase());
+            target[c] = f == null ? -1 : f;
+            if (f != null) {
+                found[f] = true;
+            }
+        }
+        for (int f = 0; f < CSV.length; f++) {
+            if (CSV[f] != null && !found[f]) {
+                throw new IOException("HYG CSV has no " + CSV[f] + " column");
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Columns parsed from one piece of the file.
+     */
+    private static final class Piece {
+
+        final Object[] values = new Object[TYPES.length];
+        int rows;
+        private int capacity;
+
+        Piece(ByteBuffer map, int from, int to, int[] target) {
+            ByteBuffer source = map.duplicate();
+            capacity = Math.max(16, (to - from) / 128);
+            for (int f = 0; f < TYPES.length; f++) {
+                values[f] = TYPES[f] == INT ? new int[capacity] : TYPES[f] == DOUBLE ? new double[capacity] : new String[capacity];
+            }
+            byte[] b = new byte[WINDOW];
+            int pos = from;
+            while (pos < to) {
+                /*
+                 * Fill the window from the start of the next line; a line may
+                 * run past the end of the piece, but none starts there.
+                 */
+                int n = Math.min(b.length, map.limit() - pos);
+                source.position(pos);
+                source.get(b, 0, n);
+                int line = 0;
+                while (pos + line < to) {
+                    int end = line;
+                    while (end < n && b[end] != '\n') {
+                        end++;
+                    }
+                    if (end == n && pos + n < map.limit()) {
+                        break;
+                    }
+                    if (!Ascii.empty(b, line, end)) {
+                        row(b, line, end, target);
+                    }
+                    line = end + 1;
+                }
+                if (line == 0) {
+                    b = new byte[b.length * 2];
+                }
+                pos += line;
+            }
+        }
+
+        private void row(byte[] b, int from, int to, int[] target) {
+            if (rows == capacity) {
+                capacity *= 2;
+                for (int f = 0; f < TYPES.length; f++) {
+                    switch (TYPES[f]) {
+                        case INT:
+                            values[f] = Arrays.copyOf((int[]) values[f], capacity);
+                            break;
+                        case DOUBLE:
+                            values[f] = Arrays.copyOf((double[]) values[f], capacity);
+                            break;
+                        default:
+                            values[f] = Arrays.copyOf((String[]) values[f], capacity);
+                            break;
+                    }
+                }
+            }
+            int r = rows++;
+            for (int f = 0; f < TYPES.length; f++) {
+                switch (TYPES[f]) {
+                    case INT:
+                        ((int[]) values[f])[r] = MISSING;
+                        break;
+                    case DOUBLE:
+                        ((double[]) values[f])[r] = Double.NaN;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            int c = 0;
+            int i = from;
+            while (i <= to && c < target.length) {
+                int start = i;
+                int end;
+                boolean quoted = i < to && b[i] == '"';
+                if (quoted) {
+                    i++;
+                    while (i < to && !(b[i] == '"' && (i + 1 >= to || b[i + 1] != '"'))) {
+                        i += b[i] == '"' ? 2 : 1;
+                    }
+                    end = i;
+                    start++;
+                    while (i < to && b[i] != ',') {
+                        i++;
+                    }
+                } else {
+                    while (i < to && b[i] != ',') {
+                        i++;
+                    }
+                    end = i;
+                }
+                int f = target[c++];
+                if (f >= 0) {
+                    switch (TYPES[f]) {
+                        case INT:
+                            ((int[]) values[f])[r] = Ascii.parseInt(b, start, end, MISSING);
+                            break;
+                        case DOUBLE:
+                            ((double[]) values[f])[r] = Ascii.parseDouble(b, start, end);
+                            break;
+                        default:
+                            String s = Ascii.string(b, start, end);
+                            ((String[]) values[f])[r] = quoted && s != null ? s.replace("\"\"", "\"") : s;
+                            break;
+                    }
+                }
+                i++;
+            }
+            double[] ra = (double[]) values[RA];
+            double[] dec = (double[]) values[DEC];
+            ((double[]) values[RA_RADIANS])[r] = ra[r] * Math.PI / 12;
+            ((double[]) values[DEC_RADIANS])[r] = Math.toRadians(dec[r]);
+            ((double[]) values[PMRA_RADIANS])[r] = ((double[]) values[PMRA])[r] * MAS;
+            ((double[]) values[PMDEC_RADIANS])[r] = ((double[]) values[PMDEC])[r] * MAS;
+        }
+    }
+
+    /**
+     * @return Number of stars.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return Seconds the parse took.
+     */
+    public double seconds() {
+        return nanos / 1e9;
+    }
+
+    private Object column(String column, byte type) {
+        int f = Hygv3.field(column);
+        if (TYPES[f] != type) {
+            throw new IllegalArgumentException("Column " + column + " is not of type " + (char) type);
+        }
+        return values[f];
+    }
+
+    /**
+     * @param column Column name from {@link Hygv3#COLUMNS}.
+     * @return Values of a double column, NaN where missing; not a copy.
+     */
+    public double[] doubles(String column) {
+        return (double[]) column(column, DOUBLE);
+    }
+
+    /**
+     * @param column Column name from {@link Hygv3#COLUMNS}.
+     * @return Values of an int column, {@link #MISSING} where missing; not a
+     * copy.
+     */
+    public int[] ints(String column) {
+        return (int[]) column(column, INT);
+    }
+
+    /**
+     * @param column Column name from {@link Hygv3#COLUMNS}.
+     * @return Values of a text column, null where missing; not a copy.
+     */
+    public String[] strings(String column) {
+        return (String[]) column(column, STRING);
+    }
+
+    /**
+     * Materialize one star, with missing values as 0.
+     *
+     * @param row Row number.
+     * @return Star.
+     */
+    public Hygv3 get(int row) {
+        Hygv3 h = new Hygv3();
+        for (int f = 0; f < TYPES.length; f++) {
+            switch (TYPES[f]) {
+                case INT:
+                    int i = ((int[]) values[f])[row];
+                    h.set(f, i == MISSING ? 0 : i);
+                    break;
+                case DOUBLE:
+                    double d = ((double[]) values[f])[row];
+                    h.set(f, Double.isNaN(d) ? 0 : d);
+                    break;
+                default:
+                    h.set(f, ((String[]) values[f])[row]);
+                    break;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Write the catalogue as a column file snapshot, readable with
+     * {@link Hygv3#snapshot(Path)}.
+     *
+     * @param path File to write.
+     * @return Number of stars written.
+     * @throws IOException
+     */
+    public int write(Path path) throws IOException {
+        Object[] columns = new Object[TYPES.length];
+        for (int f = 0; f < TYPES.length; f++) {
+            switch (TYPES[f]) {
+                case INT:
+                    int[] ints = ((int[]) values[f]).clone();
+                    for (int r = 0; r < rows; r++) {
+                        if (ints[r] == MISSING) {
+                            ints[r] = 0;
+                        }
+                    }
+                    columns[f] = ints;
+                    break;
+                case DOUBLE:
+                    double[] doubles = ((double[]) values[f]).clone();
+                    for (int r = 0; r < rows; r++) {
+                        if (Double.isNaN(doubles[r])) {
+                            doubles[r] = 0;
+                        }
+                    }
+                    columns[f] = doubles;
+                    break;
+                default:
+                    columns[f] = values[f];
+                    break;
+            }
+        }
+        return ColumnFile.write(path, Hygv3.COLUMNS, columns, rows, Hygv3.DICTIONARY);
+    }
+
+    /**
+     * Load the catalogue into the hygv3 table in one transaction, by COPY
+     * where the connection allows it.
+     *
+     * @param c Connection to load through.
+     * @param replace Whether to delete the existing rows first.
+     * @param batch Rows per COPY or batch insert.
+     * @return Rows loaded.
+     * @throws SQLException
+     */
+    public long load(Connection c, boolean replace, int batch) throws SQLException {
+        long start = System.nanoTime();
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        long loaded;
+        boolean copied;
+        try {
+            if (replace) {
+                try (Statement s = c.createStatement()) {
+                    s.executeUpdate("DELETE FROM " + Hygv3.TABLE);
+                }
+            }
+            try (BulkLoad bulk = new BulkLoad(c, Hygv3.TABLE, Hygv3.COLUMNS, batch, true)) {
+                copied = bulk.copying();
+                for (int r = 0; r < rows; r++) {
+                    for (int f = 0; f < TYPES.length; f++) {
+                        switch (TYPES[f]) {
+                            case INT:
+                                int i = ((int[]) values[f])[r];
+                                if (i == MISSING) {
+                                    bulk.none(Types.INTEGER);
+                                } else {
+                                    bulk.add(i);
+                                }
+                                break;
+                            case DOUBLE:
+                                bulk.add(((double[]) values[f])[r]);
+                                break;
+                            default:
+                                bulk.add(((String[]) values[f])[r]);
+                                break;
+                        }
+                    }
+                    bulk.row();
+                }
+                loaded = bulk.finish();
+            }
+            c.commit();
+        } catch (SQLException | RuntimeException ex) {
+            c.rollback();
+            throw ex;
+        } finally {
+            c.setAutoCommit(autoCommit);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        LOG.info(String.format("HYG load: %d rows in %.3f s (%.0f rows/s) by %s",
+            loaded, seconds, loaded / seconds, copied ? "COPY" : "batch insert"));
+        return loaded;
+    }
+
+    /**
+     * @return Summary of the parse.
+     */
+    @Override
+    public String toString() {
+        return String.format("HYG parse: %d rows in %.3f s (%.0f rows/s)", rows, seconds(), rows / seconds());
+    }
+
+    /**
+     * Import a HYG v3 CSV file, either replacing the hygv3 table, connecting
+     * as set in configuration.ini, or writing a column file snapshot.
+     *
+     * Usage: Hygv3Importer csv-file [snapshot-file]
+     *
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Hygv3Importer csv-file [snapshot-file]");
+            System.exit(2);
+        }
+        Hygv3Importer catalogue = parse(Paths.get(args[0]));
+        System.out.println(catalogue);
+        if (args.length > 1) {
+            catalogue.write(Paths.get(args[1]));
+        } else {
+            Rs.factory();
+            try (Connection c = Database.connection()) {
+                catalogue.load(c, true, 10000);
+            }
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.astronomy;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import systems.reciprocal.ColumnFile;
+
+/**
+ * Static k-d tree over the Cartesian (x, y, z) star positions, in parsecs.
+ *
+ * The tree is implicit: points are reordered in place so that each range
+ * [lo, hi) is split at its middle element on the x, y or z axis in turn, and
+ * no node objects are kept. Queries report the original row numbers of the
+ * points, which index the catalogue the tree was built from. The tree is
+ * immutable once built and may be queried from several threads at once.
+ *
+ * @author Bruce Peret
+ */
+public final class KdTree {
+
+    /**
+     * Ranges this small are scanned instead of split.
+     */
+    private static final int LEAF = 8;
+    /**
+     * Ranges this large are built in parallel.
+     */
+    private static final int PARALLEL = 1 << 14;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final int[] rows;
+
+    /**
+     * Build a tree from coordinate columns. The arrays are copied.
+     *
+     * @param x X coordinates.
+     * @param y Y coordinates.
+     * @param z Z coordinates.
+     */
+    public KdTree(double[] x, double[] y, double[] z) {
+        if (x.length != y.length || x.length != z.length) {
+            throw new IllegalArgumentException("Coordinate columns differ in length");
+        }
+        this.x = x.clone();
+        this.y = y.clone();
+        this.z = z.clone();
+        rows = new int[x.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        ForkJoinPool.commonPool().invoke(new Build(0, rows.length, 0));
+    }
+
+    /**
+     * Build a tree over the stars of a catalogue snapshot. Row numbers are
+     * snapshot rows.
+     *
+     * @param catalogue Snapshot written by {@link Hygv3#export}.
+     * @return k-d tree.
+     */
+    public static KdTree of(ColumnFile catalogue) {
+        return new KdTree(
+            column(catalogue.doubles("x")), column(catalogue.doubles("y")), column(catalogue.doubles("z"))
+        );
+    }
+
+    /**
+     * Build a tree over a collection of stars. Row numbers are positions in
+     * the collection's iteration order.
+     *
+     * @param stars Stars to index.
+     * @return k-d tree.
+     */
+    public static KdTree of(Collection<Hygv3> stars) {
+        double[] x = new double[stars.size()];
+        double[] y = new double[x.length];
+        double[] z = new double[x.length];
+        int i = 0;
+        for (Hygv3 h : stars) {
+            x[i] = h.x;
+            y[i] = h.y;
+            z[i++] = h.z;
+        }
+        return new KdTree(x, y, z);
+    }
+
+    private static double[] column(DoubleBuffer b) {
+        double[] a = new double[b.remaining()];
+        b.get(a);
+        return a;
+    }
+
+    /**
+     * @return Number of points in the tree.
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    private double coordinate(int axis, int i) {
+        return axis == 0 ? x[i] : axis == 1 ? y[i] : z[i];
+    }
+
+    /**
+     * Recursive median split, forked for large ranges.
+     */
+    private final class Build extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int axis;
+
+        Build(int lo, int hi, int axis) {
+            this.lo = lo;
+            this.hi = hi;
+            this.axis = axis;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= LEAF) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, axis);
+            int next = (axis + 1) % 3;
+            if (hi - lo >= PARALLEL) {
+                invokeAll(new Build(lo, mid, next), new Build(mid + 1, hi, next));
+            } else {
+                new Build(lo, mid, next).compute();
+                new Build(mid + 1, hi, next).compute();
+            }
+        }
+    }
+
+    /**
+     * Partially sort [left, right] so element k holds the value it would in
+     * sorted order along an axis, with smaller values before it and larger
+     * values after.
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            int m = (left + right) >>> 1;
+            /*
+             * Median of three pivot, moved to right.
+             */
+            if (coordinate(axis, m) < coordinate(axis, left)) {
+                swap(m, left);
+            }
+            if (coordinate(axis, right) < coordinate(axis, left)) {
+                swap(right, left);
+            }
+            if (coordinate(axis, m) < coordinate(axis, right)) {
+                swap(m, right);
+            }
+            double pivot = coordinate(axis, right);
+            int store = left;
+            for (int i = left; i < right; i++) {
+                if (coordinate(axis, i) < pivot) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, right);
+            if (store == k) {
+                return;
+            } else if (store < k) {
+                left = store + 1;
+            } else {
+                right = store - 1;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = x[i];
+        x[i] = x[j];
+        x[j] = t;
+        t = y[i];
+        y[i] = y[j];
+        y[j] = t;
+        t = z[i];
+        z[i] = z[j];
+        z[j] = t;
+        int r = rows[i];
+        rows[i] = rows[j];
+        rows[j] = r;
+    }
+
+    private double distance2(int i, double px, double py, double pz) {
+        double dx = x[i] - px;
+        double dy = y[i] - py;
+        double dz = z[i] - pz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Report every point within a radius of a point.
+     *
+     * @param px X of the centre.
+     * @param py Y of the centre.
+     * @param pz Z of the centre.
+     * @param r Radius, in parsecs.
+     * @param visitor Called with the row number of each point found.
+     */
+    public void radius(double px, double py, double pz, double r, IntConsumer visitor) {
+        radius(0, rows.length, 0, px, py, pz, r * r, visitor);
+    }
+
+    private void radius(int lo, int hi, int axis, double px, double py, double pz, double r2, IntConsumer visitor) {
+        while (hi - lo > LEAF) {
+            int mid = (lo + hi) >>> 1;
+            if (distance2(mid, px, py, pz) <= r2) {
+                visitor.accept(rows[mid]);
+            }
+            double d = (axis == 0 ? px : axis == 1 ? py : pz) - coordinate(axis, mid);
+            int next = (axis + 1) % 3;
+            if (d < 0) {
+                if (d * d <= r2) {
+                    radius(mid + 1, hi, next, px, py, pz, r2, visitor);
+                }
+                hi = mid;
+            } else {
+                if (d * d <= r2) {
+                    radius(lo, mid, next, px, py, pz, r2, visitor);
+                }
+                lo = mid + 1;
+            }
+            axis = next;
+        }
+        for (int i = lo; i < hi; i++) {
+            if (distance2(i, px, py, pz) <= r2) {
+                visitor.accept(rows[i]);
+            }
+        }
+    }
+
+    /**
+     * Return the row numbers of every point within a radius of a point.
+     *
+     * @param px X of the centre.
+     * @param py Y of the centre.
+     * @param pz Z of the centre.
+     * @param r Radius, in parsecs.
+     * @return Row numbers, in no particular order.
+     */
+    public int[] radius(double px, double py, double pz, double r) {
+        Rows found = new Rows();
+        radius(px, py, pz, r, found);
+        return found.toArray();
+    }
+
+    /**
+     * Report every point inside an axis-aligned box.
+     *
+     * @param min Lower corner {x, y, z}.
+     * @param max Upper corner {x, y, z}.
+     * @param visitor Called with the row number of each point found.
+     */
+    public void box(double[] min, double[] max, IntConsumer visitor) {
+        box(0, rows.length, 0, min, max, visitor);
+    }
+
+    private void box(int lo, int hi, int axis, double[] min, double[] max, IntConsumer visitor) {
+        while (hi - lo > LEAF) {
+            int mid = (lo + hi) >>> 1;
+            if (inside(mid, min, max)) {
+                visitor.accept(rows[mid]);
+            }
+            double c = coordinate(axis, mid);
+            int next = (axis + 1) % 3;
+            boolean left = min[axis] <= c;
+            boolean right = max[axis] >= c;
+            if (left && right) {
+                box(mid + 1, hi, next, min, max, visitor);
+                hi = mid;
+            } else if (left) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+            axis = next;
+        }
+        for (int i = lo; i < hi; i++) {
+            if (inside(i, min, max)) {
+                visitor.accept(rows[i]);
+            }
+        }
+    }
+
+    private boolean inside(int i, double[] min, double[] max) {
+        return x[i] >= min[0] && x[i] <= max[0]
+            && y[i] >= min[1] && y[i] <= max[1]
+            && z[i] >= min[2] && z[i] <= max[2];
+    }
+
+    /**
+     * Return the row numbers of every point inside an axis-aligned box.
+     *
+     * @param min Lower corner {x, y, z}.
+     * @param max Upper corner {x, y, z}.
+     * @return Row numbers, in no particular order.
+     */
+    public int[] box(double[] min, double[] max) {
+        Rows found = new Rows();
+        box(min, max, found);
+        return found.toArray();
+    }
+
+    /**
+     * Find the k points nearest a point, into caller-supplied arrays.
+     *
+     * @param px X of the point.
+     * @param py Y of the point.
+     * @param pz Z of the point.
+     * @param found Receives row numbers, nearest first; its length is k.
+     * @param distance2 Receives the squared distances, same length as found.
+     * @return Number of points found, less than k only if the tree is smaller.
+     */
+    public int nearest(double px, double py, double pz, int[] found, double[] distance2) {
+        if (found.length == 0) {
+            return 0;
+        }
+        Heap heap = new Heap(found, distance2);
+        nearest(0, rows.length, 0, px, py, pz, heap);
+        return heap.sort();
+    }
+
+    /**
+     * Find the k points nearest a point.
+     *
+     * @param px X of the point.
+     * @param py Y of the point.
+     * @param pz Z of the point.
+     * @param k Number of neighbours, zero or more.
+     * @return Row numbers, nearest first.
+     */
+    public int[] nearest(double px, double py, double pz, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Negative neighbour count: " + k);
+        }
+        if (k == 0) {
+            return new int[0];
+        }
+        int[] found = new int[k];
+        int n = nearest(px, py, pz, found, new double[k]);
+        return n == k ? found : Arrays.copyOf(found, n);
+    }
+
+    private void nearest(int lo, int hi, int axis, double px, double py, double pz, Heap heap) {
+        if (hi - lo <= LEAF) {
+            for (int i = lo; i < hi; i++) {
+                heap.offer(rows[i], distance2(i, px, py, pz));
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        heap.offer(rows[mid], distance2(mid, px, py, pz));
+        double d = (axis == 0 ? px : axis == 1 ? py : pz) - coordinate(axis, mid);
+        int next = (axis + 1) % 3;
+        if (d < 0) {
+            nearest(lo, mid, next, px, py, pz, heap);
+            if (d * d < heap.bound()) {
+                nearest(mid + 1, hi, next, px, py, pz, heap);
+            }
+        } else {
+            nearest(mid + 1, hi, next, px, py, pz, heap);
+            if (d * d < heap.bound()) {
+                nearest(lo, mid, next, px, py, pz, heap);
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap of the nearest points found so far, kept in the
+     * caller's arrays.
+     */
+    private static final class Heap {
+
+        private final int[] rows;
+        private final double[] d2;
+        private int size;
+
+        Heap(int[] rows, double[] d2) {
+            this.rows = rows;
+            this.d2 = d2;
+        }
+
+        double bound() {
+            if (rows.length == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            return size < rows.length ? Double.POSITIVE_INFINITY : d2[0];
+        }
+
+        void offer(int row, double distance2) {
+            if (size < rows.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (d2[parent] >= distance2) {
+                        break;
+                    }
+                    rows[i] = rows[parent];
+                    d2[i] = d2[parent];
+                    i = parent;
+                }
+                rows[i] = row;
+                d2[i] = distance2;
+            } else if (size > 0 && distance2 < d2[0]) {
+                sift(0, size, row, distance2);
+            }
+        }
+
+        private void sift(int i, int n, int row, double distance2) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && d2[child + 1] > d2[child]) {
+                    child++;
+                }
+                if (d2[child] <= distance2) {
+                    break;
+                }
+                rows[i] = rows[child];
+                d2[i] = d2[child];
+                i = child;
+            }
+            rows[i] = row;
+            d2[i] = distance2;
+        }
+
+        /**
+         * Heap sort in place, nearest first.
+         */
+        int sort() {
+            for (int n = size - 1; n > 0; n--) {
+                int row = rows[n];
+                double distance2 = d2[n];
+                rows[n] = rows[0];
+                d2[n] = d2[0];
+                sift(0, n, row, distance2);
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.astronomy;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+import systems.reciprocal.ColumnFile;
+
+/**
+ * Hierarchical Triangular Mesh (HTM) index of objects on the celestial
+ * sphere, for cone and polygon searches by right ascension and declination.
+ *
+ * The sphere is split into the 8 octant triangles, and each triangle
+ * recursively into 4, down to a fixed depth. Objects are stored as unit
+ * vectors grouped by leaf triangle and sorted by magnitude within it, so a
+ * search tests whole triangles against the query region and then does one
+ * dot product per candidate object. Every triangle also records its
+ * brightest magnitude, so a magnitude limit prunes faint regions without
+ * visiting them.
+ *
+ * Triangles use the standard HTM numbering: roots are 8-15 and the children
+ * of triangle t are 4t to 4t+3. The index is immutable once built and may be
+ * searched from several threads at once.
+ *
+ * @author Bruce Peret
+ */
+public final class SkyIndex {
+
+    /**
+     * Default subdivision depth: 32768 leaf triangles of about 1 degree.
+     */
+    public static final int DEPTH = 6;
+    /**
+     * Deepest subdivision: 524288 leaf triangles of about 0.3 degree. The
+     * per-triangle tables take 40 bytes for each of the 16 * 4^depth ids,
+     * about 42 MB at this depth, and each further level would multiply that
+     * by 4.
+     */
+    public static final int MAX_DEPTH = 8;
+    /**
+     * Slack, in radians, for rounding when testing triangle bounds.
+     */
+    private static final double EPSILON = 1e-9;
+    private static final double[][] VERTICES = {
+        {0, 0, 1}, {1, 0, 0}, {0, 1, 0}, {-1, 0, 0}, {0, -1, 0}, {0, 0, -1}
+    };
+    /**
+     * Root triangles S0-S3, N0-N3, counter-clockwise seen from outside.
+     */
+    private static final int[][] ROOTS = {
+        {1, 5, 2}, {2, 5, 3}, {3, 5, 4}, {4, 5, 1},
+        {1, 0, 4}, {4, 0, 3}, {3, 0, 2}, {2, 0, 1}
+    };
+
+    private final int depth;
+    private final int first;
+    /*
+     * Objects, grouped by leaf then by magnitude.
+     */
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final double[] magnitude;
+    private final int[] rows;
+    /**
+     * Start of each leaf's objects, by leaf number; one extra entry at end.
+     */
+    private final int[] start;
+    /*
+     * Per triangle, by HTM id: bounding cap centre and angular radius, and
+     * brightest magnitude within.
+     */
+    private final double[] cx;
+    private final double[] cy;
+    private final double[] cz;
+    private final double[] cap;
+    private final double[] brightest;
+
+    /**
+     * Build an index from coordinate and magnitude columns. Unknown (NaN)
+     * magnitudes only match searches without a magnitude limit.
+     *
+     * @param ra Right ascension, in radians.
+     * @param dec Declination, in radians.
+     * @param mag Magnitude used for limits.
+     * @param depth Subdivision depth, 0 to {@link #MAX_DEPTH}.
+     */
+    public SkyIndex(double[] ra, double[] dec, double[] mag, int depth) {
+        if (ra.length != dec.length || ra.length != mag.length) {
+            throw new IllegalArgumentException("Columns differ in length");
+        }
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Unsupported depth " + depth);
+        }
+        this.depth = depth;
+        first = 8 << (2 * depth);
+        int ids = 16 << (2 * depth);
+        cx = new double[ids];
+        cy = new double[ids];
+        cz = new double[ids];
+        cap = new double[ids];
+        brightest = new double[ids];
+        Arrays.fill(brightest, Double.POSITIVE_INFINITY);
+        for (int r = 0; r < ROOTS.length; r++) {
+            caps(8 + r, VERTICES[ROOTS[r][0]], VERTICES[ROOTS[r][1]], VERTICES[ROOTS[r][2]], 0);
+        }
+
+        int n = ra.length;
+        int[] leaf = new int[n];
+        double[] m = new double[n];
+        int[] counts = new int[first + 1];
+        double[] u = new double[3];
+        for (int i = 0; i < n; i++) {
+            unit(ra[i], dec[i], u);
+            leaf[i] = leaf(u[0], u[1], u[2]) - first;
+            m[i] = Double.isNaN(mag[i]) ? Double.POSITIVE_INFINITY : mag[i];
+            counts[leaf[i] + 1]++;
+        }
+        start = new int[first + 1];
+        for (int l = 0; l < first; l++) {
+            start[l + 1] = start[l] + counts[l + 1];
+        }
+        /*
+         * Place objects in their leaf's range, then sort each range by
+         * magnitude rank and row, packed into one long.
+         */
+        double[] sorted = m.clone();
+        Arrays.sort(sorted);
+        long[] order = new long[n];
+        int[] next = Arrays.copyOf(start, first);
+        for (int i = 0; i < n; i++) {
+            order[next[leaf[i]]++] = (long) rank(sorted, m[i]) << 32 | i;
+        }
+        for (int l = 0; l < first; l++) {
+            if (start[l + 1] - start[l] > 1) {
+                Arrays.sort(order, start[l], start[l + 1]);
+            }
+        }
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+        magnitude = new double[n];
+        rows = new int[n];
+        for (int k = 0; k < n; k++) {
+            int i = (int) order[k];
+            unit(ra[i], dec[i], u);
+            x[k] = u[0];
+            y[k] = u[1];
+            z[k] = u[2];
+            magnitude[k] = m[i];
+            rows[k] = i;
+            int id = leaf[i] + first;
+            brightest[id] = Math.min(brightest[id], m[i]);
+        }
+        /*
+         * Children have higher ids than parents, so walking the ids from
+         * the top down carries the brightest magnitude up to the roots.
+         */
+        for (int id = ids - 1; id >= 16; id--) {
+            brightest[id >> 2] = Math.min(brightest[id >> 2], brightest[id]);
+        }
+    }
+
+    /**
+     * Position of the first occurrence of a value in a sorted array, in
+     * {@link Double#compare} order.
+     */
+    private static int rank(double[] sorted, double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Double.compare(sorted[mid], value) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Index stars from a catalogue snapshot, limited by apparent magnitude.
+     * Row numbers are snapshot rows.
+     *
+     * @param catalogue Snapshot written by {@link Hygv3#export}.
+     * @return Sky index.
+     */
+    public static SkyIndex stars(ColumnFile catalogue) {
+        return new SkyIndex(
+            column(catalogue.doubles("right_ascension_radians")),
+            column(catalogue.doubles("declination_radians")),
+            column(catalogue.doubles("apparent_magnitude")),
+            DEPTH
+        );
+    }
+
+    /**
+     * Index a collection of stars, limited by apparent magnitude. Row numbers
+     * are positions in the collection's iteration order.
+     *
+     * @param stars Stars to index.
+     * @return Sky index.
+     */
+    public static SkyIndex stars(Collection<Hygv3> stars) {
+        double[] ra = new double[stars.size()];
+        double[] dec = new double[ra.length];
+        double[] mag = new double[ra.length];
+        int i = 0;
+        for (Hygv3 h : stars) {
+            ra[i] = h.right_ascension_radians;
+            dec[i] = h.declination_radians;
+            mag[i++] = h.apparent_magnitude;
+        }
+        return new SkyIndex(ra, dec, mag, DEPTH);
+    }
+
+    /**
+     * Index a collection of deep sky objects, limited by display magnitude
+     * where one is given and apparent magnitude otherwise. Row numbers are
+     * positions in the collection's iteration order.
+     *
+     * @param objects Objects to index.
+     * @return Sky index.
+     */
+    public static SkyIndex dso(Collection<Dso> objects) {
+        double[] ra = new double[objects.size()];
+        double[] dec = new double[ra.length];
+        double[] mag = new double[ra.length];
+        int i = 0;
+        for (Dso d : objects) {
+            ra[i] = d.right_ascension_radians;
+            dec[i] = d.declination_radians;
+            mag[i++] = d.display_magnitude != 0 ? d.display_magnitude : d.apparent_magnitude;
+        }
+        return new SkyIndex(ra, dec, mag, DEPTH);
+    }
+
+    private static double[] column(DoubleBuffer b) {
+        double[] a = new double[b.remaining()];
+        b.get(a);
+        return a;
+    }
+
+    /**
+     * @return Number of objects indexed.
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    private static void unit(double ra, double dec, double[] u) {
+        double c = Math.cos(dec);
+        u[0] = c * Math.cos(ra);
+        u[1] = c * Math.sin(ra);
+        u[2] = Math.sin(dec);
+    }
+
+    private static double[] midpoint(double[] a, double[] b) {
+        double[] m = {a[0] + b[0], a[1] + b[1], a[2] + b[2]};
+        double l = Math.sqrt(m[0] * m[0] + m[1] * m[1] + m[2] * m[2]);
+        m[0] /= l;
+        m[1] /= l;
+        m[2] /= l;
+        return m;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    /**
+     * Smallest of the three edge tests of a point against a triangle;
+     * non-negative when the point is inside.
+     */
+    private static double inside(double[] a, double[] b, double[] c, double px, double py, double pz) {
+        return Math.min(edge(a, b, px, py, pz), Math.min(edge(b, c, px, py, pz), edge(c, a, px, py, pz)));
+    }
+
+    private static double edge(double[] a, double[] b, double px, double py, double pz) {
+        return (a[1] * b[2] - a[2] * b[1]) * px
+            + (a[2] * b[0] - a[0] * b[2]) * py
+            + (a[0] * b[1] - a[1] * b[0]) * pz;
+    }
+
+    /**
+     * Record the bounding caps of a triangle and its descendants.
+     */
+    private void caps(int id, double[] a, double[] b, double[] c, int level) {
+        double[] centre = {a[0] + b[0] + c[0], a[1] + b[1] + c[1], a[2] + b[2] + c[2]};
+        double l = Math.sqrt(dot(centre, centre));
+        cx[id] = centre[0] / l;
+        cy[id] = centre[1] / l;
+        cz[id] = centre[2] / l;
+        centre[0] = cx[id];
+        centre[1] = cy[id];
+        centre[2] = cz[id];
+        cap[id] = Math.acos(Math.min(1, Math.min(dot(centre, a), Math.min(dot(centre, b), dot(centre, c)))));
+        if (level < depth) {
+            double[] w0 = midpoint(b, c);
+            double[] w1 = midpoint(a, c);
+            double[] w2 = midpoint(a, b);
+            caps(4 * id, a, w2, w1, level + 1);
+            caps(4 * id + 1, b, w0, w2, level + 1);
+            caps(4 * id + 2, c, w1, w0, level + 1);
+            caps(4 * id + 3, w0, w1, w2, level + 1);
+        }
+    }
+
+    /**
+     * HTM id of the leaf triangle containing a unit vector. Points on an edge
+     * go to whichever triangle holds them most firmly.
+     */
+    private int leaf(double px, double py, double pz) {
+        int id = 0;
+        double[] a = null;
+        double[] b = null;
+        double[] c = null;
+        double best = Double.NEGATIVE_INFINITY;
+        for (int r = 0; r < ROOTS.length; r++) {
+            double[] ra = VERTICES[ROOTS[r][0]];
+            double[] rb = VERTICES[ROOTS[r][1]];
+            double[] rc = VERTICES[ROOTS[r][2]];
+            double s = inside(ra, rb, rc, px, py, pz);
+            if (s > best) {
+                best = s;
+                id = 8 + r;
+                a = ra;
+                b = rb;
+                c = rc;
+            }
+        }
+        for (int level = 0; level < depth; level++) {
+            double[] w0 = midpoint(b, c);
+            double[] w1 = midpoint(a, c);
+            double[] w2 = midpoint(a, b);
+            double[][][] children = {{a, w2, w1}, {b, w0, w2}, {c, w1, w0}, {w0, w1, w2}};
+            int child = 0;
+            best = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < 4; k++) {
+                double s = inside(children[k][0], children[k][1], children[k][2], px, py, pz);
+                if (s > best) {
+                    best = s;
+                    child = k;
+                }
+            }
+            id = 4 * id + child;
+            a = children[child][0];
+            b = children[child][1];
+            c = children[child][2];
+        }
+        return id;
+    }
+
+    /**
+     * Angle between a triangle's cap centre and a unit vector.
+     */
+    private double angle(int id, double ux, double uy, double uz) {
+        return Math.acos(Math.max(-1, Math.min(1, cx[id] * ux + cy[id] * uy + cz[id] * uz)));
+    }
+
+    /**
+     * Report every object within an angular radius of a point.
+     *
+     * @param ra Right ascension of the centre, in radians.
+     * @param dec Declination of the centre, in radians.
+     * @param radius Angular radius, in radians.
+     * @param limit Faintest magnitude reported, or
+     * {@link Double#POSITIVE_INFINITY} for no limit.
+     * @param visitor Called with the row number of each object found.
+     */
+    public void cone(double ra, double dec, double radius, double limit, IntConsumer visitor) {
+        double[] u = new double[3];
+        unit(ra, dec, u);
+        double cos = Math.cos(radius);
+        for (int id = 8; id < 16; id++) {
+            cone(id, 0, u[0], u[1], u[2], radius, cos, limit, false, visitor);
+        }
+    }
+
+    private void cone(int id, int level, double ux, double uy, double uz, double radius, double cos,
+        double limit, boolean all, IntConsumer visitor) {
+        if (brightest[id] > limit) {
+            return;
+        }
+        if (!all) {
+            double d = angle(id, ux, uy, uz);
+            if (d > cap[id] + radius + EPSILON) {
+                return;
+            }
+            all = d + cap[id] + EPSILON < radius;
+        }
+        if (level == depth) {
+            int leaf = id - first;
+            for (int i = start[leaf]; i < start[leaf + 1] && magnitude[i] <= limit; i++) {
+                if (all || x[i] * ux + y[i] * uy + z[i] * uz >= cos) {
+                    visitor.accept(rows[i]);
+                }
+            }
+        } else {
+            for (int k = 0; k < 4; k++) {
+                cone(4 * id + k, level + 1, ux, uy, uz, radius, cos, limit, all, visitor);
+            }
+        }
+    }
+
+    /**
+     * Return the row numbers of every object within an angular radius of a
+     * point.
+     *
+     * @param ra Right ascension of the centre, in radians.
+     * @param dec Declination of the centre, in radians.
+     * @param radius Angular radius, in radians.
+     * @param limit Faintest magnitude reported.
+     * @return Row numbers, in no particular order.
+     */
+    public int[] cone(double ra, double dec, double radius, double limit) {
+        Rows found = new Rows();
+        cone(ra, dec, radius, limit, found);
+        return found.toArray();
+    }
+
+    /**
+     * Report every object inside a convex spherical polygon whose vertices
+     * are joined by great circle arcs. Vertices may be listed in either
+     * direction.
+     *
+     * @param ra Right ascension of each vertex, in radians.
+     * @param dec Declination of each vertex, in radians.
+     * @param limit Faintest magnitude reported, or
+     * {@link Double#POSITIVE_INFINITY} for no limit.
+     * @param visitor Called with the row number of each object found.
+     */
+    public void polygon(double[] ra, double[] dec, double limit, IntConsumer visitor) {
+        int n = ra.length;
+        if (n < 3 || dec.length != n) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        }
+        double[][] v = new double[n][3];
+        double[] mean = new double[3];
+        for (int i = 0; i < n; i++) {
+            unit(ra[i], dec[i], v[i]);
+            mean[0] += v[i][0];
+            mean[1] += v[i][1];
+            mean[2] += v[i][2];
+        }
+        /*
+         * Inward edge normals, flipped if the vertices run clockwise.
+         */
+        double[][] normals = new double[n][3];
+        for (int i = 0; i < n; i++) {
+            double[] a = v[i];
+            double[] b = v[(i + 1) % n];
+            double[] e = {
+                a[1] * b[2] - a[2] * b[1],
+                a[2] * b[0] - a[0] * b[2],
+                a[0] * b[1] - a[1] * b[0]
+            };
+            double l = Math.sqrt(dot(e, e));
+            normals[i][0] = e[0] / l;
+            normals[i][1] = e[1] / l;
+            normals[i][2] = e[2] / l;
+        }
+        if (dot(normals[0], mean) < 0) {
+            for (double[] normal : normals) {
+                normal[0] = -normal[0];
+                normal[1] = -normal[1];
+                normal[2] = -normal[2];
+            }
+        }
+        for (int id = 8; id < 16; id++) {
+            polygon(id, 0, normals, limit, false, visitor);
+        }
+    }
+
+    private void polygon(int id, int level, double[][] normals, double limit, boolean all, IntConsumer visitor) {
+        if (brightest[id] > limit) {
+            return;
+        }
+        if (!all) {
+            all = true;
+            for (double[] normal : normals) {
+                double d = Math.asin(Math.max(-1, Math.min(1,
+                    normal[0] * cx[id] + normal[1] * cy[id] + normal[2] * cz[id]
+                )));
+                if (d < -cap[id] - EPSILON) {
+                    return;
+                }
+                if (d < cap[id] + EPSILON) {
+                    all = false;
+                }
+            }
+        }
+        if (level == depth) {
+            int leaf = id - first;
+            for (int i = start[leaf]; i < start[leaf + 1] && magnitude[i] <= limit; i++) {
+                if (all || inside(normals, x[i], y[i], z[i])) {
+                    visitor.accept(rows[i]);
+                }
+            }
+        } else {
+            for (int k = 0; k < 4; k++) {
+                polygon(4 * id + k, level + 1, normals, limit, all, visitor);
+            }
+        }
+    }
+
+    private static boolean inside(double[][] normals, double px, double py, double pz) {
+        for (double[] normal : normals) {
+            if (normal[0] * px + normal[1] * py + normal[2] * pz < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the row numbers of every object inside a convex spherical
+     * polygon.
+     *
+     * @param ra Right ascension of each vertex, in radians.
+     * @param dec Declination of each vertex, in radians.
+     * @param limit Faintest magnitude reported.
+     * @return Row numbers, in no particular order.
+     */
+    public int[] polygon(double[] ra, double[] dec, double limit) {
+        Rows found = new Rows();
+        polygon(ra, dec, limit, found);
+        return found.toArray();
+    }
+}
@@ -16,6 +16,12 @@
  */
 package systems.reciprocal.db.astronomy;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Astronomy;
 
 /**
@@ -29,37 +35,94 @@ public class Zodiac extends Astronomy {
     /**
      * IAC abbreviation for constellation (references constellation).
      */
-    String abbr;
+    public String abbr;
     /**
      * Numerical order of sign.
      */
-    int number;
+    public int number;
     /**
      * UTF-8 symbol of sign.
      */
-    String symbol;
+    public String symbol;
     /**
      * Longitude in degrees.
      */
-    int longitude;
+    public int longitude;
     /**
      * Interval from start of year to start of sign.
      */
-    String begins;
+    public String begins;
     /**
      * Interval of duration in days of sign.
      */
-    String duration;
+    public String duration;
     /**
      * Zodiac sign element (Fire, Water, Earth, Air).
      */
-    String element;
+    public String element;
     /**
      * Zodiac sign season (Spring, Summer, Autumn, Winter).
      */
-    String season;
+    public String season;
     /**
      * Zodiac sign mobility (Cardinal, Fixed, Mutable).
      */
-    String mobility;
+    public String mobility;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Zodiac() {
+    }
+
+    /**
+     * Constructor to create a Zodiac instance from a DB ResultSet.
+     *
+     * @param rs ResultSet containing row of zodiac data.
+     * @throws SQLException
+     */
+    public Zodiac(ResultSet rs) throws SQLException {
+        abbr = rs.getString("abbr");
+        number = rs.getInt("number");
+        symbol = rs.getString("symbol");
+        longitude = rs.getInt("longitude");
+        begins = rs.getString("begins");
+        duration = rs.getString("duration");
+        element = rs.getString("element");
+        season = rs.getString("season");
+        mobility = rs.getString("mobility");
+    }
+
+    /**
+     * Retrieve an ArrayList of Zodiac instances based on an SQL query.
+     *
+     * @param ps Query with parameters resolved.
+     * @return ArrayList of Zodiac instances.
+     * @throws SQLException
+     */
+    public static ArrayList<Zodiac> query(PreparedStatement ps) throws SQLException {
+        ArrayList<Zodiac> result = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Zodiac(rs));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get every row from the database, or from the snapshot when embedded.
+     *
+     * @return ArrayList of Zodiac instances, in number order.
+     * @throws SQLException
+     */
+    public static ArrayList<Zodiac> all() throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.all(Zodiac.class, TABLE);
+        }
+        try (Connection c = connection()) {
+            return query(prepare(c, "SELECT * FROM " + TABLE + " ORDER BY number"));
+        }
+    }
 }
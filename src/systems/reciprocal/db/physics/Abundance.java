@@ -16,6 +16,12 @@
  */
 package systems.reciprocal.db.physics;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Physics;
 
 /**
@@ -83,4 +89,76 @@ public class Abundance extends Physics {
      * Solar System: Ahrens.
      */
     public double solar_system_a;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Abundance() {
+    }
+
+    /**
+     * Constructor to create an Abundance instance from a DB ResultSet.
+     *
+     * @param rs ResultSet containing row of abundance data.
+     * @throws SQLException
+     */
+    public Abundance(ResultSet rs) throws SQLException {
+        z = rs.getInt("z");
+        crust_crc = rs.getDouble("crust_crc");
+        crust_kl = rs.getDouble("crust_kl");
+        crust_g = rs.getDouble("crust_g");
+        crust_at = rs.getDouble("crust_at");
+        crust_awa = rs.getDouble("crust_awa");
+        crust_awe = rs.getDouble("crust_awe");
+        upper_crust_at = rs.getDouble("upper_crust_at");
+        upper_crust_as = rs.getDouble("upper_crust_as");
+        sea_crc = rs.getDouble("sea_crc");
+        sea_kl = rs.getDouble("sea_kl");
+        sun_kl = rs.getDouble("sun_kl");
+        solar_system_kl = rs.getDouble("solar_system_kl");
+        solar_system_a = rs.getDouble("solar_system_a");
+    }
+
+    /**
+     * Get the abundances of a single element from the database, or from the
+     * snapshot when embedded.
+     *
+     * @param z Atomic number.
+     * @return Abundance or null if not found.
+     * @throws SQLException
+     */
+    public static Abundance get(int z) throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.first(Abundance.class, TABLE, "z", z);
+        }
+        Abundance a = null;
+        try (Connection c = connection()) {
+            PreparedStatement ps = prepare(c, "SELECT * FROM " + TABLE + " WHERE z=?");
+            ps.setInt(1, z);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    a = new Abundance(rs);
+                }
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Retrieve an ArrayList of Abundance instances based on an SQL query.
+     *
+     * @param ps Query with parameters resolved.
+     * @return ArrayList of Abundance instances.
+     * @throws SQLException
+     */
+    public static ArrayList<Abundance> query(PreparedStatement ps) throws SQLException {
+        ArrayList<Abundance> result = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Abundance(rs));
+            }
+        }
+        return result;
+    }
 }
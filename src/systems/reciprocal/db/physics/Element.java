@@ -16,9 +16,16 @@
  */
 package systems.reciprocal.db.physics;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Physics;
 
 /**
+ * Physical and chemical properties of the elements.
  *
  * @author Bruce Peret
  */
@@ -108,7 +115,7 @@ public class Element extends Physics {
     /**
      * Known Oxidation states.
      */
-    public Integer[] oxidation_state;
+    public int[] oxidation_state;
     /**
      * Electronic configuration (triples, in hexadecimal).
      */
@@ -124,7 +131,7 @@ public class Element extends Physics {
     /**
      * Reciprocal System displacements.
      */
-    public Integer[] displacement;
+    public int[] displacement;
     /**
      * Electronic configuration base Element atomic number.
      */
@@ -132,27 +139,27 @@ public class Element extends Physics {
     /**
      * RS displacements, positive electric.
      */
-    public Integer[] abcp;
+    public int[] abcp;
     /**
      * RS displacements, negative electric.
      */
-    public Integer[] abcn;
+    public int[] abcn;
     /**
      * Number of electrons in outer s orbital.
      */
-    public Integer[] s;
+    public int[] s;
     /**
      * Number of electrons in outer p orbital.
      */
-    public Integer[] p;
+    public int[] p;
     /**
      * Number of electrons in outer d orbital.
      */
-    public Integer[] d;
+    public int[] d;
     /**
      * Number of electrons in outer f orbital.
      */
-    public Integer[] f;
+    public int[] f;
     /**
      * Magnetic orientation.
      */
@@ -165,4 +172,107 @@ public class Element extends Physics {
      * Critical pressure.
      */
     public double critical_pressure;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Element() {
+    }
+
+    /**
+     * Constructor to create an Element instance from a DB ResultSet.
+     *
+     * @param rs ResultSet containing row of element data.
+     * @throws SQLException
+     */
+    public Element(ResultSet rs) throws SQLException {
+        name = rs.getString("name");
+        symbol = rs.getString("symbol");
+        z = rs.getInt("z");
+        mass = rs.getDouble("mass");
+        density = rs.getDouble("density");
+        density_condition = rs.getString("density_condition");
+        melting_point = rs.getDouble("melting_point");
+        boiling_point = rs.getDouble("boiling_point");
+        atomic_radius = rs.getDouble("atomic_radius");
+        covalent_radius = rs.getDouble("covalent_radius");
+        specific_volume = rs.getDouble("specific_volume");
+        specific_heat = rs.getDouble("specific_heat");
+        specific_heat_bond = rs.getString("specific_heat_bond");
+        heat_fusion = rs.getDouble("heat_fusion");
+        heat_fusion_bond = rs.getString("heat_fusion_bond");
+        heat_evaporation = rs.getDouble("heat_evaporation");
+        heat_evaporation_bond = rs.getString("heat_evaporation_bond");
+        thermal_conductivity = rs.getDouble("thermal_conductivity");
+        pauling_electronegativity = rs.getDouble("pauling_electronegativity");
+        first_ionization_energy = rs.getDouble("first_ionization_energy");
+        oxidation_state = ints(rs, "oxidation_state");
+        electronic_configuration = rs.getString("electronic_configuration");
+        lattice = rs.getString("lattice");
+        lattice_constant = rs.getDouble("lattice_constant");
+        displacement = ints(rs, "displacement");
+        ec_base = rs.getInt("ec_base");
+        abcp = ints(rs, "abcp");
+        abcn = ints(rs, "abcn");
+        s = ints(rs, "s");
+        p = ints(rs, "p");
+        d = ints(rs, "d");
+        f = ints(rs, "f");
+        magnetic = rs.getString("magnetic");
+        critical_temperature = rs.getDouble("critical_temperature");
+        critical_pressure = rs.getDouble("critical_pressure");
+    }
+
+    /**
+     * Display the element symbol for class string.
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return symbol;
+    }
+
+    /**
+     * Get a single element from the database, or from the snapshot when
+     * embedded.
+     *
+     * @param z Atomic number.
+     * @return Element or null if not found.
+     * @throws SQLException
+     */
+    public static Element get(int z) throws SQLException {
+        Snapshot snapshot = embedded;
+        if (snapshot != null) {
+            return snapshot.first(Element.class, TABLE, "z", z);
+        }
+        Element e = null;
+        try (Connection c = connection()) {
+            PreparedStatement ps = prepare(c, "SELECT * FROM " + TABLE + " WHERE z=?");
+            ps.setInt(1, z);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    e = new Element(rs);
+                }
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Retrieve an ArrayList of Element instances based on an SQL query.
+     *
+     * @param ps Query with parameters resolved.
+     * @return ArrayList of Element instances.
+     * @throws SQLException
+     */
+    public static ArrayList<Element> query(PreparedStatement ps) throws SQLException {
+        ArrayList<Element> result = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Element(rs));
+            }
+        }
+        return result;
+    }
 }
@@ -16,11 +16,15 @@
  */
 package systems.reciprocal.db.physics;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import javafx.scene.chart.XYChart;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import systems.reciprocal.AsyncQuery;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Physics;
 
 /**
@@ -113,6 +117,21 @@ public class Isotope extends Physics {
      * Abundance of isotope in decimal percent (0.00-1.00).
      */
     public double abundance;
+    /**
+     * When set, {@link #get(int, int)} is served from this in-memory table
+     * instead of the database. Cleared when the data source is switched.
+     */
+    public static volatile NuclideTable table;
+
+    static {
+        onDisconnect(() -> table = null);
+    }
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Isotope() {
+    }
 
     /**
      * Constructor to create an Isotope instance from a DB ResultSet.
@@ -134,6 +153,25 @@ public class Isotope extends Physics {
         abundance = rs.getDouble("abundance");
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param other Isotope to copy.
+     */
+    public Isotope(Isotope other) {
+        z = other.z;
+        symbol = other.symbol;
+        isotope = other.isotope;
+        relative_atomic_mass = other.relative_atomic_mass;
+        relative_atomic_mass_uncertainty = other.relative_atomic_mass_uncertainty;
+        isotopic_composition = other.isotopic_composition;
+        isotopic_composition_uncertainty = other.isotopic_composition_uncertainty;
+        standard_atomic_weight = other.standard_atomic_weight;
+        standard_atomic_weight_uncertainty = other.standard_atomic_weight_uncertainty;
+        notes = other.notes;
+        abundance = other.abundance;
+    }
+
     /**
      * Display "(n,p)Symbol" for class string.
      *
@@ -145,7 +183,20 @@ public class Isotope extends Physics {
     }
 
     /**
-     * Get a single isotope from the database.
+     * Load the isotope and NUBASE tables into memory and serve
+     * {@link #get(int, int)} from them from now on.
+     *
+     * @return The loaded table.
+     * @throws SQLException
+     */
+    public static NuclideTable preload() throws SQLException {
+        table = NuclideTable.load();
+        return table;
+    }
+
+    /**
+     * Get a single isotope from the database, or from the in-memory table if
+     * one has been loaded, or from the snapshot when embedded.
      *
      * @param z Atomic number.
      * @param n Isotope number.
@@ -153,15 +204,25 @@ public class Isotope extends Physics {
      * @throws SQLException
      */
     public static Isotope get(int z, int n) throws SQLException {
+        NuclideTable t = table;
+        if (t != null) {
+            return t.isotope(z, n);
+        }
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.first(Isotope.class, TABLE, "z", z, "isotope", n);
+        }
         Isotope i = null;
-        PreparedStatement ps = db.prepareStatement(
-            "SELECT * FROM " + TABLE + " WHERE z=? AND isotope=?"
-        );
-        ps.setInt(1, z);
-        ps.setInt(2, n);
-        try (ResultSet rs = ps.executeQuery()) {
-            if (rs.next()) {
-                i = new Isotope(rs);
+        try (Connection c = connection()) {
+            PreparedStatement ps = prepare(c,
+                "SELECT * FROM " + TABLE + " WHERE z=? AND isotope=?"
+            );
+            ps.setInt(1, z);
+            ps.setInt(2, n);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    i = new Isotope(rs);
+                }
             }
         }
         return i;
@@ -184,4 +245,54 @@ public class Isotope extends Physics {
         return result;
     }
 
+    /**
+     * Point lookups queued by {@link #getAsync(int, int)}, at most 64 a
+     * query.
+     */
+    private static final AsyncQuery.Batch<Isotope> BATCH = new AsyncQuery.Batch<>((task, keys) -> {
+        int slots = AsyncQuery.slots(keys);
+        PreparedStatement ps = task.prepare(
+            "SELECT * FROM " + TABLE + " WHERE (z, isotope) IN (" + AsyncQuery.pairs(slots) + ")"
+        );
+        AsyncQuery.bind(ps, keys, slots);
+        HashMap<Long, Isotope> found = new HashMap<>();
+        for (Isotope i : query(ps)) {
+            found.put(AsyncQuery.key(i.z, i.isotope), i);
+        }
+        return found;
+    }, 64, null, Isotope::new);
+
+    /**
+     * Get a single isotope without blocking. Lookups made at the same time
+     * are fetched together in one query, and each caller receives its own
+     * instance; when preloaded, the table's shared instance is returned, as
+     * by {@link #get(int, int)}.
+     *
+     * @param z Atomic number.
+     * @param n Isotope number.
+     * @return Future isotope, null if combination not found.
+     */
+    public static CompletableFuture<Isotope> getAsync(int z, int n) {
+        NuclideTable t = table;
+        if (t != null) {
+            return CompletableFuture.completedFuture(t.isotope(z, n));
+        }
+        Snapshot s = embedded;
+        if (s != null) {
+            return CompletableFuture.completedFuture(s.first(Isotope.class, TABLE, "z", z, "isotope", n));
+        }
+        return BATCH.get(AsyncQuery.key(z, n));
+    }
+
+    /**
+     * Retrieve Isotope instances from an SQL query without blocking.
+     *
+     * @param sql Query selecting isotope rows.
+     * @param parameters Values of its parameters, in order.
+     * @return Future list of Isotope instances; cancelling it cancels the
+     * query.
+     */
+    public static AsyncQuery.Task<ArrayList<Isotope>> queryAsync(String sql, Object... parameters) {
+        return submit(task -> query(task.prepare(sql, parameters)));
+    }
 }
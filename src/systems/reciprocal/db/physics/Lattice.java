@@ -16,6 +16,12 @@
  */
 package systems.reciprocal.db.physics;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Physics;
 
 /**
@@ -34,4 +40,54 @@ public class Lattice extends Physics {
      * Conventional name of structure
      */
     public String name;
+
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Lattice() {
+    }
+
+    /**
+     * Constructor to create a Lattice instance from a DB ResultSet.
+     *
+     * @param rs ResultSet containing row of lattice data.
+     * @throws SQLException
+     */
+    public Lattice(ResultSet rs) throws SQLException {
+        lattice = rs.getString("lattice");
+        name = rs.getString("name");
+    }
+
+    /**
+     * Retrieve an ArrayList of Lattice instances based on an SQL query.
+     *
+     * @param ps Query with parameters resolved.
+     * @return ArrayList of Lattice instances.
+     * @throws SQLException
+     */
+    public static ArrayList<Lattice> query(PreparedStatement ps) throws SQLException {
+        ArrayList<Lattice> result = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                result.add(new Lattice(rs));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get every row from the database, or from the snapshot when embedded.
+     *
+     * @return ArrayList of Lattice instances, in lattice order.
+     * @throws SQLException
+     */
+    public static ArrayList<Lattice> all() throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.all(Lattice.class, TABLE);
+        }
+        try (Connection c = connection()) {
+            return query(prepare(c, "SELECT * FROM " + TABLE + " ORDER BY lattice"));
+        }
+    }
 }
@@ -16,10 +16,15 @@
  */
 package systems.reciprocal.db.physics;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import systems.reciprocal.AsyncQuery;
+import systems.reciprocal.Snapshot;
 import systems.reciprocal.db.Physics;
 
 /**
@@ -103,6 +108,12 @@ public class Nubase extends Physics {
      */
     public String decay_modes;
 
+    /**
+     * Empty constructor for instances filled in by other loaders.
+     */
+    public Nubase() {
+    }
+
     /**
      * Constructor to create an Isotope instance from a DB ResultSet.
      *
@@ -130,6 +141,43 @@ public class Nubase extends Physics {
         decay_modes = rs.getString("decay_modes");
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param other Nubase to copy.
+     */
+    public Nubase(Nubase other) {
+        a = other.a;
+        z = other.z;
+        x1 = other.x1;
+        x2 = other.x2;
+        symbol = other.symbol;
+        state = other.state;
+        mass_excess = other.mass_excess;
+        mass_excess_uncertainty = other.mass_excess_uncertainty;
+        excitation_energy = other.excitation_energy;
+        excitation_energy_uncertainty = other.excitation_energy_uncertainty;
+        origin_code = other.origin_code;
+        half_life = other.half_life;
+        production_ratio = other.production_ratio;
+        spin = other.spin;
+        x3 = other.x3;
+        x4 = other.x4;
+        year = other.year;
+        decay_modes = other.decay_modes;
+    }
+
+    /**
+     * Copy a list of states, element by element.
+     */
+    private static ArrayList<Nubase> copy(ArrayList<Nubase> states) {
+        ArrayList<Nubase> result = new ArrayList<>(states.size());
+        for (Nubase n : states) {
+            result.add(new Nubase(n));
+        }
+        return result;
+    }
+
     /**
      * Display "(n,p)Symbol" for class string.
      *
@@ -140,6 +188,30 @@ public class Nubase extends Physics {
         return "(" + a + "," + z + ")" + symbol;
     }
     
+    /**
+     * Get the ground and isomeric states of a nuclide from the database, or
+     * from the snapshot when embedded.
+     *
+     * @param z Atomic number.
+     * @param a Atomic mass number.
+     * @return States of the nuclide, ground state first; empty if not found.
+     * @throws SQLException
+     */
+    public static ArrayList<Nubase> get(int z, int a) throws SQLException {
+        Snapshot s = embedded;
+        if (s != null) {
+            return s.find(Nubase.class, TABLE, "z", z, "a", a);
+        }
+        try (Connection c = connection()) {
+            PreparedStatement ps = prepare(c,
+                "SELECT * FROM " + TABLE + " WHERE z=? AND a=? ORDER BY excitation_energy"
+            );
+            ps.setInt(1, z);
+            ps.setInt(2, a);
+            return query(ps);
+        }
+    }
+
     /**
      * Retrieve an ArrayList of Isotope instances based on an SQL query.
      *
@@ -156,4 +228,55 @@ public class Nubase extends Physics {
         }
         return result;
     }
+
+    /**
+     * Nuclide lookups queued by {@link #getAsync(int, int)}, at most 64 a
+     * query.
+     */
+    private static final AsyncQuery.Batch<ArrayList<Nubase>> BATCH = new AsyncQuery.Batch<>((task, keys) -> {
+        int slots = AsyncQuery.slots(keys);
+        PreparedStatement ps = task.prepare(
+            "SELECT * FROM " + TABLE + " WHERE (z, a) IN (" + AsyncQuery.pairs(slots) + ")"
+            + " ORDER BY excitation_energy"
+        );
+        AsyncQuery.bind(ps, keys, slots);
+        HashMap<Long, ArrayList<Nubase>> found = new HashMap<>();
+        for (long key : keys) {
+            found.put(key, new ArrayList<>());
+        }
+        for (Nubase n : query(ps)) {
+            found.get(AsyncQuery.key(n.z, n.a)).add(n);
+        }
+        return found;
+    }, 64, null, Nubase::copy);
+
+    /**
+     * Get the ground and isomeric states of a nuclide without blocking.
+     * Lookups made at the same time are fetched together in one query, and
+     * each caller receives its own list and instances.
+     *
+     * @param z Atomic number.
+     * @param a Atomic mass number.
+     * @return Future states of the nuclide, ground state first; empty if not
+     * found.
+     */
+    public static CompletableFuture<ArrayList<Nubase>> getAsync(int z, int a) {
+        Snapshot s = embedded;
+        if (s != null) {
+            return CompletableFuture.completedFuture(s.find(Nubase.class, TABLE, "z", z, "a", a));
+        }
+        return BATCH.get(AsyncQuery.key(z, a));
+    }
+
+    /**
+     * Retrieve Nubase instances from an SQL query without blocking.
+     *
+     * @param sql Query selecting nubase rows.
+     * @param parameters Values of its parameters, in order.
+     * @return Future list of Nubase instances; cancelling it cancels the
+     * query.
+     */
+    public static AsyncQuery.Task<ArrayList<Nubase>> queryAsync(String sql, Object... parameters) {
+        return submit(task -> query(task.prepare(sql, parameters)));
+    }
 }
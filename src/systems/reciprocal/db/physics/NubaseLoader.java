@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.physics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+import systems.reciprocal.BulkLoad;
+import systems.reciprocal.Database;
+import systems.reciprocal.Rs;
+
+/**
+ * Bulk load of a NUBASE release into the nubase table.
+ *
+ * Rows from a {@link NubaseReader} are sent through a {@link BulkLoad}:
+ * PostgreSQL's COPY FROM STDIN, one COPY per batch of rows, when the
+ * connection is to PostgreSQL, and JDBC batch inserts otherwise. The whole
+ * load is one transaction, so a failed load leaves the table as it was.
+ *
+ * @author Bruce Peret
+ */
+public final class NubaseLoader {
+
+    private static final Logger LOG = Logger.getLogger(NubaseLoader.class.getName());
+
+    /**
+     * Columns loaded, in order.
+     */
+    static final String[] COLUMNS = {
+        "a", "z", "x1", "x2", "symbol", "state", "mass_excess", "mass_excess_uncertainty",
+        "excitation_energy", "excitation_energy_uncertainty", "origin_code", "half_life", "production_ratio",
+        "spin", "x3", "x4", "year", "decay_modes"
+    };
+
+    private final Connection connection;
+    private int batch = 5000;
+    private boolean copy = true;
+    private long rows;
+    private long nanos;
+    private boolean copied;
+
+    /**
+     * @param connection Connection to load through.
+     */
+    public NubaseLoader(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param rows Rows per COPY or per batch insert.
+     * @return this
+     */
+    public NubaseLoader batch(int rows) {
+        if (rows < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + rows);
+        }
+        batch = rows;
+        return this;
+    }
+
+    /**
+     * @param copy Whether to use COPY when the connection allows it;
+     * otherwise always use batch inserts.
+     * @return this
+     */
+    public NubaseLoader copy(boolean copy) {
+        this.copy = copy;
+        return this;
+    }
+
+    /**
+     * Load a NUBASE file.
+     *
+     * @param file NUBASE ASCII file.
+     * @param replace Whether to delete the existing rows first, in the same
+     * transaction.
+     * @return Rows loaded.
+     * @throws IOException
+     * @throws SQLException
+     */
+    public long load(Path file, boolean replace) throws IOException, SQLException {
+        long start = System.nanoTime();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (NubaseReader reader = new NubaseReader(file)) {
+            if (replace) {
+                try (Statement s = connection.createStatement()) {
+                    s.executeUpdate("DELETE FROM " + Nubase.TABLE);
+                }
+            }
+            try (BulkLoad bulk = new BulkLoad(connection, Nubase.TABLE, COLUMNS, batch, copy)) {
+                copied = bulk.copying();
+                rows = send(reader, bulk);
+            }
+            connection.commit();
+        } catch (IOException | SQLException | RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        nanos = System.nanoTime() - start;
+        LOG.info(toString());
+        return rows;
+    }
+
+    private long send(NubaseReader reader, BulkLoad bulk) throws IOException, SQLException {
+        Nubase n = new Nubase();
+        while (reader.next(n)) {
+            bulk.add(n.a).add(n.z).add(n.x1).add(n.x2).add(n.symbol).add(n.state)
+                .add(n.mass_excess).add(n.mass_excess_uncertainty)
+                .add(n.excitation_energy).add(n.excitation_energy_uncertainty)
+                .add(n.origin_code).add(n.half_life).add(n.production_ratio)
+                .add(n.spin).add(n.x3).add(n.x4).add(n.year).add(n.decay_modes)
+                .row();
+        }
+        return bulk.finish();
+    }
+
+    /**
+     * @return Rows in the latest load.
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * @return Seconds the latest load took.
+     */
+    public double seconds() {
+        return nanos / 1e9;
+    }
+
+    /**
+     * @return Rows per second in the latest load.
+     */
+    public double rate() {
+        return nanos == 0 ? 0 : rows / seconds();
+    }
+
+    /**
+     * @return Whether the latest load used COPY.
+     */
+    public boolean copied() {
+        return copied;
+    }
+
+    /**
+     * @return Summary of the latest load.
+     */
+    @Override
+    public String toString() {
+        return String.format("NUBASE load: %d rows in %.3f s (%.0f rows/s) by %s",
+            rows, seconds(), rate(), copied ? "COPY" : "batch insert");
+    }
+
+    /**
+     * Replace the nubase table with a NUBASE release, connecting as set in
+     * configuration.ini.
+     *
+     * Usage: NubaseLoader file [rows-per-batch]
+     *
+     * @param args Command line arguments.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: NubaseLoader file [rows-per-batch]");
+            System.exit(2);
+        }
+        Rs.factory();
+        try (Connection c = Database.connection()) {
+            NubaseLoader loader = new NubaseLoader(c);
+            if (args.length > 1) {
+                loader.batch(Integer.parseInt(args[1]));
+            }
+            loader.load(Paths.get(args[0]), true);
+            System.out.println(loader);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.physics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import systems.reciprocal.Ascii;
+
+/**
+ * Streaming parser for the fixed-width NUBASE ASCII evaluation
+ * (nubtab12.asc, nubase2016.txt).
+ *
+ * The file is read through a channel into one reused buffer, and each field
+ * is decoded from its columns in place; only the text fields become
+ * Strings. Lines starting with # (the header of later releases) and blank
+ * lines are skipped.
+ *
+ * Columns, counted from 1 as in the NUBASE documentation:
+ *
+ * <pre>
+ *   1-3    a                  mass number
+ *   5-7    z                  atomic number
+ *   8      x1                 state index: 0 ground, 1-2 isomer, 3-4 level,
+ *                             5 resonance, 8-9 isobaric analog
+ *   12-16  x2                 nuclide as "A El"; symbol is El
+ *   17     state              m, n isomer; p, q level; r resonance; i, j
+ *                             isobaric analog; x irregular
+ *   19-29  mass_excess        keV, # if estimated
+ *   30-38  mass_excess_uncertainty
+ *   39-46  excitation_energy  keV
+ *   47-54  excitation_energy_uncertainty
+ *   55-60  origin_code        origin of the excitation energy
+ *   61-69  half_life          value; "stbl" for stable nuclides
+ *   70-71                     unit of the half-life, or of a width in eV
+ *   73-79  x3                 half-life uncertainty, as written
+ *   80-93  spin               spin and parity
+ *   94-95  x4                 ENSDF year
+ *   106-109 year              year of discovery
+ *   111-   decay_modes        decay modes and intensities
+ * </pre>
+ *
+ * Half-lives are converted to seconds, and widths to half-lives. Stable
+ * nuclides have an infinite half-life. Numbers that are missing or not
+ * numeric are NaN, and production_ratio, which is not in the ASCII table,
+ * is always NaN.
+ *
+ * @author Bruce Peret
+ */
+public final class NubaseReader implements AutoCloseable {
+
+    /**
+     * Seconds in a year, as used by NUBASE.
+     */
+    private static final double YEAR = 31556926;
+    /**
+     * Reduced Planck constant times ln 2, in eV s, to turn a width into a
+     * half-life.
+     */
+    private static final double HBAR_LN2 = 6.582119569e-16 * Math.log(2);
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    private int position;
+    private boolean eof;
+    private long lines;
+
+    /**
+     * Open a NUBASE file.
+     *
+     * @param file NUBASE ASCII file.
+     * @throws IOException
+     */
+    public NubaseReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.limit(0);
+    }
+
+    /**
+     * @return Lines read so far, including skipped lines.
+     */
+    public long lines() {
+        return lines;
+    }
+
+    /**
+     * Read the next nuclide.
+     *
+     * @param row Record to fill in.
+     * @return false at the end of the file, leaving row unchanged.
+     * @throws IOException
+     */
+    public boolean next(Nubase row) throws IOException {
+        while (true) {
+            byte[] b = buffer.array();
+            int end = -1;
+            for (int i = position; i < buffer.limit(); i++) {
+                if (b[i] == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                if (eof) {
+                    if (position == buffer.limit()) {
+                        return false;
+                    }
+                    end = buffer.limit();
+                } else {
+                    fill();
+                    continue;
+                }
+            }
+            int from = position;
+            position = end < buffer.limit() ? end + 1 : end;
+            lines++;
+            if (end - from >= 18 && b[from] != '#') {
+                parse(b, from, end, row);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Move the unread part of the buffer to its start and read more after
+     * it, growing the buffer if one line fills it.
+     */
+    private void fill() throws IOException {
+        int remaining = buffer.limit() - position;
+        if (remaining == buffer.capacity()) {
+            buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.capacity() * 2));
+            buffer.limit(remaining);
+        } else {
+            System.arraycopy(buffer.array(), position, buffer.array(), 0, remaining);
+        }
+        position = 0;
+        buffer.limit(buffer.capacity());
+        buffer.position(remaining);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.limit(buffer.position());
+    }
+
+    /**
+     * Columns of a line, [from, to) counted from 1, cut at its end.
+     */
+    private static int at(int line, int end, int column) {
+        return Math.min(line + column - 1, end);
+    }
+
+    private static void parse(byte[] b, int line, int end, Nubase row) {
+        row.a = Ascii.parseInt(b, at(line, end, 1), at(line, end, 4), 0);
+        row.z = Ascii.parseInt(b, at(line, end, 5), at(line, end, 8), 0);
+        row.x1 = Ascii.parseInt(b, at(line, end, 8), at(line, end, 9), 0);
+        int from = at(line, end, 12);
+        int to = at(line, end, 17);
+        row.x2 = Ascii.string(b, from, to);
+        int symbol = from;
+        while (symbol < to && (b[symbol] == ' ' || b[symbol] >= '0' && b[symbol] <= '9')) {
+            symbol++;
+        }
+        row.symbol = Ascii.string(b, symbol, to);
+        row.state = Ascii.string(b, at(line, end, 17), at(line, end, 18));
+        row.mass_excess = estimate(b, at(line, end, 19), at(line, end, 30));
+        row.mass_excess_uncertainty = estimate(b, at(line, end, 30), at(line, end, 39));
+        row.excitation_energy = estimate(b, at(line, end, 39), at(line, end, 47));
+        row.excitation_energy_uncertainty = estimate(b, at(line, end, 47), at(line, end, 55));
+        row.origin_code = Ascii.string(b, at(line, end, 55), at(line, end, 61));
+        row.half_life = halfLife(b, at(line, end, 61), at(line, end, 70), at(line, end, 72));
+        row.production_ratio = Double.NaN;
+        row.x3 = Ascii.string(b, at(line, end, 73), at(line, end, 80));
+        row.spin = Ascii.string(b, at(line, end, 80), at(line, end, 94));
+        row.x4 = Ascii.string(b, at(line, end, 94), at(line, end, 96));
+        row.year = Ascii.parseInt(b, at(line, end, 106), at(line, end, 110), 0);
+        row.decay_modes = Ascii.string(b, at(line, end, 111), end);
+    }
+
+    /**
+     * A number which may be marked # as estimated from systematics, or
+     * qualified by &lt;, &gt; or ~.
+     */
+    private static double estimate(byte[] b, int from, int to) {
+        while (from < to && (b[from] == ' ' || b[from] == '<' || b[from] == '>' || b[from] == '~')) {
+            from++;
+        }
+        for (int i = from; i < to; i++) {
+            if (b[i] == '#') {
+                to = i;
+                break;
+            }
+        }
+        return Ascii.parseDouble(b, from, to);
+    }
+
+    /**
+     * Half-life in seconds from its value and unit columns.
+     */
+    private static double halfLife(byte[] b, int from, int unit, int to) {
+        if (contains(b, from, unit, "stbl")) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double value = estimate(b, from, unit);
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        while (unit < to && b[unit] == ' ') {
+            unit++;
+        }
+        while (to > unit && b[to - 1] == ' ') {
+            to--;
+        }
+        switch (to - unit == 0 ? 0 : to - unit == 1 ? b[unit] : b[unit] << 8 | b[unit + 1]) {
+            case 's':
+                return value;
+            case 'm':
+                return value * 60;
+            case 'h':
+                return value * 3600;
+            case 'd':
+                return value * 86400;
+            case 'y':
+                return value * YEAR;
+            case 'm' << 8 | 's':
+                return value * 1e-3;
+            case 'u' << 8 | 's':
+                return value * 1e-6;
+            case 'n' << 8 | 's':
+                return value * 1e-9;
+            case 'p' << 8 | 's':
+                return value * 1e-12;
+            case 'f' << 8 | 's':
+                return value * 1e-15;
+            case 'a' << 8 | 's':
+                return value * 1e-18;
+            case 'z' << 8 | 's':
+                return value * 1e-21;
+            case 'y' << 8 | 's':
+                return value * 1e-24;
+            case 'k' << 8 | 'y':
+                return value * 1e3 * YEAR;
+            case 'M' << 8 | 'y':
+                return value * 1e6 * YEAR;
+            case 'G' << 8 | 'y':
+                return value * 1e9 * YEAR;
+            case 'T' << 8 | 'y':
+                return value * 1e12 * YEAR;
+            case 'P' << 8 | 'y':
+                return value * 1e15 * YEAR;
+            case 'E' << 8 | 'y':
+                return value * 1e18 * YEAR;
+            case 'Z' << 8 | 'y':
+                return value * 1e21 * YEAR;
+            case 'Y' << 8 | 'y':
+                return value * 1e24 * YEAR;
+            case 'e' << 8 | 'V':
+                return HBAR_LN2 / value;
+            case 'k' << 8 | 'e':
+                return HBAR_LN2 / (value * 1e3);
+            case 'M' << 8 | 'e':
+                return HBAR_LN2 / (value * 1e6);
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static boolean contains(byte[] b, int from, int to, String text) {
+        outer:
+        for (int i = from; i + text.length() <= to; i++) {
+            for (int j = 0; j < text.length(); j++) {
+                if (b[i + j] != text.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
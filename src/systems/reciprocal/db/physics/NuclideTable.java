@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.physics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import systems.reciprocal.Database;
+import systems.reciprocal.Rs;
+import systems.reciprocal.Snapshot;
+import static systems.reciprocal.Database.connection;
+
+/**
+ * In-memory copy of the isotope and NUBASE tables, stored column-wise in
+ * primitive arrays indexed by atomic number and mass number.
+ *
+ * Lookups are a single array read and do not allocate. Values for a nuclide
+ * that is not in the table are NaN (or zero for integers, null for strings);
+ * use {@link #has_isotope(int, int)} and {@link #has_nuclide(int, int)} to
+ * tell them apart. Only the ground state (lowest excitation energy) of each
+ * NUBASE nuclide is kept. The table is immutable and may be shared between
+ * threads.
+ *
+ * @author Bruce Peret
+ */
+public final class NuclideTable {
+
+    /**
+     * Highest atomic number held.
+     */
+    public final int z_limit;
+    /**
+     * Highest mass number held.
+     */
+    public final int mass_limit;
+    private final int width;
+    /**
+     * Element symbols by atomic number.
+     */
+    private final String[] symbol;
+    /*
+     * Isotope columns.
+     */
+    private final boolean[] isotope;
+    private final double[] relative_atomic_mass;
+    private final double[] relative_atomic_mass_uncertainty;
+    private final double[] isotopic_composition;
+    private final double[] isotopic_composition_uncertainty;
+    private final double[] standard_atomic_weight;
+    private final double[] standard_atomic_weight_uncertainty;
+    private final double[] abundance;
+    private final String[] notes;
+    /*
+     * NUBASE ground state columns.
+     */
+    private final byte[] states;
+    private final double[] mass_excess;
+    private final double[] mass_excess_uncertainty;
+    private final double[] excitation_energy;
+    private final double[] half_life;
+    private final double[] production_ratio;
+    private final int[] year;
+    private final String[] spin;
+    private final String[] decay_modes;
+
+    /**
+     * Build the table from isotope and NUBASE rows.
+     *
+     * @param isotopes Rows of the isotope table.
+     * @param nuclides Rows of the NUBASE table.
+     */
+    public NuclideTable(List<Isotope> isotopes, List<Nubase> nuclides) {
+        int zl = Rs.Z_LIMIT;
+        int al = Rs.MASS_LIMIT;
+        for (Isotope i : isotopes) {
+            zl = Math.max(zl, i.z);
+            al = Math.max(al, i.isotope);
+        }
+        for (Nubase n : nuclides) {
+            zl = Math.max(zl, n.z);
+            al = Math.max(al, n.a);
+        }
+        z_limit = zl;
+        mass_limit = al;
+        width = al + 1;
+        int size = (zl + 1) * width;
+
+        symbol = new String[zl + 1];
+        isotope = new boolean[size];
+        relative_atomic_mass = nan(size);
+        relative_atomic_mass_uncertainty = nan(size);
+        isotopic_composition = nan(size);
+        isotopic_composition_uncertainty = nan(size);
+        standard_atomic_weight = nan(size);
+        standard_atomic_weight_uncertainty = nan(size);
+        abundance = nan(size);
+        notes = new String[size];
+        for (Isotope i : isotopes) {
+            int k = i.z * width + i.isotope;
+            symbol[i.z] = i.symbol;
+            isotope[k] = true;
+            relative_atomic_mass[k] = i.relative_atomic_mass;
+            relative_atomic_mass_uncertainty[k] = i.relative_atomic_mass_uncertainty;
+            isotopic_composition[k] = i.isotopic_composition;
+            isotopic_composition_uncertainty[k] = i.isotopic_composition_uncertainty;
+            standard_atomic_weight[k] = i.standard_atomic_weight;
+            standard_atomic_weight_uncertainty[k] = i.standard_atomic_weight_uncertainty;
+            abundance[k] = i.abundance;
+            notes[k] = i.notes;
+        }
+
+        states = new byte[size];
+        mass_excess = nan(size);
+        mass_excess_uncertainty = nan(size);
+        excitation_energy = nan(size);
+        half_life = nan(size);
+        production_ratio = nan(size);
+        year = new int[size];
+        spin = new String[size];
+        decay_modes = new String[size];
+        for (Nubase n : nuclides) {
+            int k = n.z * width + n.a;
+            if (symbol[n.z] == null) {
+                symbol[n.z] = n.symbol;
+            }
+            if (states[k] == 0 || n.excitation_energy < excitation_energy[k]) {
+                mass_excess[k] = n.mass_excess;
+                mass_excess_uncertainty[k] = n.mass_excess_uncertainty;
+                excitation_energy[k] = n.excitation_energy;
+                half_life[k] = n.half_life;
+                production_ratio[k] = n.production_ratio;
+                year[k] = n.year;
+                spin[k] = n.spin;
+                decay_modes[k] = n.decay_modes;
+            }
+            states[k]++;
+        }
+    }
+
+    /**
+     * Load both tables from the database, or from the snapshot when embedded.
+     *
+     * @return Populated nuclide table.
+     * @throws SQLException
+     */
+    public static NuclideTable load() throws SQLException {
+        Snapshot s = Database.embedded;
+        if (s != null) {
+            return new NuclideTable(s.all(Isotope.class, Isotope.TABLE), s.all(Nubase.class, Nubase.TABLE));
+        }
+        try (Connection c = connection();
+            PreparedStatement isotopes = c.prepareStatement("SELECT * FROM " + Isotope.TABLE);
+            PreparedStatement nuclides = c.prepareStatement("SELECT * FROM " + Nubase.TABLE)) {
+            return new NuclideTable(Isotope.query(isotopes), Nubase.query(nuclides));
+        }
+    }
+
+    private static double[] nan(int size) {
+        double[] column = new double[size];
+        Arrays.fill(column, Double.NaN);
+        return column;
+    }
+
+    /**
+     * Array index of a nuclide, or -1 if outside the table.
+     */
+    private int index(int z, int a) {
+        if (z < 0 || z > z_limit || a < 0 || a > mass_limit) {
+            return -1;
+        }
+        return z * width + a;
+    }
+
+    /**
+     * Build an Isotope instance from the table.
+     *
+     * @param z Atomic number.
+     * @param a Mass (isotope) number.
+     * @return Isotope, or null if not in the table.
+     */
+    public Isotope isotope(int z, int a) {
+        int k = index(z, a);
+        if (k < 0 || !isotope[k]) {
+            return null;
+        }
+        Isotope i = new Isotope();
+        i.z = z;
+        i.symbol = symbol[z];
+        i.isotope = a;
+        i.relative_atomic_mass = relative_atomic_mass[k];
+        i.relative_atomic_mass_uncertainty = relative_atomic_mass_uncertainty[k];
+        i.isotopic_composition = isotopic_composition[k];
+        i.isotopic_composition_uncertainty = isotopic_composition_uncertainty[k];
+        i.standard_atomic_weight = standard_atomic_weight[k];
+        i.standard_atomic_weight_uncertainty = standard_atomic_weight_uncertainty[k];
+        i.notes = notes[k];
+        i.abundance = abundance[k];
+        return i;
+    }
+
+    /**
+     * @param z Atomic number.
+     * @return Element symbol, or null if unknown.
+     */
+    public String symbol(int z) {
+        return z < 0 || z > z_limit ? null : symbol[z];
+    }
+
+    /**
+     * @param z Atomic number.
+     * @param a Mass number.
+     * @return True if the isotope table has this nuclide.
+     */
+    public boolean has_isotope(int z, int a) {
+        int k = index(z, a);
+        return k >= 0 && isotope[k];
+    }
+
+    /**
+     * @param z Atomic number.
+     * @param a Mass number.
+     * @return True if the NUBASE table has this nuclide.
+     */
+    public boolean has_nuclide(int z, int a) {
+        int k = index(z, a);
+        return k >= 0 && states[k] > 0;
+    }
+
+    private double get(double[] column, int z, int a) {
+        int k = index(z, a);
+        return k < 0 ? Double.NaN : column[k];
+    }
+
+    private <T> T get(T[] column, int z, int a) {
+        int k = index(z, a);
+        return k < 0 ? null : column[k];
+    }
+
+    public double relative_atomic_mass(int z, int a) {
+        return get(relative_atomic_mass, z, a);
+    }
+
+    public double relative_atomic_mass_uncertainty(int z, int a) {
+        return get(relative_atomic_mass_uncertainty, z, a);
+    }
+
+    public double isotopic_composition(int z, int a) {
+        return get(isotopic_composition, z, a);
+    }
+
+    public double isotopic_composition_uncertainty(int z, int a) {
+        return get(isotopic_composition_uncertainty, z, a);
+    }
+
+    public double standard_atomic_weight(int z, int a) {
+        return get(standard_atomic_weight, z, a);
+    }
+
+    public double standard_atomic_weight_uncertainty(int z, int a) {
+        return get(standard_atomic_weight_uncertainty, z, a);
+    }
+
+    public double abundance(int z, int a) {
+        return get(abundance, z, a);
+    }
+
+    public String notes(int z, int a) {
+        return get(notes, z, a);
+    }
+
+    /**
+     * @param z Atomic number.
+     * @param a Mass number.
+     * @return Number of NUBASE states (ground and isomeric) of the nuclide.
+     */
+    public int states(int z, int a) {
+        int k = index(z, a);
+        return k < 0 ? 0 : states[k];
+    }
+
+    public double mass_excess(int z, int a) {
+        return get(mass_excess, z, a);
+    }
+
+    public double mass_excess_uncertainty(int z, int a) {
+        return get(mass_excess_uncertainty, z, a);
+    }
+
+    public double excitation_energy(int z, int a) {
+        return get(excitation_energy, z, a);
+    }
+
+    public double half_life(int z, int a) {
+        return get(half_life, z, a);
+    }
+
+    public double production_ratio(int z, int a) {
+        return get(production_ratio, z, a);
+    }
+
+    public int year(int z, int a) {
+        int k = index(z, a);
+        return k < 0 ? 0 : year[k];
+    }
+
+    public String spin(int z, int a) {
+        return get(spin, z, a);
+    }
+
+    public String decay_modes(int z, int a) {
+        return get(decay_modes, z, a);
+    }
+}
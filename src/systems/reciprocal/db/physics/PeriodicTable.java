@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.db.physics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import systems.reciprocal.Database;
+import systems.reciprocal.Rs;
+import systems.reciprocal.Snapshot;
+import static systems.reciprocal.Database.connection;
+
+/**
+ * Snapshot of the element and abundance tables for atomic numbers up to
+ * {@link Rs#Z_LIMIT}, indexed by atomic number and by symbol.
+ *
+ * The lookup tables are fixed once built, but the Element and Abundance
+ * instances are not copied: every caller gets the same mutable objects, and
+ * a change made through one is seen by all. Copy an instance before
+ * changing it. The shared snapshot is discarded when the database
+ * connection or reference snapshot is switched.
+ *
+ * @author Bruce Peret
+ */
+public final class PeriodicTable {
+
+    private static volatile PeriodicTable snapshot;
+
+    static {
+        Database.onDisconnect(PeriodicTable::invalidate);
+    }
+
+    private final Element[] elements = new Element[Rs.Z_LIMIT + 1];
+    private final Abundance[] abundances = new Abundance[Rs.Z_LIMIT + 1];
+    private final HashMap<String, Element> symbols = new HashMap<>();
+
+    /**
+     * Build a snapshot from element and abundance rows. Rows with an atomic
+     * number outside 1-{@link Rs#Z_LIMIT} are ignored.
+     *
+     * @param elements Rows of the element table.
+     * @param abundances Rows of the abundance table.
+     */
+    public PeriodicTable(List<Element> elements, List<Abundance> abundances) {
+        for (Element e : elements) {
+            if (e.z > 0 && e.z <= Rs.Z_LIMIT) {
+                this.elements[e.z] = e;
+                if (e.symbol != null) {
+                    symbols.put(e.symbol, e);
+                }
+            }
+        }
+        for (Abundance a : abundances) {
+            if (a.z > 0 && a.z <= Rs.Z_LIMIT) {
+                this.abundances[a.z] = a;
+            }
+        }
+    }
+
+    /**
+     * Load a new snapshot from the database, or from the reference data
+     * snapshot when embedded.
+     *
+     * @return Periodic table.
+     * @throws SQLException
+     */
+    public static PeriodicTable load() throws SQLException {
+        Snapshot s = Database.embedded;
+        if (s != null) {
+            return new PeriodicTable(s.all(Element.class, Element.TABLE), s.all(Abundance.class, Abundance.TABLE));
+        }
+        try (Connection c = connection();
+            PreparedStatement elements = c.prepareStatement(
+                "SELECT * FROM " + Element.TABLE + " WHERE z BETWEEN 1 AND " + Rs.Z_LIMIT
+            );
+            PreparedStatement abundances = c.prepareStatement(
+                "SELECT * FROM " + Abundance.TABLE + " WHERE z BETWEEN 1 AND " + Rs.Z_LIMIT
+            )) {
+            return new PeriodicTable(Element.query(elements), Abundance.query(abundances));
+        }
+    }
+
+    /**
+     * The shared snapshot, loaded from the database on first use.
+     *
+     * @return Periodic table.
+     * @throws SQLException
+     */
+    public static PeriodicTable snapshot() throws SQLException {
+        PeriodicTable t = snapshot;
+        if (t == null) {
+            synchronized (PeriodicTable.class) {
+                t = snapshot;
+                if (t == null) {
+                    t = load();
+                    snapshot = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Discard the shared snapshot so the next call to {@link #snapshot()}
+     * reloads it. Waits for a load in progress, which would otherwise store
+     * its table after this.
+     */
+    public static void invalidate() {
+        synchronized (PeriodicTable.class) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * @param z Atomic number.
+     * @return Element, or null if unknown.
+     */
+    public Element element(int z) {
+        return z < 0 || z > Rs.Z_LIMIT ? null : elements[z];
+    }
+
+    /**
+     * @param symbol Element symbol, such as "Fe".
+     * @return Element, or null if unknown.
+     */
+    public Element element(String symbol) {
+        return symbols.get(symbol);
+    }
+
+    /**
+     * @param z Atomic number.
+     * @return Abundances of the element, or null if unknown.
+     */
+    public Abundance abundance(int z) {
+        return z < 0 || z > Rs.Z_LIMIT ? null : abundances[z];
+    }
+}
@@ -34,4 +34,18 @@ public class Dual {
         principal = prin;
         subordinate = sub;
     }
+
+    /**
+     * @return Principal coordinates.
+     */
+    public Tuple principal() {
+        return principal;
+    }
+
+    /**
+     * @return Subordinate coordinates.
+     */
+    public Tuple subordinate() {
+        return subordinate;
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * Advances the locations of a population by one time step.
+ *
+ * An integrator reads the current locations and the structures of entries
+ * [from, to) and writes their next locations. It must not touch other
+ * entries, so that a {@link Simulation} can run disjoint ranges in
+ * parallel.
+ *
+ * @author Bruce Peret
+ */
+public interface Integrator {
+
+    /**
+     * Step a range of entries.
+     *
+     * @param location Current locations; not modified.
+     * @param structure Structures of the motions.
+     * @param next Buffer to receive the next locations.
+     * @param dt Time increment.
+     * @param from First entry, inclusive.
+     * @param to Last entry, exclusive.
+     */
+    void step(SpaceTimeBuffer location, SpaceTimeBuffer structure, SpaceTimeBuffer next,
+            double dt, int from, int to);
+
+    /**
+     * Explicit Euler: each coordinate of the location moves by the matching
+     * coordinate of the structure times dt. The projective element is
+     * carried over unchanged.
+     */
+    Integrator EULER = (location, structure, next, dt, from, to) -> {
+        euler(location.spacePrincipal, structure.spacePrincipal, next.spacePrincipal, dt, from, to);
+        euler(location.spaceSubordinate, structure.spaceSubordinate, next.spaceSubordinate, dt, from, to);
+        euler(location.timePrincipal, structure.timePrincipal, next.timePrincipal, dt, from, to);
+        euler(location.timeSubordinate, structure.timeSubordinate, next.timeSubordinate, dt, from, to);
+    };
+
+    /**
+     * One Euler column: out = in + rate * dt.
+     *
+     * @param in Current coordinates.
+     * @param rate Rate of change.
+     * @param out Buffer to receive the coordinates.
+     * @param dt Time increment.
+     * @param from First entry, inclusive.
+     * @param to Last entry, exclusive.
+     */
+    static void euler(TupleBuffer in, TupleBuffer rate, TupleBuffer out, double dt, int from, int to) {
+        double[] iw = in.w, ix = in.x, iy = in.y, iz = in.z;
+        double[] rx = rate.x, ry = rate.y, rz = rate.z;
+        double[] ow = out.w, ox = out.x, oy = out.y, oz = out.z;
+        for (int i = from; i < to; i++) {
+            ow[i] = iw[i];
+            ox[i] = ix[i] + rx[i] * dt;
+            oy[i] = iy[i] + ry[i] * dt;
+            oz[i] = iz[i] + rz[i] * dt;
+        }
+    }
+
+    /**
+     * Send every location coordinate through a fixed transformation each
+     * step, whatever the time increment; for example, a rotation by a fixed
+     * angle per step.
+     *
+     * @param t Transformation per step.
+     * @return New integrator.
+     */
+    static Integrator transform(Transform4 t) {
+        final Transform4 m = new Transform4(t);
+        return (location, structure, next, dt, from, to) -> {
+            location.spacePrincipal.execute(m, next.spacePrincipal, from, to);
+            location.spaceSubordinate.execute(m, next.spaceSubordinate, from, to);
+            location.timePrincipal.execute(m, next.timePrincipal, from, to);
+            location.timeSubordinate.execute(m, next.timeSubordinate, from, to);
+        };
+    }
+}
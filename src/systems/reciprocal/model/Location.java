@@ -20,7 +20,7 @@ package systems.reciprocal.model;
  *
  * @author Bruce Peret
  */
-public class Location {
+public class Location implements SpaceTime {
 
     Dual space;
     Dual time;
@@ -51,6 +51,7 @@ public class Location {
      * @param time
      * @return 
      */
+    @Override
     public Location set (Dual space, Dual time) {
         this.space = space;
         this.time = time;
@@ -63,6 +64,7 @@ public class Location {
      * @param space Principal and subordinate spatial coordinates.
      * @return 
      */
+    @Override
     public Location setSpace (Dual space) {
         this.space = space;
         return this;
@@ -74,8 +76,25 @@ public class Location {
      * @param time Principal and subordinate temporal coordinates.
      * @return 
      */
+    @Override
     public Location setTime(Dual time) {
         this.time = time;
         return this;
     }
+
+    /**
+     * @return Principal and subordinate spatial coordinates.
+     */
+    @Override
+    public Dual space() {
+        return space;
+    }
+
+    /**
+     * @return Principal and subordinate temporal coordinates.
+     */
+    @Override
+    public Dual time() {
+        return time;
+    }
 }
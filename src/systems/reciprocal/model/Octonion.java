@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * Octonion algebra on 8D Tuples.
+ *
+ * An octonion is stored as [e0 ... e7], the real part first. The product is
+ * the Cayley-Dickson doubling of {@link Quaternion}: with a = (p, q) and
+ * b = (r, s) as pairs of quaternions, ab = (pr - s*q, sp + qr*), where *
+ * is the conjugate. Elements 0-3 therefore multiply exactly as a quaternion.
+ *
+ * The product is not associative, but it is alternative, so the rotation
+ * (qv)q* of a unit octonion q is well defined. It fixes the real axis and
+ * turns the seven imaginary axes.
+ *
+ * Batch variants work on flat arrays of eight doubles per octonion.
+ *
+ * @author Bruce Peret
+ */
+public final class Octonion {
+
+    private Octonion() {
+    }
+
+    private static void check(Tuple q) {
+        if (q.e.length != 8) {
+            throw new Error("Octonion must be 8D: " + q.e.length);
+        }
+    }
+
+    /**
+     * The product kernel: r[ri..ri+7] = a[ai..ai+7] * b[bi..bi+7]. All
+     * inputs are read before any output is written, so r may overlap a or b.
+     */
+    private static void product(double[] a, int ai, double[] b, int bi, double[] r, int ri) {
+        double a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+        double a4 = a[ai + 4], a5 = a[ai + 5], a6 = a[ai + 6], a7 = a[ai + 7];
+        double b0 = b[bi], b1 = b[bi + 1], b2 = b[bi + 2], b3 = b[bi + 3];
+        double b4 = b[bi + 4], b5 = b[bi + 5], b6 = b[bi + 6], b7 = b[bi + 7];
+        r[ri] = a0 * b0 - a1 * b1 - a2 * b2 - a3 * b3 - a4 * b4 - a5 * b5 - a6 * b6 - a7 * b7;
+        r[ri + 1] = a0 * b1 + a1 * b0 + a2 * b3 - a3 * b2 + a4 * b5 - a5 * b4 - a6 * b7 + a7 * b6;
+        r[ri + 2] = a0 * b2 - a1 * b3 + a2 * b0 + a3 * b1 + a4 * b6 + a5 * b7 - a6 * b4 - a7 * b5;
+        r[ri + 3] = a0 * b3 + a1 * b2 - a2 * b1 + a3 * b0 + a4 * b7 - a5 * b6 + a6 * b5 - a7 * b4;
+        r[ri + 4] = a0 * b4 - a1 * b5 - a2 * b6 - a3 * b7 + a4 * b0 + a5 * b1 + a6 * b2 + a7 * b3;
+        r[ri + 5] = a0 * b5 + a1 * b4 - a2 * b7 + a3 * b6 - a4 * b1 + a5 * b0 - a6 * b3 + a7 * b2;
+        r[ri + 6] = a0 * b6 + a1 * b7 + a2 * b4 - a3 * b5 - a4 * b2 + a5 * b3 + a6 * b0 - a7 * b1;
+        r[ri + 7] = a0 * b7 - a1 * b6 + a2 * b5 + a3 * b4 - a4 * b3 - a5 * b2 + a6 * b1 + a7 * b0;
+    }
+
+    /**
+     * The rotation kernel: r[ri..ri+7] = (q * v[vi..vi+7]) * q*, with the
+     * intermediate product and q held in locals and the conjugate taken by
+     * negating q's imaginary elements. All inputs are read before any output
+     * is written, so r may overlap q or v.
+     */
+    private static void rotation(double[] q, double[] v, int vi, double[] r, int ri) {
+        double a0 = q[0], a1 = q[1], a2 = q[2], a3 = q[3], a4 = q[4], a5 = q[5], a6 = q[6], a7 = q[7];
+        double b0 = v[vi], b1 = v[vi + 1], b2 = v[vi + 2], b3 = v[vi + 3];
+        double b4 = v[vi + 4], b5 = v[vi + 5], b6 = v[vi + 6], b7 = v[vi + 7];
+        double p0 = a0 * b0 - a1 * b1 - a2 * b2 - a3 * b3 - a4 * b4 - a5 * b5 - a6 * b6 - a7 * b7;
+        double p1 = a0 * b1 + a1 * b0 + a2 * b3 - a3 * b2 + a4 * b5 - a5 * b4 - a6 * b7 + a7 * b6;
+        double p2 = a0 * b2 - a1 * b3 + a2 * b0 + a3 * b1 + a4 * b6 + a5 * b7 - a6 * b4 - a7 * b5;
+        double p3 = a0 * b3 + a1 * b2 - a2 * b1 + a3 * b0 + a4 * b7 - a5 * b6 + a6 * b5 - a7 * b4;
+        double p4 = a0 * b4 - a1 * b5 - a2 * b6 - a3 * b7 + a4 * b0 + a5 * b1 + a6 * b2 + a7 * b3;
+        double p5 = a0 * b5 + a1 * b4 - a2 * b7 + a3 * b6 - a4 * b1 + a5 * b0 - a6 * b3 + a7 * b2;
+        double p6 = a0 * b6 + a1 * b7 + a2 * b4 - a3 * b5 - a4 * b2 + a5 * b3 + a6 * b0 - a7 * b1;
+        double p7 = a0 * b7 - a1 * b6 + a2 * b5 + a3 * b4 - a4 * b3 - a5 * b2 + a6 * b1 + a7 * b0;
+        b0 = a0;
+        b1 = -a1;
+        b2 = -a2;
+        b3 = -a3;
+        b4 = -a4;
+        b5 = -a5;
+        b6 = -a6;
+        b7 = -a7;
+        r[ri] = p0 * b0 - p1 * b1 - p2 * b2 - p3 * b3 - p4 * b4 - p5 * b5 - p6 * b6 - p7 * b7;
+        r[ri + 1] = p0 * b1 + p1 * b0 + p2 * b3 - p3 * b2 + p4 * b5 - p5 * b4 - p6 * b7 + p7 * b6;
+        r[ri + 2] = p0 * b2 - p1 * b3 + p2 * b0 + p3 * b1 + p4 * b6 + p5 * b7 - p6 * b4 - p7 * b5;
+        r[ri + 3] = p0 * b3 + p1 * b2 - p2 * b1 + p3 * b0 + p4 * b7 - p5 * b6 + p6 * b5 - p7 * b4;
+        r[ri + 4] = p0 * b4 - p1 * b5 - p2 * b6 - p3 * b7 + p4 * b0 + p5 * b1 + p6 * b2 + p7 * b3;
+        r[ri + 5] = p0 * b5 + p1 * b4 - p2 * b7 + p3 * b6 - p4 * b1 + p5 * b0 - p6 * b3 + p7 * b2;
+        r[ri + 6] = p0 * b6 + p1 * b7 + p2 * b4 - p3 * b5 - p4 * b2 + p5 * b3 + p6 * b0 - p7 * b1;
+        r[ri + 7] = p0 * b7 - p1 * b6 + p2 * b5 + p3 * b4 - p4 * b3 - p5 * b2 + p6 * b1 + p7 * b0;
+    }
+
+    /**
+     * The identity [1 0 0 0 0 0 0 0].
+     *
+     * @return New unit octonion.
+     */
+    public static Tuple identity() {
+        return new Tuple(1, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Cayley-Dickson product a * b.
+     *
+     * @param a Left octonion.
+     * @param b Right octonion.
+     * @param dest Tuple to receive the product; may be a or b.
+     * @return dest
+     */
+    public static Tuple multiply(Tuple a, Tuple b, Tuple dest) {
+        check(a);
+        check(b);
+        check(dest);
+        product(a.e, 0, b.e, 0, dest.e, 0);
+        return dest;
+    }
+
+    /**
+     * Cayley-Dickson product a * b.
+     *
+     * @param a Left octonion.
+     * @param b Right octonion.
+     * @return New product.
+     */
+    public static Tuple multiply(Tuple a, Tuple b) {
+        return multiply(a, b, new Tuple(8));
+    }
+
+    /**
+     * Conjugate: the real part unchanged, the imaginary parts negated.
+     *
+     * @param q Octonion.
+     * @param dest Tuple to receive the conjugate; may be q.
+     * @return dest
+     */
+    public static Tuple conjugate(Tuple q, Tuple dest) {
+        check(q);
+        check(dest);
+        dest.e[0] = q.e[0];
+        for (int i = 1; i < 8; i++) {
+            dest.e[i] = -q.e[i];
+        }
+        return dest;
+    }
+
+    /**
+     * Conjugate: the real part unchanged, the imaginary parts negated.
+     *
+     * @param q Octonion.
+     * @return New conjugate.
+     */
+    public static Tuple conjugate(Tuple q) {
+        return conjugate(q, new Tuple(8));
+    }
+
+    /**
+     * Norm, the square root of q * q*.
+     *
+     * @param q Octonion.
+     * @return Norm of q.
+     */
+    public static double norm(Tuple q) {
+        check(q);
+        return q.length();
+    }
+
+    /**
+     * Multiplicative inverse q* / |q|^2.
+     *
+     * @param q Nonzero octonion.
+     * @param dest Tuple to receive the inverse; may be q.
+     * @return dest
+     */
+    public static Tuple inverse(Tuple q, Tuple dest) {
+        double n2 = q.length2();
+        conjugate(q, dest);
+        for (int i = 0; i < 8; i++) {
+            dest.e[i] /= n2;
+        }
+        return dest;
+    }
+
+    /**
+     * Rotate an octonion: (q * v) * q*. For a unit q this preserves the norm
+     * and the real part of v. Nothing is allocated.
+     *
+     * @param q Unit octonion.
+     * @param v Octonion to rotate.
+     * @param dest Tuple to receive the result; may be q or v.
+     * @return dest
+     */
+    public static Tuple rotate(Tuple q, Tuple v, Tuple dest) {
+        check(q);
+        check(v);
+        check(dest);
+        rotation(q.e, v.e, 0, dest.e, 0);
+        return dest;
+    }
+
+    /**
+     * Rotate an octonion: (q * v) * q*.
+     *
+     * @param q Unit octonion.
+     * @param v Octonion to rotate.
+     * @return New rotated octonion.
+     */
+    public static Tuple rotate(Tuple q, Tuple v) {
+        return rotate(q, v, new Tuple(8));
+    }
+
+    /**
+     * The rotation by q as an 8x8 matrix, r[8 * k + i] being the weight of
+     * input element k in output element i: row k is the rotation of the k-th
+     * basis octonion.
+     */
+    private static double[] matrix(Tuple q) {
+        check(q);
+        double[] r = new double[64];
+        double[] basis = new double[8];
+        for (int k = 0; k < 8; k++) {
+            basis[k] = 1;
+            rotation(q.e, basis, 0, r, 8 * k);
+            basis[k] = 0;
+        }
+        return r;
+    }
+
+    /**
+     * The rotation by q as an 8x8 Transform, so that execute on an 8D Tuple
+     * gives the same result as {@link #rotate(Tuple, Tuple, Tuple)}, to
+     * rounding.
+     *
+     * @param q Unit octonion.
+     * @return New 8x8 Transform.
+     */
+    public static Transform toTransform(Tuple q) {
+        double[] r = matrix(q);
+        Transform t = new Transform(8);
+        for (int k = 0; k < 8; k++) {
+            System.arraycopy(r, 8 * k, t.xform[k], 0, 8);
+        }
+        return t;
+    }
+
+    private static void check(double[] in, double[] out, int from, int to) {
+        if (from < 0 || from > to || 8L * to > in.length || 8L * to > out.length) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to);
+        }
+    }
+
+    /**
+     * Left-multiply a range of octonions by q.
+     *
+     * @param q Left octonion.
+     * @param in Octonions, eight elements each.
+     * @param out Array to receive the products; may be in.
+     * @param from First octonion index, inclusive.
+     * @param to Last octonion index, exclusive.
+     * @return out
+     */
+    public static double[] multiply(Tuple q, double[] in, double[] out, int from, int to) {
+        check(q);
+        check(in, out, from, to);
+        double[] a = q.e;
+        for (int i = 8 * from, end = 8 * to; i < end; i += 8) {
+            product(a, 0, in, i, out, i);
+        }
+        return out;
+    }
+
+    /**
+     * Rotate a range of octonions by q. The rotation is expanded to a matrix
+     * once, so each octonion costs one 8x8 product rather than two octonion
+     * products.
+     *
+     * @param q Unit octonion.
+     * @param in Octonions, eight elements each.
+     * @param out Array to receive the rotated octonions; may be in.
+     * @param from First octonion index, inclusive.
+     * @param to Last octonion index, exclusive.
+     * @return out
+     */
+    public static double[] rotate(Tuple q, double[] in, double[] out, int from, int to) {
+        check(in, out, from, to);
+        double[] r = matrix(q);
+        double[] v = new double[8];
+        for (int i = 8 * from, end = 8 * to; i < end; i += 8) {
+            System.arraycopy(in, i, v, 0, 8);
+            for (int j = 0; j < 8; j++) {
+                double sum = 0;
+                for (int k = 0; k < 8; k++) {
+                    sum += r[8 * k + j] * v[k];
+                }
+                out[i + j] = sum;
+            }
+        }
+        return out;
+    }
+}
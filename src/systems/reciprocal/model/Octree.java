@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut octree over the x, y and z coordinates of a TupleBuffer, for
+ * long-range aggregate interactions.
+ *
+ * Each node keeps the total mass and centre of mass of the points below it.
+ * A walk from a position treats a node as one point when its edge divided by
+ * its distance is below the accuracy parameter theta: theta = 0 visits every
+ * point exactly, and larger values trade accuracy for speed, 0.5 being the
+ * usual choice. A walk costs O(log N), so a whole population costs
+ * O(N log N) instead of O(N^2).
+ *
+ * A build reuses the previous build's arrays, so rebuilding every simulation
+ * step allocates only when the population or the tree grows. Walks may run
+ * concurrently, but not during a build; each thread keeps its own walk stack,
+ * so walks and field sums allocate nothing after a thread's first walk.
+ *
+ * @author Bruce Peret
+ */
+public class Octree {
+
+    /**
+     * Receives the points and aggregate nodes of a walk.
+     */
+    public interface Visitor {
+
+        /**
+         * @param mass Mass of the point or node.
+         * @param dx X offset from the walk position to its centre of mass.
+         * @param dy Y offset.
+         * @param dz Z offset.
+         * @param distance2 Squared distance.
+         */
+        void visit(double mass, double dx, double dy, double dz, double distance2);
+    }
+
+    /**
+     * Largest number of points in a leaf.
+     */
+    private static final int LEAF = 8;
+    /**
+     * Deepest subdivision, which bounds the work for coincident points.
+     */
+    private static final int DEPTH = 32;
+    /**
+     * Depth-first walk stack. Children are numbered after their parent and
+     * siblings after one another, so it never holds more than 8 per level.
+     */
+    private static final int STACK = 8 * (DEPTH + 1) + 1;
+
+    /**
+     * Per-thread walk state: the stack and the field accumulator, which is
+     * its own visitor. A walk started from inside a visitor finds it busy
+     * and uses a stack of its own.
+     */
+    private static final class Walk implements Visitor {
+
+        final int[] stack = new int[STACK];
+        boolean busy;
+        double e2, sx, sy, sz;
+
+        @Override
+        public void visit(double mass, double dx, double dy, double dz, double distance2) {
+            double r2 = distance2 + e2;
+            if (r2 > 0) {
+                double f = mass / (r2 * Math.sqrt(r2));
+                sx += f * dx;
+                sy += f * dy;
+                sz += f * dz;
+            }
+        }
+    }
+
+    private static final ThreadLocal<Walk> WALK = ThreadLocal.withInitial(Walk::new);
+
+    private final double theta;
+    private int size;
+    private int nodes;
+    private int[] order = new int[0];
+    private int[] scratch = new int[0];
+    private int[] where = new int[0];
+    private double[] px = new double[0];
+    private double[] py = new double[0];
+    private double[] pz = new double[0];
+    private double[] pm = new double[0];
+    /*
+     * Per node: points [lo, hi) of order, first child and child count (0
+     * for a leaf), edge, centre of mass and mass.
+     */
+    private int[] lo = new int[0];
+    private int[] hi = new int[0];
+    private int[] child = new int[0];
+    private int[] children = new int[0];
+    private double[] edge = new double[0];
+    private double[] cx = new double[0];
+    private double[] cy = new double[0];
+    private double[] cz = new double[0];
+    private double[] mass = new double[0];
+    /*
+     * Counting sort offsets and insertion cursors per depth, reused by every
+     * build.
+     */
+    private final int[][] counts = new int[DEPTH][9];
+    private final int[][] cursors = new int[DEPTH][8];
+
+    /**
+     * Create an empty tree.
+     *
+     * @param theta Accuracy parameter; 0 for exact sums.
+     */
+    public Octree(double theta) {
+        if (!(theta >= 0)) {
+            throw new IllegalArgumentException("Theta must not be negative: " + theta);
+        }
+        this.theta = theta;
+    }
+
+    /**
+     * @return Accuracy parameter.
+     */
+    public double theta() {
+        return theta;
+    }
+
+    /**
+     * @return Number of points in the latest build.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Index the points of a buffer, each of unit mass.
+     *
+     * @param points Points to index.
+     * @return this
+     */
+    public Octree build(TupleBuffer points) {
+        return build(points, null);
+    }
+
+    /**
+     * Index the points of a buffer, replacing any previous build.
+     *
+     * @param points Points to index.
+     * @param masses Mass of each point, or null for unit masses.
+     * @return this
+     */
+    public Octree build(TupleBuffer points, double[] masses) {
+        int n = points.size();
+        if (order.length < n) {
+            order = new int[n];
+            scratch = new int[n];
+            where = new int[n];
+            px = new double[n];
+            py = new double[n];
+            pz = new double[n];
+            pm = new double[n];
+        }
+        System.arraycopy(points.x, 0, px, 0, n);
+        System.arraycopy(points.y, 0, py, 0, n);
+        System.arraycopy(points.z, 0, pz, 0, n);
+        if (masses == null) {
+            Arrays.fill(pm, 0, n, 1.0);
+        } else {
+            System.arraycopy(masses, 0, pm, 0, n);
+        }
+        double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            minX = Math.min(minX, px[i]);
+            maxX = Math.max(maxX, px[i]);
+            minY = Math.min(minY, py[i]);
+            maxY = Math.max(maxY, py[i]);
+            minZ = Math.min(minZ, pz[i]);
+            maxZ = Math.max(maxZ, pz[i]);
+        }
+        size = n;
+        nodes = 0;
+        if (n > 0) {
+            double half = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) / 2;
+            node(allocate(), 0, n, (minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2, half, 0);
+        }
+        for (int k = 0; k < n; k++) {
+            where[order[k]] = k;
+        }
+        return this;
+    }
+
+    private int allocate() {
+        if (nodes == lo.length) {
+            int capacity = Math.max(16, nodes * 2);
+            lo = Arrays.copyOf(lo, capacity);
+            hi = Arrays.copyOf(hi, capacity);
+            child = Arrays.copyOf(child, capacity);
+            children = Arrays.copyOf(children, capacity);
+            edge = Arrays.copyOf(edge, capacity);
+            cx = Arrays.copyOf(cx, capacity);
+            cy = Arrays.copyOf(cy, capacity);
+            cz = Arrays.copyOf(cz, capacity);
+            mass = Arrays.copyOf(mass, capacity);
+        }
+        return nodes++;
+    }
+
+    /**
+     * Build the node for points [from, to) of order, inside the cube of a
+     * centre and half edge. The children of a node are allocated together
+     * before any is built, so they are numbered consecutively.
+     */
+    private void node(int id, int from, int to, double ox, double oy, double oz, double half, int depth) {
+        lo[id] = from;
+        hi[id] = to;
+        edge[id] = 2 * half;
+        child[id] = 0;
+        children[id] = 0;
+        if (to - from > LEAF && depth < DEPTH && half > 0) {
+            /*
+             * Counting sort of the points into octants.
+             */
+            int[] count = counts[depth];
+            Arrays.fill(count, 0);
+            for (int k = from; k < to; k++) {
+                count[octant(order[k], ox, oy, oz) + 1]++;
+            }
+            for (int o = 0; o < 8; o++) {
+                count[o + 1] += count[o];
+            }
+            int[] next = cursors[depth];
+            System.arraycopy(count, 0, next, 0, 8);
+            for (int k = from; k < to; k++) {
+                int i = order[k];
+                scratch[from + next[octant(i, ox, oy, oz)]++] = i;
+            }
+            System.arraycopy(scratch, from, order, from, to - from);
+            int made = 0;
+            for (int o = 0; o < 8; o++) {
+                if (count[o + 1] > count[o]) {
+                    made++;
+                }
+            }
+            int first = nodes;
+            for (int c = 0; c < made; c++) {
+                allocate();
+            }
+            int c = first;
+            double q = half / 2;
+            for (int o = 0; o < 8; o++) {
+                if (count[o + 1] > count[o]) {
+                    node(c++, from + count[o], from + count[o + 1],
+                            (o & 1) == 0 ? ox - q : ox + q,
+                            (o & 2) == 0 ? oy - q : oy + q,
+                            (o & 4) == 0 ? oz - q : oz + q, q, depth + 1);
+                }
+            }
+            child[id] = first;
+            children[id] = made;
+        }
+        double m = 0, sx = 0, sy = 0, sz = 0;
+        for (int k = from; k < to; k++) {
+            int i = order[k];
+            m += pm[i];
+            sx += pm[i] * px[i];
+            sy += pm[i] * py[i];
+            sz += pm[i] * pz[i];
+        }
+        mass[id] = m;
+        if (m != 0) {
+            cx[id] = sx / m;
+            cy[id] = sy / m;
+            cz[id] = sz / m;
+        } else {
+            cx[id] = ox;
+            cy[id] = oy;
+            cz[id] = oz;
+        }
+    }
+
+    private int octant(int i, double ox, double oy, double oz) {
+        return (px[i] < ox ? 0 : 1) | (py[i] < oy ? 0 : 2) | (pz[i] < oz ? 0 : 4);
+    }
+
+    /**
+     * Walk the tree from a position, visiting single points near it and
+     * aggregate nodes far from it.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @param z Z coordinate.
+     * @param exclude Index of a point to leave out, normally the point at
+     * the position; -1 for none.
+     * @param visitor Receives the points and nodes.
+     */
+    public void walk(double x, double y, double z, int exclude, Visitor visitor) {
+        Walk w = WALK.get();
+        if (w.busy) {
+            walk(x, y, z, exclude, visitor, new int[STACK]);
+            return;
+        }
+        w.busy = true;
+        try {
+            walk(x, y, z, exclude, visitor, w.stack);
+        } finally {
+            w.busy = false;
+        }
+    }
+
+    private void walk(double x, double y, double z, int exclude, Visitor visitor, int[] stack) {
+        if (size == 0) {
+            return;
+        }
+        double theta2 = theta * theta;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int id = stack[--top];
+            double dx = cx[id] - x, dy = cy[id] - y, dz = cz[id] - z;
+            double d2 = dx * dx + dy * dy + dz * dz;
+            int first = child[id];
+            boolean inside = exclude >= 0 && contains(id, exclude);
+            if (!inside && edge[id] * edge[id] < theta2 * d2) {
+                visitor.visit(mass[id], dx, dy, dz, d2);
+            } else if (children[id] == 0) {
+                for (int k = lo[id]; k < hi[id]; k++) {
+                    int i = order[k];
+                    if (i != exclude) {
+                        double ex = px[i] - x, ey = py[i] - y, ez = pz[i] - z;
+                        visitor.visit(pm[i], ex, ey, ez, ex * ex + ey * ey + ez * ez);
+                    }
+                }
+            } else {
+                for (int c = first + children[id] - 1; c >= first; c--) {
+                    stack[top++] = c;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a point lies below a node, which owns a contiguous range of
+     * order.
+     */
+    private boolean contains(int id, int point) {
+        int k = where[point];
+        return k >= lo[id] && k < hi[id];
+    }
+
+    /**
+     * Inverse-square field at an indexed point from all the others: the sum
+     * of m * d / (|d|^2 + e^2)^(3/2) over points and aggregate nodes.
+     *
+     * @param i Point index.
+     * @param softening Softening length e, which bounds the field of close
+     * encounters.
+     * @param dest At least three elements to receive the x, y and z
+     * components.
+     * @return dest
+     */
+    public double[] field(int i, double softening, double[] dest) {
+        return field(px[i], py[i], pz[i], i, softening, dest);
+    }
+
+    /**
+     * Inverse-square field at a position.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @param z Z coordinate.
+     * @param exclude Index of a point to leave out; -1 for none.
+     * @param softening Softening length.
+     * @param dest At least three elements to receive the x, y and z
+     * components.
+     * @return dest
+     */
+    public double[] field(double x, double y, double z, int exclude, double softening, double[] dest) {
+        Walk w = WALK.get();
+        if (w.busy) {
+            w = new Walk();
+        }
+        w.busy = true;
+        w.e2 = softening * softening;
+        w.sx = 0;
+        w.sy = 0;
+        w.sz = 0;
+        try {
+            walk(x, y, z, exclude, w, w.stack);
+        } finally {
+            w.busy = false;
+        }
+        dest[0] = w.sx;
+        dest[1] = w.sy;
+        dest[2] = w.sz;
+        return dest;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs batch Tuple operations in parallel on a fork/join pool.
+ *
+ * A batch is split in halves until each piece is at most one chunk, sized so
+ * a chunk's input and output columns stay in the per-core cache. Batches
+ * below the sequential threshold run on the calling thread. Every tuple is
+ * computed independently by the same kernel as the serial path, so results
+ * are identical to {@link Transform#execute(Tuple)} however the batch is
+ * split.
+ *
+ * @author Bruce Peret
+ */
+public class ParallelTransform {
+
+    /**
+     * Default chunk: 4096 tuples, 128 KiB of input and output columns.
+     */
+    public static final int CHUNK = 4096;
+    /**
+     * Default size below which batches run sequentially.
+     */
+    public static final int THRESHOLD = 1 << 15;
+
+    private final ForkJoinPool pool;
+    private final int chunk;
+    private final int threshold;
+
+    /**
+     * Run on the common fork/join pool with the default chunk and threshold.
+     */
+    public ParallelTransform() {
+        this(ForkJoinPool.commonPool(), CHUNK, THRESHOLD);
+    }
+
+    /**
+     * Run on a specific pool.
+     *
+     * @param pool Fork/join pool to run on.
+     * @param chunk Largest piece of a batch handled by one task.
+     * @param threshold Batches smaller than this run on the calling thread.
+     */
+    public ParallelTransform(ForkJoinPool pool, int chunk, int threshold) {
+        if (chunk < 1) {
+            throw new IllegalArgumentException("Chunk must be positive: " + chunk);
+        }
+        this.pool = pool;
+        this.chunk = chunk;
+        this.threshold = threshold;
+    }
+
+    /**
+     * An operation on the tuples in [from, to).
+     */
+    private interface Kernel {
+
+        void run(int from, int to);
+    }
+
+    private final class Split extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Kernel kernel;
+        private final int from;
+        private final int to;
+
+        Split(Kernel kernel, int from, int to) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                kernel.run(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Split(kernel, from, mid), new Split(kernel, mid, to));
+            }
+        }
+    }
+
+    private void run(Kernel kernel, int n) {
+        if (n < threshold) {
+            kernel.run(0, n);
+        } else {
+            pool.invoke(new Split(kernel, 0, n));
+        }
+    }
+
+    private static void check(TupleBuffer in, TupleBuffer out) {
+        if (out.size() < in.size()) {
+            throw new IndexOutOfBoundsException("Output holds " + out.size() + " of " + in.size() + " tuples");
+        }
+    }
+
+    /**
+     * Send every tuple of a batch through a transformation.
+     *
+     * @param t Transformation.
+     * @param in Tuples to transform.
+     * @param out Buffer to receive the results; may be in.
+     * @return out
+     */
+    public TupleBuffer execute(final Transform4 t, final TupleBuffer in, final TupleBuffer out) {
+        check(in, out);
+        run((from, to) -> in.execute(t, out, from, to), in.size());
+        return out;
+    }
+
+    /**
+     * Send every tuple of a batch through a 4x4 transformation.
+     *
+     * @param t Transformation.
+     * @param in Tuples to transform.
+     * @param out Buffer to receive the results; may be in.
+     * @return out
+     */
+    public TupleBuffer execute(Transform t, TupleBuffer in, TupleBuffer out) {
+        return execute(new Transform4(t), in, out);
+    }
+
+    /**
+     * Send an array of 4D tuples through a transformation.
+     *
+     * @param t Transformation.
+     * @param in Tuples to transform.
+     * @param out Tuples to receive the results; may be in. out[i] may be the
+     * same Tuple as in[i], but not as any other element of in, since the
+     * order in which elements are written depends on scheduling.
+     * @return out
+     */
+    public Tuple[] execute(final Transform4 t, final Tuple[] in, final Tuple[] out) {
+        if (out.length < in.length) {
+            throw new IndexOutOfBoundsException("Output holds " + out.length + " of " + in.length + " tuples");
+        }
+        run((from, to) -> {
+            for (int i = from; i < to; i++) {
+                t.execute(in[i], out[i]);
+            }
+        }, in.length);
+        return out;
+    }
+
+    /**
+     * Project every tuple of a batch onto the specific W plane.
+     *
+     * @param w The numerical value of the projective plane.
+     * @param in Tuples to project.
+     * @param out Buffer to receive the results; may be in.
+     * @return out
+     */
+    public TupleBuffer project(final double w, final TupleBuffer in, final TupleBuffer out) {
+        check(in, out);
+        run((from, to) -> in.project(w, out, from, to), in.size());
+        return out;
+    }
+
+    /**
+     * Normalize every tuple of a batch to a scaled length.
+     *
+     * @param scale The length to normalize to.
+     * @param in Tuples to normalize.
+     * @param out Buffer to receive the results; may be in.
+     * @return out
+     */
+    public TupleBuffer normalize(final double scale, final TupleBuffer in, final TupleBuffer out) {
+        check(in, out);
+        run((from, to) -> in.normalize(scale, out, from, to), in.size());
+        return out;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * Quaternion algebra on 4D Tuples.
+ *
+ * A quaternion is stored as [w x y z], the real part in the first element as
+ * for every other Tuple. Rotations are unit quaternions: a chain of rotations
+ * is composed with the Hamilton product and expanded to a matrix once, rather
+ * than multiplying a full matrix per axis.
+ *
+ * Every method that takes a destination writes to it without allocating, and
+ * the destination may be one of the operands.
+ *
+ * @author Bruce Peret
+ */
+public final class Quaternion {
+
+    private Quaternion() {
+    }
+
+    private static void check(Tuple q) {
+        if (q.e.length != 4) {
+            throw new Error("Quaternion must be 4D: " + q.e.length);
+        }
+    }
+
+    /**
+     * The identity rotation [1 0 0 0].
+     *
+     * @return New unit quaternion.
+     */
+    public static Tuple identity() {
+        return new Tuple(1, 0, 0, 0);
+    }
+
+    /**
+     * Hamilton product a * b.
+     *
+     * As rotations, the product applies b first and then a.
+     *
+     * @param a Left quaternion.
+     * @param b Right quaternion.
+     * @param dest Tuple to receive the product; may be a or b.
+     * @return dest
+     */
+    public static Tuple multiply(Tuple a, Tuple b, Tuple dest) {
+        check(a);
+        check(b);
+        check(dest);
+        double aw = a.e[0], ax = a.e[1], ay = a.e[2], az = a.e[3];
+        double bw = b.e[0], bx = b.e[1], by = b.e[2], bz = b.e[3];
+        dest.e[0] = aw * bw - ax * bx - ay * by - az * bz;
+        dest.e[1] = aw * bx + ax * bw + ay * bz - az * by;
+        dest.e[2] = aw * by - ax * bz + ay * bw + az * bx;
+        dest.e[3] = aw * bz + ax * by - ay * bx + az * bw;
+        return dest;
+    }
+
+    /**
+     * Hamilton product a * b.
+     *
+     * @param a Left quaternion.
+     * @param b Right quaternion.
+     * @return New product.
+     */
+    public static Tuple multiply(Tuple a, Tuple b) {
+        return multiply(a, b, new Tuple(4));
+    }
+
+    /**
+     * Conjugate [w -x -y -z], the inverse of a unit quaternion.
+     *
+     * @param q Quaternion.
+     * @param dest Tuple to receive the conjugate; may be q.
+     * @return dest
+     */
+    public static Tuple conjugate(Tuple q, Tuple dest) {
+        check(q);
+        check(dest);
+        dest.e[0] = q.e[0];
+        dest.e[1] = -q.e[1];
+        dest.e[2] = -q.e[2];
+        dest.e[3] = -q.e[3];
+        return dest;
+    }
+
+    /**
+     * Conjugate [w -x -y -z].
+     *
+     * @param q Quaternion.
+     * @return New conjugate.
+     */
+    public static Tuple conjugate(Tuple q) {
+        return conjugate(q, new Tuple(4));
+    }
+
+    /**
+     * The rotation of {@link Transform#rotate(Tuple)} as a unit quaternion.
+     *
+     * The x, y and z angles are applied in that order, each by half-angle
+     * sine and cosine from the shared cache.
+     *
+     * @param v 4D Tuple defining rotation for the x, y and z axes.
+     * @param dest Tuple to receive the rotation; may be v.
+     * @return dest
+     */
+    public static Tuple rotation(Tuple v, Tuple dest) {
+        check(v);
+        check(dest);
+        SinCos a = SinCos.of(v.e[1] / 2);
+        SinCos b = SinCos.of(v.e[2] / 2);
+        SinCos c = SinCos.of(v.e[3] / 2);
+        /*
+         * Transform.rotate turns each axis by minus its angle; the product
+         * of the three axis quaternions qz * qy * qx, written out.
+         */
+        double cc = c.cos * b.cos;
+        double ss = c.sin * b.sin;
+        double cs = c.cos * b.sin;
+        double sc = c.sin * b.cos;
+        dest.e[0] = cc * a.cos - ss * a.sin;
+        dest.e[1] = -cc * a.sin - ss * a.cos;
+        dest.e[2] = sc * a.sin - cs * a.cos;
+        dest.e[3] = -cs * a.sin - sc * a.cos;
+        return dest;
+    }
+
+    /**
+     * The rotation of {@link Transform#rotate(Tuple)} as a unit quaternion.
+     *
+     * @param v 4D Tuple defining rotation for the x, y and z axes.
+     * @return New unit quaternion.
+     */
+    public static Tuple rotation(Tuple v) {
+        return rotation(v, new Tuple(4));
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions, along the
+     * shorter arc.
+     *
+     * @param a Rotation at t = 0.
+     * @param b Rotation at t = 1.
+     * @param t Interpolation parameter.
+     * @param dest Tuple to receive the rotation; may be a or b.
+     * @return dest
+     */
+    public static Tuple slerp(Tuple a, Tuple b, double t, Tuple dest) {
+        check(a);
+        check(b);
+        check(dest);
+        double aw = a.e[0], ax = a.e[1], ay = a.e[2], az = a.e[3];
+        double bw = b.e[0], bx = b.e[1], by = b.e[2], bz = b.e[3];
+        double dot = aw * bw + ax * bx + ay * by + az * bz;
+        if (dot < 0) {
+            dot = -dot;
+            bw = -bw;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+        }
+        double ka;
+        double kb;
+        if (dot > 0.9995) {
+            /*
+             * Nearly parallel: sin(theta) vanishes, so interpolate linearly
+             * and renormalize.
+             */
+            ka = 1 - t;
+            kb = t;
+        } else {
+            double theta = Math.acos(dot);
+            double sin = Math.sin(theta);
+            ka = Math.sin((1 - t) * theta) / sin;
+            kb = Math.sin(t * theta) / sin;
+        }
+        double w = ka * aw + kb * bw;
+        double x = ka * ax + kb * bx;
+        double y = ka * ay + kb * by;
+        double z = ka * az + kb * bz;
+        double d = Math.sqrt(w * w + x * x + y * y + z * z);
+        dest.e[0] = w / d;
+        dest.e[1] = x / d;
+        dest.e[2] = y / d;
+        dest.e[3] = z / d;
+        return dest;
+    }
+
+    /**
+     * Spherical linear interpolation between two unit quaternions.
+     *
+     * @param a Rotation at t = 0.
+     * @param b Rotation at t = 1.
+     * @param t Interpolation parameter.
+     * @return New unit quaternion.
+     */
+    public static Tuple slerp(Tuple a, Tuple b, double t) {
+        return slerp(a, b, t, new Tuple(4));
+    }
+
+    /**
+     * Rotate a 4D point [w x y z] directly; the projective element is left
+     * unchanged.
+     *
+     * @param q Unit quaternion.
+     * @param v Point to rotate.
+     * @param dest Tuple to receive the point; may be v.
+     * @return dest
+     */
+    public static Tuple rotate(Tuple q, Tuple v, Tuple dest) {
+        check(q);
+        check(v);
+        check(dest);
+        double qw = q.e[0], qx = q.e[1], qy = q.e[2], qz = q.e[3];
+        double vx = v.e[1], vy = v.e[2], vz = v.e[3];
+        /*
+         * v' = v + w * t + q x t, where t = 2 * (q x v).
+         */
+        double tx = 2 * (qy * vz - qz * vy);
+        double ty = 2 * (qz * vx - qx * vz);
+        double tz = 2 * (qx * vy - qy * vx);
+        dest.e[0] = v.e[0];
+        dest.e[1] = vx + qw * tx + qy * tz - qz * ty;
+        dest.e[2] = vy + qw * ty + qz * tx - qx * tz;
+        dest.e[3] = vz + qw * tz + qx * ty - qy * tx;
+        return dest;
+    }
+
+    /**
+     * Expand a unit quaternion into the 3x3 rotation acting on x, y and z.
+     *
+     * @param q Unit quaternion.
+     * @param r Nine elements to receive the rotation, where r[3 * i + k] is
+     * the weight of input axis k in output axis i.
+     * @return r
+     */
+    static double[] matrix(Tuple q, double[] r) {
+        check(q);
+        double w = q.e[0], x = q.e[1], y = q.e[2], z = q.e[3];
+        double xx = x * x, yy = y * y, zz = z * z;
+        double xy = x * y, xz = x * z, yz = y * z;
+        double wx = w * x, wy = w * y, wz = w * z;
+        r[0] = 1 - 2 * (yy + zz);
+        r[1] = 2 * (xy - wz);
+        r[2] = 2 * (xz + wy);
+        r[3] = 2 * (xy + wz);
+        r[4] = 1 - 2 * (xx + zz);
+        r[5] = 2 * (yz - wx);
+        r[6] = 2 * (xz - wy);
+        r[7] = 2 * (yz + wx);
+        r[8] = 1 - 2 * (xx + yy);
+        return r;
+    }
+
+    /**
+     * Expand a unit quaternion into a rotation matrix.
+     *
+     * @param q Unit quaternion.
+     * @param dest Matrix to overwrite with the rotation.
+     * @return dest
+     */
+    public static Transform4 toTransform(Tuple q, Transform4 dest) {
+        double[] r = matrix(q, new double[9]);
+        double[] m = dest.m;
+        m[0] = 1;
+        m[1] = 0;
+        m[2] = 0;
+        m[3] = 0;
+        m[4] = 0;
+        m[8] = 0;
+        m[12] = 0;
+        /*
+         * Transform.execute sums xform[k][i] * v[k], so the matrix holds the
+         * transpose of r.
+         */
+        for (int i = 0; i < 3; i++) {
+            for (int k = 0; k < 3; k++) {
+                m[4 * (k + 1) + i + 1] = r[3 * i + k];
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Expand a unit quaternion into a rotation matrix.
+     *
+     * @param q Unit quaternion.
+     * @return New 4x4 Transform.
+     */
+    public static Transform toTransform(Tuple q) {
+        return toTransform(q, new Transform4()).toTransform();
+    }
+
+    /**
+     * Extract the rotation of a matrix as a unit quaternion. Only the x, y
+     * and z block is read, which must be a pure rotation.
+     *
+     * @param t Rotation matrix.
+     * @param dest Tuple to receive the rotation.
+     * @return dest
+     */
+    public static Tuple fromTransform(Transform4 t, Tuple dest) {
+        check(dest);
+        double[] m = t.m;
+        double r00 = m[5], r01 = m[9], r02 = m[13];
+        double r10 = m[6], r11 = m[10], r12 = m[14];
+        double r20 = m[7], r21 = m[11], r22 = m[15];
+        double trace = r00 + r11 + r22;
+        double w, x, y, z;
+        /*
+         * Take the square root of the largest diagonal term, to stay well
+         * away from division by small numbers.
+         */
+        if (trace > 0) {
+            double s = 2 * Math.sqrt(1 + trace);
+            w = s / 4;
+            x = (r21 - r12) / s;
+            y = (r02 - r20) / s;
+            z = (r10 - r01) / s;
+        } else if (r00 > r11 && r00 > r22) {
+            double s = 2 * Math.sqrt(1 + r00 - r11 - r22);
+            w = (r21 - r12) / s;
+            x = s / 4;
+            y = (r01 + r10) / s;
+            z = (r02 + r20) / s;
+        } else if (r11 > r22) {
+            double s = 2 * Math.sqrt(1 + r11 - r00 - r22);
+            w = (r02 - r20) / s;
+            x = (r01 + r10) / s;
+            y = s / 4;
+            z = (r12 + r21) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + r22 - r00 - r11);
+            w = (r10 - r01) / s;
+            x = (r02 + r20) / s;
+            y = (r12 + r21) / s;
+            z = s / 4;
+        }
+        dest.e[0] = w;
+        dest.e[1] = x;
+        dest.e[2] = y;
+        dest.e[3] = z;
+        return dest;
+    }
+
+    /**
+     * Extract the rotation of a 4x4 Transform as a unit quaternion.
+     *
+     * @param t Rotation matrix.
+     * @return New unit quaternion.
+     */
+    public static Tuple fromTransform(Transform t) {
+        return fromTransform(new Transform4(t), new Tuple(4));
+    }
+}
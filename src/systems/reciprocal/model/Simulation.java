@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Time-stepping engine for a population of motions.
+ *
+ * Locations are double buffered: each step reads the current buffer and
+ * writes the other, then the two swap, so {@link #location()} always holds a
+ * complete step and an integrator never sees a half-written state. The
+ * population is split into partitions that step in parallel on a fork/join
+ * pool.
+ *
+ * A Simulation is driven by one thread at a time, either by calling
+ * {@link #step(double)} directly or through {@link #start(double, double)}.
+ *
+ * @author Bruce Peret
+ */
+public class Simulation {
+
+    private static final Logger LOG = Logger.getLogger(Simulation.class.getName());
+
+    /**
+     * Default partition: 8192 entries.
+     */
+    public static final int PARTITION = 8192;
+
+    private final SpaceTimeBuffer[] location = new SpaceTimeBuffer[2];
+    private final SpaceTimeBuffer structure;
+    private final Integrator integrator;
+    private final ForkJoinPool pool;
+    private final int partition;
+    private volatile int current;
+    private volatile long steps;
+    private volatile double time;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+    private volatile long rateSteps;
+    private volatile long rateStart;
+    private volatile double rate;
+
+    /**
+     * Simulate a population held in buffers.
+     *
+     * @param location Initial locations; becomes one of the two location
+     * buffers.
+     * @param structure Structures of the motions.
+     * @param integrator Integration rule.
+     * @param pool Fork/join pool for parallel stepping.
+     * @param partition Largest range of entries stepped by one task.
+     */
+    public Simulation(SpaceTimeBuffer location, SpaceTimeBuffer structure, Integrator integrator,
+            ForkJoinPool pool, int partition) {
+        if (structure.size() != location.size()) {
+            throw new IllegalArgumentException("Structure holds " + structure.size() + " of " + location.size() + " entries");
+        }
+        if (partition < 1) {
+            throw new IllegalArgumentException("Partition must be positive: " + partition);
+        }
+        this.location[0] = location;
+        this.location[1] = new SpaceTimeBuffer(location.size());
+        this.structure = structure;
+        this.integrator = integrator;
+        this.pool = pool;
+        this.partition = partition;
+    }
+
+    /**
+     * Simulate a population held in buffers on the common pool.
+     *
+     * @param location Initial locations.
+     * @param structure Structures of the motions.
+     * @param integrator Integration rule.
+     */
+    public Simulation(SpaceTimeBuffer location, SpaceTimeBuffer structure, Integrator integrator) {
+        this(location, structure, integrator, ForkJoinPool.commonPool(), PARTITION);
+    }
+
+    /**
+     * Simulate an array of motions, copying their coordinates into buffers.
+     * Tuples of fewer than four elements are widened, the missing elements
+     * 0. The motions themselves are not stepped; {@link #update(Motion[])}
+     * copies the stepped locations back.
+     *
+     * @param motions Population.
+     * @param integrator Integration rule.
+     * @throws IllegalArgumentException if a motion has Tuples of more than
+     * four elements, or no coordinates.
+     */
+    public Simulation(Motion[] motions, Integrator integrator) {
+        this(new SpaceTimeBuffer(motions.length), new SpaceTimeBuffer(motions.length), integrator);
+        for (int i = 0; i < motions.length; i++) {
+            if (motions[i] == null) {
+                throw new IllegalArgumentException("Motion " + i + " is null");
+            }
+            location[0].set(i, motions[i].location);
+            structure.set(i, motions[i].structure);
+        }
+    }
+
+    /**
+     * @return Number of motions.
+     */
+    public int size() {
+        return structure.size();
+    }
+
+    /**
+     * @return Locations after the latest step.
+     */
+    public SpaceTimeBuffer location() {
+        return location[current];
+    }
+
+    /**
+     * Copy the locations after the latest step back into motions, into
+     * their own Tuples. Tuples of fewer than four elements receive the
+     * leading elements.
+     *
+     * @param motions Population, in the order simulated.
+     * @return motions
+     */
+    public Motion[] update(Motion[] motions) {
+        if (motions.length != size()) {
+            throw new IllegalArgumentException(motions.length + " motions for " + size() + " entries");
+        }
+        SpaceTimeBuffer l = location[current];
+        for (int i = 0; i < motions.length; i++) {
+            l.get(i, motions[i].location);
+        }
+        return motions;
+    }
+
+    /**
+     * @return Structures of the motions.
+     */
+    public SpaceTimeBuffer structure() {
+        return structure;
+    }
+
+    /**
+     * @return Steps taken.
+     */
+    public long steps() {
+        return steps;
+    }
+
+    /**
+     * @return Simulated time, the sum of the increments stepped.
+     */
+    public double time() {
+        return time;
+    }
+
+    private final class Partition extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SpaceTimeBuffer in;
+        private final SpaceTimeBuffer out;
+        private final double dt;
+        private final int from;
+        private final int to;
+
+        Partition(SpaceTimeBuffer in, SpaceTimeBuffer out, double dt, int from, int to) {
+            this.in = in;
+            this.out = out;
+            this.dt = dt;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= partition) {
+                integrator.step(in, structure, out, dt, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Partition(in, out, dt, from, mid), new Partition(in, out, dt, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Advance every motion by one time increment.
+     *
+     * @param dt Time increment.
+     * @return this
+     */
+    public Simulation step(double dt) {
+        int next = 1 - current;
+        SpaceTimeBuffer in = location[current];
+        SpaceTimeBuffer out = location[next];
+        int n = size();
+        if (n <= partition) {
+            integrator.step(in, structure, out, dt, 0, n);
+        } else {
+            pool.invoke(new Partition(in, out, dt, 0, n));
+        }
+        current = next;
+        time += dt;
+        steps++;
+        return this;
+    }
+
+    /**
+     * Advance a number of steps.
+     *
+     * @param dt Time increment per step.
+     * @param count Number of steps.
+     * @return this
+     */
+    public Simulation run(double dt, long count) {
+        for (long i = 0; i < count; i++) {
+            step(dt);
+        }
+        return this;
+    }
+
+    /**
+     * Start stepping on a background thread at a fixed rate. If a step takes
+     * longer than its period, later steps start late rather than overlap.
+     *
+     * @param dt Time increment per step.
+     * @param hz Steps per second of wall-clock time.
+     */
+    public synchronized void start(final double dt, double hz) {
+        if (task != null) {
+            throw new IllegalStateException("Simulation is already running");
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Simulation");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        rateSteps = steps;
+        rateStart = System.nanoTime();
+        rate = 0;
+        task = scheduler.scheduleAtFixedRate(() -> {
+            try {
+                step(dt);
+            } catch (RuntimeException | Error ex) {
+                LOG.log(Level.SEVERE, "Simulation step failed", ex);
+                throw ex;
+            }
+            long now = System.nanoTime();
+            long elapsed = now - rateStart;
+            if (elapsed >= 1000000000L) {
+                rate = (steps - rateSteps) * 1e9 / elapsed;
+                rateSteps = steps;
+                rateStart = now;
+            }
+        }, 0, Math.max(1, Math.round(1e9 / hz)), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop a simulation started with {@link #start(double, double)}, waiting
+     * for a step in progress to finish.
+     */
+    public synchronized void stop() {
+        if (task == null) {
+            return;
+        }
+        task.cancel(false);
+        task = null;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * @return True while stepping on the background thread.
+     */
+    public synchronized boolean running() {
+        return task != null && !task.isDone();
+    }
+
+    /**
+     * @return Steps per second of wall-clock time over the latest second of
+     * a scheduled run.
+     */
+    public double rate() {
+        return rate;
+    }
+
+    /**
+     * Report the simulation state.
+     *
+     * @return Textual representation of the simulation.
+     */
+    @Override
+    public String toString() {
+        return String.format("Simulation: %d motions, %d steps, t=%g, %.1f steps/s",
+                size(), steps, time, rate);
+    }
+}
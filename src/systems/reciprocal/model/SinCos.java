@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * Cache of sine and cosine for recently used angles.
+ *
+ * Motion code rotates by the same few angles over and over, so each angle's
+ * sine and cosine are kept in a small direct-mapped table. Values are exactly
+ * those of {@link Math#sin(double)} and {@link Math#cos(double)}. Entries are
+ * immutable, so threads may share the table without locking; a race only
+ * costs a recomputation.
+ *
+ * @author Bruce Peret
+ */
+final class SinCos {
+
+    private static final int SIZE = 256;
+    private static final SinCos[] CACHE = new SinCos[SIZE];
+
+    final double angle;
+    final double sin;
+    final double cos;
+
+    private SinCos(double angle) {
+        this.angle = angle;
+        this.sin = Math.sin(angle);
+        this.cos = Math.cos(angle);
+    }
+
+    /**
+     * Sine and cosine of an angle.
+     *
+     * @param angle Angle in radians.
+     * @return Cached or new entry.
+     */
+    static SinCos of(double angle) {
+        long bits = Double.doubleToLongBits(angle);
+        int slot = (int) (bits ^ (bits >>> 32)) * 0x9E3779B9 >>> 24;
+        SinCos entry = CACHE[slot];
+        if (entry == null || Double.doubleToLongBits(entry.angle) != bits) {
+            entry = new SinCos(angle);
+            CACHE[slot] = entry;
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * A space Dual and a time Dual: the accessors of {@link Location} and
+ * {@link Structure}, which {@link SpaceTimeBuffer} views also implement, so
+ * code written against this interface takes either.
+ *
+ * A Location or Structure returns its own Duals from {@link #space()} and
+ * {@link #time()}; a view returns a copy of its entry, refilled on every
+ * call. Write changes back with the setters in either case.
+ *
+ * @author Bruce Peret
+ */
+public interface SpaceTime {
+
+    /**
+     * @return Principal and subordinate spatial coordinates.
+     */
+    Dual space();
+
+    /**
+     * @return Principal and subordinate temporal coordinates.
+     */
+    Dual time();
+
+    /**
+     * Set space and time coordinates.
+     *
+     * @param space Principal and subordinate spatial coordinates.
+     * @param time Principal and subordinate temporal coordinates.
+     * @return this
+     */
+    SpaceTime set(Dual space, Dual time);
+
+    /**
+     * Set spatial coordinates.
+     *
+     * @param space Principal and subordinate spatial coordinates.
+     * @return this
+     */
+    SpaceTime setSpace(Dual space);
+
+    /**
+     * Set temporal coordinates.
+     *
+     * @param time Principal and subordinate temporal coordinates.
+     * @return this
+     */
+    SpaceTime setTime(Dual time);
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * Space and time coordinates of a population, in flat columns.
+ *
+ * Each of the N entries holds what a {@link Location} or {@link Structure}
+ * holds: a space Dual and a time Dual, each a principal and a subordinate 4D
+ * Tuple. Every one of the four Tuples is a {@link TupleBuffer} column, so a
+ * whole population can go through {@link ParallelTransform} at once, with
+ * no objects per entry.
+ *
+ * Tuples of fewer than four elements, such as the 1D Tuples of
+ * {@link Motion#Electron()} or the two-element default {@link Location}, are
+ * widened on the way in, the missing trailing elements 0, and narrowed to
+ * their leading elements on the way out; longer Tuples are rejected with an
+ * IllegalArgumentException.
+ *
+ * Views give coordinate accessors over one entry, and implement
+ * {@link SpaceTime} so they stand in for a Location or Structure without
+ * copying the entry out. A view reads and writes the columns directly and
+ * can be moved from entry to entry, so one view serves a whole loop.
+ *
+ * @author Bruce Peret
+ */
+public class SpaceTimeBuffer {
+
+    /**
+     * Principal spatial coordinates.
+     */
+    public final TupleBuffer spacePrincipal;
+    /**
+     * Subordinate spatial coordinates.
+     */
+    public final TupleBuffer spaceSubordinate;
+    /**
+     * Principal temporal coordinates.
+     */
+    public final TupleBuffer timePrincipal;
+    /**
+     * Subordinate temporal coordinates.
+     */
+    public final TupleBuffer timeSubordinate;
+
+    /**
+     * Create a buffer of n zero entries.
+     *
+     * @param n Number of entries.
+     */
+    public SpaceTimeBuffer(int n) {
+        spacePrincipal = new TupleBuffer(n);
+        spaceSubordinate = new TupleBuffer(n);
+        timePrincipal = new TupleBuffer(n);
+        timeSubordinate = new TupleBuffer(n);
+    }
+
+    /**
+     * @return Number of entries.
+     */
+    public int size() {
+        return spacePrincipal.size();
+    }
+
+    private static void put(TupleBuffer p, TupleBuffer s, int i, Dual d, String what) {
+        if (d == null || d.principal == null || d.subordinate == null) {
+            throw new IllegalArgumentException("Entry " + i + ": no " + what + " coordinates");
+        }
+        put(p, i, d.principal, what + " principal");
+        put(s, i, d.subordinate, what + " subordinate");
+    }
+
+    /**
+     * Copy a Tuple of up to four elements into a column, the missing
+     * trailing elements as 0.
+     */
+    private static void put(TupleBuffer b, int i, Tuple t, String what) {
+        double[] e = t.e;
+        if (e.length > 4) {
+            throw new IllegalArgumentException("Entry " + i + ": " + what + " Tuple has " + e.length
+                + " elements, at most 4 fit");
+        }
+        b.set(i,
+            e.length > 0 ? e[0] : 0,
+            e.length > 1 ? e[1] : 0,
+            e.length > 2 ? e[2] : 0,
+            e.length > 3 ? e[3] : 0
+        );
+    }
+
+    private static Dual get(TupleBuffer p, TupleBuffer s, int i, Dual dest) {
+        get(p, i, dest.principal);
+        get(s, i, dest.subordinate);
+        return dest;
+    }
+
+    /**
+     * Copy the leading elements of a column entry into a Tuple of up to four
+     * elements.
+     */
+    private static void get(TupleBuffer b, int i, Tuple t) {
+        double[] e = t.e;
+        if (e.length > 4) {
+            throw new IllegalArgumentException("Entry " + i + ": Tuple of " + e.length
+                + " elements, at most 4 are held");
+        }
+        if (e.length > 0) {
+            e[0] = b.w[i];
+        }
+        if (e.length > 1) {
+            e[1] = b.x[i];
+        }
+        if (e.length > 2) {
+            e[2] = b.y[i];
+        }
+        if (e.length > 3) {
+            e[3] = b.z[i];
+        }
+    }
+
+    /**
+     * Copy a space Dual into an entry.
+     *
+     * @param i Entry index.
+     * @param space Principal and subordinate spatial coordinates, of up to
+     * four elements each.
+     * @return this
+     */
+    public SpaceTimeBuffer setSpace(int i, Dual space) {
+        put(spacePrincipal, spaceSubordinate, i, space, "space");
+        return this;
+    }
+
+    /**
+     * Copy a time Dual into an entry.
+     *
+     * @param i Entry index.
+     * @param time Principal and subordinate temporal coordinates, of up to
+     * four elements each.
+     * @return this
+     */
+    public SpaceTimeBuffer setTime(int i, Dual time) {
+        put(timePrincipal, timeSubordinate, i, time, "time");
+        return this;
+    }
+
+    /**
+     * Copy a Location, Structure or view into an entry.
+     *
+     * @param i Entry index.
+     * @param st Coordinates of up to four elements.
+     * @return this
+     */
+    public SpaceTimeBuffer set(int i, SpaceTime st) {
+        return setSpace(i, st.space()).setTime(i, st.time());
+    }
+
+    /**
+     * Copy the space coordinates of an entry out of the buffer.
+     *
+     * @param i Entry index.
+     * @param dest Dual of Tuples of up to four elements to receive the
+     * leading coordinates.
+     * @return dest
+     */
+    public Dual space(int i, Dual dest) {
+        return get(spacePrincipal, spaceSubordinate, i, dest);
+    }
+
+    /**
+     * Copy the time coordinates of an entry out of the buffer.
+     *
+     * @param i Entry index.
+     * @param dest Dual of Tuples of up to four elements to receive the
+     * leading coordinates.
+     * @return dest
+     */
+    public Dual time(int i, Dual dest) {
+        return get(timePrincipal, timeSubordinate, i, dest);
+    }
+
+    /**
+     * Copy an entry back into a Location, into its own Tuples.
+     *
+     * @param i Entry index.
+     * @param l Location to receive the coordinates.
+     * @return l
+     */
+    public Location get(int i, Location l) {
+        space(i, l.space);
+        time(i, l.time);
+        return l;
+    }
+
+    /**
+     * Copy an entry back into a Structure, into its own Tuples.
+     *
+     * @param i Entry index.
+     * @param s Structure to receive the coordinates.
+     * @return s
+     */
+    public Structure get(int i, Structure s) {
+        space(i, s.space);
+        time(i, s.time);
+        return s;
+    }
+
+    private static Dual dual() {
+        return new Dual(new Tuple(4), new Tuple(4));
+    }
+
+    /**
+     * A view of one entry as a Location.
+     *
+     * @param i Entry index.
+     * @return New view.
+     */
+    public LocationView location(int i) {
+        return new LocationView().at(i);
+    }
+
+    /**
+     * A view of one entry as a Structure.
+     *
+     * @param i Entry index.
+     * @return New view.
+     */
+    public StructureView structure(int i) {
+        return new StructureView().at(i);
+    }
+
+    /**
+     * Accessors for the coordinates of one entry, read and written in the
+     * columns. Elements are numbered 0-3, w x y z.
+     *
+     * {@link #space()} and {@link #time()} return Duals of 4D Tuples owned by
+     * the view and refilled from the entry on every call, so changes to them
+     * reach the entry only through a setter.
+     */
+    public abstract class View implements SpaceTime {
+
+        int index;
+        private final Dual space = dual();
+        private final Dual time = dual();
+
+        View() {
+        }
+
+        void move(int i) {
+            if (i < 0 || i >= size()) {
+                throw new IndexOutOfBoundsException("Entry " + i + " of " + size());
+            }
+            index = i;
+        }
+
+        /**
+         * @return Entry index.
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @return Principal spatial coordinate.
+         */
+        public double spacePrincipal(int k) {
+            return element(spacePrincipal, index, k);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @return Subordinate spatial coordinate.
+         */
+        public double spaceSubordinate(int k) {
+            return element(spaceSubordinate, index, k);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @return Principal temporal coordinate.
+         */
+        public double timePrincipal(int k) {
+            return element(timePrincipal, index, k);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @return Subordinate temporal coordinate.
+         */
+        public double timeSubordinate(int k) {
+            return element(timeSubordinate, index, k);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @param v Principal spatial coordinate.
+         */
+        public void setSpacePrincipal(int k, double v) {
+            element(spacePrincipal, index, k, v);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @param v Subordinate spatial coordinate.
+         */
+        public void setSpaceSubordinate(int k, double v) {
+            element(spaceSubordinate, index, k, v);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @param v Principal temporal coordinate.
+         */
+        public void setTimePrincipal(int k, double v) {
+            element(timePrincipal, index, k, v);
+        }
+
+        /**
+         * @param k Element, 0-3.
+         * @param v Subordinate temporal coordinate.
+         */
+        public void setTimeSubordinate(int k, double v) {
+            element(timeSubordinate, index, k, v);
+        }
+
+        /**
+         * Copy the spatial coordinates without allocating.
+         *
+         * @param dest Dual of Tuples of up to four elements.
+         * @return dest
+         */
+        public Dual space(Dual dest) {
+            return SpaceTimeBuffer.this.space(index, dest);
+        }
+
+        /**
+         * Copy the temporal coordinates without allocating.
+         *
+         * @param dest Dual of Tuples of up to four elements.
+         * @return dest
+         */
+        public Dual time(Dual dest) {
+            return SpaceTimeBuffer.this.time(index, dest);
+        }
+
+        /**
+         * @return The view's Dual, refilled with the spatial coordinates.
+         */
+        @Override
+        public Dual space() {
+            return space(space);
+        }
+
+        /**
+         * @return The view's Dual, refilled with the temporal coordinates.
+         */
+        @Override
+        public Dual time() {
+            return time(time);
+        }
+
+        /**
+         * Copy space and time coordinates into the entry.
+         *
+         * @param space Dual of Tuples of up to four elements.
+         * @param time Dual of Tuples of up to four elements.
+         * @return this
+         */
+        @Override
+        public View set(Dual space, Dual time) {
+            return setSpace(space).setTime(time);
+        }
+
+        /**
+         * Copy spatial coordinates into the entry.
+         *
+         * @param space Dual of Tuples of up to four elements.
+         * @return this
+         */
+        @Override
+        public View setSpace(Dual space) {
+            SpaceTimeBuffer.this.setSpace(index, space);
+            return this;
+        }
+
+        /**
+         * Copy temporal coordinates into the entry.
+         *
+         * @param time Dual of Tuples of up to four elements.
+         * @return this
+         */
+        @Override
+        public View setTime(Dual time) {
+            SpaceTimeBuffer.this.setTime(index, time);
+            return this;
+        }
+    }
+
+    private static double element(TupleBuffer b, int i, int k) {
+        switch (k) {
+            case 0:
+                return b.w[i];
+            case 1:
+                return b.x[i];
+            case 2:
+                return b.y[i];
+            case 3:
+                return b.z[i];
+            default:
+                throw new IndexOutOfBoundsException("Element " + k + " of 4");
+        }
+    }
+
+    private static void element(TupleBuffer b, int i, int k, double v) {
+        switch (k) {
+            case 0:
+                b.w[i] = v;
+                break;
+            case 1:
+                b.x[i] = v;
+                break;
+            case 2:
+                b.y[i] = v;
+                break;
+            case 3:
+                b.z[i] = v;
+                break;
+            default:
+                throw new IndexOutOfBoundsException("Element " + k + " of 4");
+        }
+    }
+
+    /**
+     * The location of one entry, usable wherever a {@link SpaceTime} is
+     * taken. {@link #toLocation()} makes a separate Location when one is
+     * needed.
+     */
+    public final class LocationView extends View {
+
+        private LocationView() {
+        }
+
+        /**
+         * Move the view to another entry.
+         *
+         * @param i Entry index.
+         * @return this
+         */
+        public LocationView at(int i) {
+            move(i);
+            return this;
+        }
+
+        /**
+         * @return New Location of 4D Tuples holding a copy of the entry.
+         */
+        public Location toLocation() {
+            return new Location(space(dual()), time(dual()));
+        }
+    }
+
+    /**
+     * The structure of one entry, usable wherever a {@link SpaceTime} is
+     * taken. {@link #toStructure()} makes a separate Structure when one is
+     * needed.
+     */
+    public final class StructureView extends View {
+
+        private StructureView() {
+        }
+
+        /**
+         * Move the view to another entry.
+         *
+         * @param i Entry index.
+         * @return this
+         */
+        public StructureView at(int i) {
+            move(i);
+            return this;
+        }
+
+        /**
+         * @return New Structure of 4D Tuples holding a copy of the entry.
+         */
+        public Structure toStructure() {
+            return new Structure(space(dual()), time(dual()));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Uniform spatial hash over the x, y and z coordinates of a TupleBuffer, for
+ * short-range neighbour search.
+ *
+ * Space is cut into cubic cells, and each cell is hashed to a bucket. A
+ * build is a counting sort of the points by bucket, O(N), and reuses the
+ * previous build's arrays, so rebuilding every simulation step does not
+ * allocate. Searches visit the cells overlapping the search radius. Cells
+ * that share a bucket are told apart by recomputing each candidate's cell,
+ * so no point is reported twice.
+ *
+ * Coordinates are used as stored; project points to w = 1 first if needed.
+ * Searches may run concurrently, but not during a build.
+ *
+ * @author Bruce Peret
+ */
+public class SpatialHash {
+
+    /**
+     * Receives pairs of points within range.
+     */
+    public interface Pairs {
+
+        /**
+         * @param i First point, the lower index.
+         * @param j Second point.
+         * @param distance2 Squared distance between them.
+         */
+        void accept(int i, int j, double distance2);
+    }
+
+    private final double cell;
+    private final double inverse;
+    private int size;
+    private int mask;
+    private int[] start = new int[0];
+    private int[] order = new int[0];
+    private int[] bucket = new int[0];
+    private double[] sx = new double[0];
+    private double[] sy = new double[0];
+    private double[] sz = new double[0];
+
+    /**
+     * Create an empty hash.
+     *
+     * @param cell Cell edge; about the typical search radius works best.
+     */
+    public SpatialHash(double cell) {
+        if (!(cell > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cell);
+        }
+        this.cell = cell;
+        this.inverse = 1 / cell;
+    }
+
+    /**
+     * @return Cell edge.
+     */
+    public double cell() {
+        return cell;
+    }
+
+    /**
+     * @return Number of points in the latest build.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int index(double c) {
+        return (int) Math.floor(c * inverse);
+    }
+
+    private int hash(int ix, int iy, int iz) {
+        return (ix * 73856093 ^ iy * 19349663 ^ iz * 83492791) & mask;
+    }
+
+    /**
+     * Index the points of a buffer, replacing any previous build.
+     *
+     * @param points Points to index.
+     * @return this
+     */
+    public SpatialHash build(TupleBuffer points) {
+        double[] x = points.x, y = points.y, z = points.z;
+        int n = points.size();
+        int buckets = Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1;
+        if (start.length != buckets + 1) {
+            start = new int[buckets + 1];
+        } else {
+            Arrays.fill(start, 0);
+        }
+        if (order.length < n) {
+            order = new int[n];
+            bucket = new int[n];
+            sx = new double[n];
+            sy = new double[n];
+            sz = new double[n];
+        }
+        mask = buckets - 1;
+        size = n;
+        for (int i = 0; i < n; i++) {
+            int b = hash(index(x[i]), index(y[i]), index(z[i]));
+            bucket[i] = b;
+            start[b]++;
+        }
+        for (int b = 1; b <= buckets; b++) {
+            start[b] += start[b - 1];
+        }
+        /*
+         * start[b] is now the end of bucket b. Fill each bucket from its
+         * end, walking the points backwards, which leaves start[b] at its
+         * beginning and the points in index order within a bucket.
+         */
+        for (int i = n - 1; i >= 0; i--) {
+            int k = --start[bucket[i]];
+            order[k] = i;
+            sx[k] = x[i];
+            sy[k] = y[i];
+            sz[k] = z[i];
+        }
+        return this;
+    }
+
+    /**
+     * Visit every point within a radius of a position.
+     *
+     * @param px X coordinate.
+     * @param py Y coordinate.
+     * @param pz Z coordinate.
+     * @param r Search radius.
+     * @param visitor Receives the index of each point found.
+     */
+    public void neighbours(double px, double py, double pz, double r, IntConsumer visitor) {
+        double r2 = r * r;
+        int x0 = index(px - r), x1 = index(px + r);
+        int y0 = index(py - r), y1 = index(py + r);
+        int z0 = index(pz - r), z1 = index(pz + r);
+        for (int ix = x0; ix <= x1; ix++) {
+            for (int iy = y0; iy <= y1; iy++) {
+                for (int iz = z0; iz <= z1; iz++) {
+                    int b = hash(ix, iy, iz);
+                    for (int k = start[b], end = start[b + 1]; k < end; k++) {
+                        double dx = sx[k] - px, dy = sy[k] - py, dz = sz[k] - pz;
+                        if (dx * dx + dy * dy + dz * dz <= r2
+                                && index(sx[k]) == ix && index(sy[k]) == iy && index(sz[k]) == iz) {
+                            visitor.accept(order[k]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find every point within a radius of a position.
+     *
+     * @param px X coordinate.
+     * @param py Y coordinate.
+     * @param pz Z coordinate.
+     * @param r Search radius.
+     * @return Indexes of the points found, in no particular order.
+     */
+    public int[] neighbours(double px, double py, double pz, double r) {
+        IntStream.Builder found = IntStream.builder();
+        neighbours(px, py, pz, r, found);
+        return found.build().toArray();
+    }
+
+    /**
+     * Visit every pair of indexed points within a distance of each other,
+     * each pair once.
+     *
+     * @param r Interaction distance.
+     * @param visitor Receives each pair.
+     */
+    public void pairs(double r, Pairs visitor) {
+        pairs(r, 0, size, visitor);
+    }
+
+    /**
+     * Visit the pairs within a distance whose lower-index point lies in
+     * [from, to) of the sorted order, so that disjoint ranges, which
+     * together cover [0, size()), can run in parallel.
+     *
+     * @param r Interaction distance.
+     * @param from First sorted position, inclusive.
+     * @param to Last sorted position, exclusive.
+     * @param visitor Receives each pair.
+     */
+    public void pairs(double r, int from, int to, Pairs visitor) {
+        double r2 = r * r;
+        for (int k = from; k < to; k++) {
+            final int i = order[k];
+            final double px = sx[k], py = sy[k], pz = sz[k];
+            int x0 = index(px - r), x1 = index(px + r);
+            int y0 = index(py - r), y1 = index(py + r);
+            int z0 = index(pz - r), z1 = index(pz + r);
+            for (int ix = x0; ix <= x1; ix++) {
+                for (int iy = y0; iy <= y1; iy++) {
+                    for (int iz = z0; iz <= z1; iz++) {
+                        int b = hash(ix, iy, iz);
+                        for (int m = start[b], end = start[b + 1]; m < end; m++) {
+                            int j = order[m];
+                            if (j <= i) {
+                                continue;
+                            }
+                            double dx = sx[m] - px, dy = sy[m] - py, dz = sz[m] - pz;
+                            double d2 = dx * dx + dy * dy + dz * dz;
+                            if (d2 <= r2 && index(sx[m]) == ix && index(sy[m]) == iy && index(sz[m]) == iz) {
+                                visitor.accept(i, j, d2);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
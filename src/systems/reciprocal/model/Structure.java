@@ -20,7 +20,7 @@ package systems.reciprocal.model;
  *
  * @author Bruce Peret
  */
-public class Structure {
+public class Structure implements SpaceTime {
 
     Dual space;
     Dual time;
@@ -29,4 +29,58 @@ public class Structure {
         this.space = space;
         this.time = time;
     }
+
+    /**
+     * Set spatial and temporal structure.
+     *
+     * @param space Spatial structure.
+     * @param time Temporal structure.
+     * @return this
+     */
+    @Override
+    public Structure set(Dual space, Dual time) {
+        this.space = space;
+        this.time = time;
+        return this;
+    }
+
+    /**
+     * Set spatial structure.
+     *
+     * @param space Spatial structure.
+     * @return this
+     */
+    @Override
+    public Structure setSpace(Dual space) {
+        this.space = space;
+        return this;
+    }
+
+    /**
+     * Set temporal structure.
+     *
+     * @param time Temporal structure.
+     * @return this
+     */
+    @Override
+    public Structure setTime(Dual time) {
+        this.time = time;
+        return this;
+    }
+
+    /**
+     * @return Spatial structure.
+     */
+    @Override
+    public Dual space() {
+        return space;
+    }
+
+    /**
+     * @return Temporal structure.
+     */
+    @Override
+    public Dual time() {
+        return time;
+    }
 }
@@ -149,8 +149,8 @@ public class Transform {
      * Add a rotation transformation. Only works in 4D.
      *
      * None of these rotations can rotate about the projective plane, the "real"
-     * axis (the first element of a tuple), so skip that possibility. Octonian
-     * rotation is not yet supported.
+     * axis (the first element of a tuple), so skip that possibility. For 8D
+     * (octonion) rotation use {@link Octonion#toTransform(Tuple)}.
      *
      * @param v Tuple defining rotation for various axes.
      * @return Updated transformation.
@@ -168,7 +168,7 @@ public class Transform {
             case 2:
                 if (v.e[1] != 0) {  // Don't do unnecessary work
                     Transform t = new Transform(v.e.length);
-                    t.xform[1][1] = Math.cos(v.e[1]);
+                    t.xform[1][1] = SinCos.of(v.e[1]).cos;
                     this.multiply(t);
                 }
                 break;
@@ -177,16 +177,17 @@ public class Transform {
              * so only run rotation from 1-3 (x,y,z).
              */
             case 4:
-                int[][] loc = {{0, 0}, {3, 2}, {1, 3}, {2, 1}};
-                for (int axis = 1; axis < v.e.length; axis++) {
-                    if (v.e[axis] != 0) {
-                        Transform t = new Transform(v.e.length);
-                        t.xform[loc[axis][0]][loc[axis][0]] = Math.cos(v.e[axis]);
-                        t.xform[loc[axis][1]][loc[axis][1]] = Math.cos(v.e[axis]);
-                        t.xform[loc[axis][0]][loc[axis][1]] = Math.sin(v.e[axis]);
-                        t.xform[loc[axis][1]][loc[axis][0]] = -Math.sin(v.e[axis]);
-                        this.multiply(t);
-                    }
+                if (xform.length != 4) {
+                    throw new Error("Unsupported dimensions for rotation.");
+                }
+                if (v.e[1] != 0) {
+                    rotate(3, 2, v.e[1]);
+                }
+                if (v.e[2] != 0) {
+                    rotate(1, 3, v.e[2]);
+                }
+                if (v.e[3] != 0) {
+                    rotate(2, 1, v.e[3]);
                 }
                 break;
             default:
@@ -195,6 +196,50 @@ public class Transform {
         return this;
     }
 
+    /**
+     * Fold a plane rotation into the matrix, with the same result as
+     * multiplying by a matrix whose [a][a] and [b][b] are cos, [a][b] is sin
+     * and [b][a] is -sin. The general product never yields negative zero, so
+     * neither does this.
+     */
+    private void rotate(int a, int b, double angle) {
+        SinCos sc = SinCos.of(angle);
+        for (double[] row : xform) {
+            double ia = row[a];
+            double ib = row[b];
+            row[a] = ia * sc.cos - ib * sc.sin;
+            row[b] = ia * sc.sin + ib * sc.cos;
+            for (int i = 0; i < row.length; i++) {
+                row[i] += 0.0;
+            }
+        }
+    }
+
+    /**
+     * Add a rotation given as a unit quaternion. Composing rotations with
+     * {@link Quaternion#multiply(Tuple, Tuple, Tuple)} and adding them here
+     * once is cheaper than one {@link #rotate(Tuple)} per step.
+     *
+     * @param q Unit quaternion, as from {@link Quaternion#rotation(Tuple)}.
+     * @return Updated transformation.
+     */
+    public Transform rotateQuaternion(Tuple q) {
+        if (xform.length != 4) {
+            throw new Error("Unsupported dimensions for rotation.");
+        }
+        double[] r = Quaternion.matrix(q, new double[9]);
+        for (double[] row : xform) {
+            double x = row[1];
+            double y = row[2];
+            double z = row[3];
+            row[0] += 0.0;
+            row[1] = 0.0 + x * r[0] + y * r[1] + z * r[2];
+            row[2] = 0.0 + x * r[3] + y * r[4] + z * r[5];
+            row[3] = 0.0 + x * r[6] + y * r[7] + z * r[8];
+        }
+        return this;
+    }
+
     /**
      * Multiply two transformation matrices.
      *
@@ -222,13 +267,65 @@ public class Transform {
      * @return Transformed Tuple.
      */
     public Tuple execute(Tuple t) {
-        Tuple product = new Tuple(t.e.length);
+        return execute(t, new Tuple(t.e.length));
+    }
+
+    /**
+     * Multiply a transformation by a Tuple into a destination Tuple, without
+     * allocating. The 4D case is written out in full.
+     *
+     * @param t Tuple to send through execute.
+     * @param dest Tuple of the same length to receive the result; may be t.
+     * @return dest
+     */
+    public Tuple execute(Tuple t, Tuple dest) {
+        double[] v = t.e;
+        double[] r = dest.e;
+        if (r.length != v.length) {
+            throw new Error("Tuple length mismatch: " + r.length + " for " + v.length);
+        }
+        if (xform.length == 4 && v.length == 4) {
+            double[] c0 = xform[0];
+            double[] c1 = xform[1];
+            double[] c2 = xform[2];
+            double[] c3 = xform[3];
+            double v0 = v[0];
+            double v1 = v[1];
+            double v2 = v[2];
+            double v3 = v[3];
+            r[0] = 0.0 + c0[0] * v0 + c1[0] * v1 + c2[0] * v2 + c3[0] * v3;
+            r[1] = 0.0 + c0[1] * v0 + c1[1] * v1 + c2[1] * v2 + c3[1] * v3;
+            r[2] = 0.0 + c0[2] * v0 + c1[2] * v1 + c2[2] * v2 + c3[2] * v3;
+            r[3] = 0.0 + c0[3] * v0 + c1[3] * v1 + c2[3] * v2 + c3[3] * v3;
+            return dest;
+        }
+        if (r == v) {
+            v = v.clone();
+        }
         for (int i = 0; i < xform.length; i++) {
-            for (int k = 0; k < t.e.length; k++) {
-                product.e[i] += xform[k][i] * t.e[k];
+            double sum = 0;
+            for (int k = 0; k < v.length; k++) {
+                sum += xform[k][i] * v[k];
             }
+            r[i] = sum;
         }
-        return product;
+        for (int i = xform.length; i < r.length; i++) {
+            r[i] = 0;
+        }
+        return dest;
+    }
+
+    /**
+     * Send every tuple of a batch through a 4D transformation. The batch is
+     * processed column-wise in one loop; results match {@link #execute(Tuple)}
+     * exactly.
+     *
+     * @param in Tuples to transform.
+     * @param out Buffer to receive the results; may be in.
+     * @return out
+     */
+    public TupleBuffer executeBatch(TupleBuffer in, TupleBuffer out) {
+        return new Transform4(this).executeBatch(in, out);
     }
 
 }
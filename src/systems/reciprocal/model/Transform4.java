@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * 4D homogeneous transformation matrix in flat storage.
+ *
+ * Behaves exactly like a 4x4 {@link Transform}, with the same conventions and
+ * bit-for-bit the same results, but keeps its 16 elements in one array and
+ * folds scale, translate and rotate directly into the matrix instead of
+ * building a temporary matrix and multiplying by it.
+ *
+ * Element m[4 * a + b] is Transform.xform[a][b].
+ *
+ * @author Bruce Peret
+ */
+public class Transform4 {
+
+    /**
+     * Matrix elements; m[4 * a + b] corresponds to Transform.xform[a][b].
+     */
+    public final double[] m = new double[16];
+
+    /**
+     * Construct a scaled identity matrix.
+     *
+     * @param scale The scale to set the matrix to.
+     */
+    public Transform4(double scale) {
+        m[0] = scale;
+        m[5] = scale;
+        m[10] = scale;
+        m[15] = scale;
+    }
+
+    /**
+     * Construct an identity matrix.
+     */
+    public Transform4() {
+        this(1);
+    }
+
+    /**
+     * Copy a 4x4 Transform.
+     *
+     * @param t The transform to copy.
+     */
+    public Transform4(Transform t) {
+        if (t.xform.length != 4) {
+            throw new Error("Unsupported dimensions: " + t.xform.length);
+        }
+        for (int a = 0; a < 4; a++) {
+            System.arraycopy(t.xform[a], 0, m, 4 * a, 4);
+        }
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param t The transform to copy.
+     */
+    public Transform4(Transform4 t) {
+        System.arraycopy(t.m, 0, m, 0, 16);
+    }
+
+    /**
+     * Set this matrix from another.
+     *
+     * @param t The transform to copy.
+     * @return this
+     */
+    public Transform4 set(Transform4 t) {
+        System.arraycopy(t.m, 0, m, 0, 16);
+        return this;
+    }
+
+    /**
+     * Convert to a general Transform.
+     *
+     * @return Equivalent 4x4 Transform.
+     */
+    public Transform toTransform() {
+        Transform t = new Transform(4);
+        for (int a = 0; a < 4; a++) {
+            System.arraycopy(m, 4 * a, t.xform[a], 0, 4);
+        }
+        return t;
+    }
+
+    /**
+     * Convert the matrix to a textual representation.
+     *
+     * @return Textual representation of matrix.
+     */
+    @Override
+    public String toString() {
+        return toTransform().toString();
+    }
+
+    /*
+     * The general product sums from zero, so it never yields negative zero.
+     * Folded operations add 0.0 to their results to do the same.
+     */
+
+    /**
+     * Scale all dimensions by the same factor.
+     *
+     * @param s Scale factor
+     * @return this
+     */
+    public Transform4 scale(double s) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = m[i] * s + 0.0;
+        }
+        return this;
+    }
+
+    /**
+     * Scale each axis independently via a Tuple.
+     *
+     * @param v The 4D Tuple containing the scales for each axis.
+     * @return this
+     */
+    public Transform4 scale(Tuple v) {
+        double v0 = v.e[0];
+        double v1 = v.e[1];
+        double v2 = v.e[2];
+        double v3 = v.e[3];
+        for (int i = 0; i < 16; i += 4) {
+            m[i] = m[i] * v0 + 0.0;
+            m[i + 1] = m[i + 1] * v1 + 0.0;
+            m[i + 2] = m[i + 2] * v2 + 0.0;
+            m[i + 3] = m[i + 3] * v3 + 0.0;
+        }
+        return this;
+    }
+
+    /**
+     * Add a translation to the transformation by Tuple.
+     *
+     * @param v 4D Tuple containing translation vector.
+     * @return this
+     */
+    public Transform4 translate(Tuple v) {
+        double v0 = v.e[0];
+        double v1 = v.e[1];
+        double v2 = v.e[2];
+        double v3 = v.e[3];
+        for (int i = 0; i < 16; i += 4) {
+            double a0 = m[i];
+            m[i] = a0 * v0 + 0.0;
+            m[i + 1] = a0 * v1 + m[i + 1] + 0.0;
+            m[i + 2] = a0 * v2 + m[i + 2] + 0.0;
+            m[i + 3] = a0 * v3 + m[i + 3] + 0.0;
+        }
+        return this;
+    }
+
+    /**
+     * Add a translation to the transformation by array of doubles.
+     *
+     * @param v List or array of four doubles.
+     * @return this
+     */
+    public Transform4 translate(double... v) {
+        return translate(new Tuple(v));
+    }
+
+    /**
+     * Add a rotation transformation, as {@link Transform#rotate(Tuple)}.
+     *
+     * @param v 4D Tuple defining rotation for the x, y and z axes.
+     * @return this
+     */
+    public Transform4 rotate(Tuple v) {
+        if (v.e.length != 4) {
+            throw new Error("Unsupported dimensions for rotation.");
+        }
+        if (v.e[1] != 0) {
+            rotate(3, 2, v.e[1]);
+        }
+        if (v.e[2] != 0) {
+            rotate(1, 3, v.e[2]);
+        }
+        if (v.e[3] != 0) {
+            rotate(2, 1, v.e[3]);
+        }
+        return this;
+    }
+
+    /**
+     * Fold a plane rotation into the matrix: the product with a matrix whose
+     * [a][a] and [b][b] are cos, [a][b] is sin and [b][a] is -sin.
+     */
+    private void rotate(int a, int b, double angle) {
+        SinCos sc = SinCos.of(angle);
+        double cos = sc.cos;
+        double sin = sc.sin;
+        for (int i = 0; i < 16; i += 4) {
+            double ia = m[i + a];
+            double ib = m[i + b];
+            m[i + a] = ia * cos - ib * sin;
+            m[i + b] = ia * sin + ib * cos;
+        }
+        for (int i = 0; i < 16; i++) {
+            m[i] += 0.0;
+        }
+    }
+
+    /**
+     * Add a rotation given as a unit quaternion, as
+     * {@link Transform#rotateQuaternion(Tuple)}.
+     *
+     * @param q Unit quaternion.
+     * @return this
+     */
+    public Transform4 rotateQuaternion(Tuple q) {
+        double[] r = Quaternion.matrix(q, new double[9]);
+        for (int i = 0; i < 16; i += 4) {
+            double x = m[i + 1];
+            double y = m[i + 2];
+            double z = m[i + 3];
+            m[i] += 0.0;
+            m[i + 1] = 0.0 + x * r[0] + y * r[1] + z * r[2];
+            m[i + 2] = 0.0 + x * r[3] + y * r[4] + z * r[5];
+            m[i + 3] = 0.0 + x * r[6] + y * r[7] + z * r[8];
+        }
+        return this;
+    }
+
+    /**
+     * Multiply this matrix by another, in place.
+     *
+     * @param t Matrix to multiply by.
+     * @return this
+     */
+    public Transform4 multiply(Transform4 t) {
+        return multiply(t, this);
+    }
+
+    /**
+     * Multiply this matrix by another into a destination matrix, without
+     * allocating. The destination may be this or t.
+     *
+     * @param t Matrix to multiply by.
+     * @param dest Matrix to receive the product.
+     * @return dest
+     */
+    public Transform4 multiply(Transform4 t, Transform4 dest) {
+        double[] a = m;
+        double[] b = t.m;
+        double[] r = dest.m;
+        double b00 = b[0], b01 = b[1], b02 = b[2], b03 = b[3];
+        double b10 = b[4], b11 = b[5], b12 = b[6], b13 = b[7];
+        double b20 = b[8], b21 = b[9], b22 = b[10], b23 = b[11];
+        double b30 = b[12], b31 = b[13], b32 = b[14], b33 = b[15];
+        for (int i = 0; i < 16; i += 4) {
+            double a0 = a[i];
+            double a1 = a[i + 1];
+            double a2 = a[i + 2];
+            double a3 = a[i + 3];
+            r[i] = 0.0 + a0 * b00 + a1 * b10 + a2 * b20 + a3 * b30;
+            r[i + 1] = 0.0 + a0 * b01 + a1 * b11 + a2 * b21 + a3 * b31;
+            r[i + 2] = 0.0 + a0 * b02 + a1 * b12 + a2 * b22 + a3 * b32;
+            r[i + 3] = 0.0 + a0 * b03 + a1 * b13 + a2 * b23 + a3 * b33;
+        }
+        return dest;
+    }
+
+    /**
+     * Multiply the transformation by a 4D Tuple.
+     *
+     * @param t Tuple to send through execute.
+     * @return Transformed Tuple.
+     */
+    public Tuple execute(Tuple t) {
+        return execute(t, new Tuple(4));
+    }
+
+    /**
+     * Multiply the transformation by a 4D Tuple into a destination Tuple,
+     * without allocating. The destination may be t.
+     *
+     * @param t Tuple to send through execute.
+     * @param dest Tuple to receive the result.
+     * @return dest
+     */
+    public Tuple execute(Tuple t, Tuple dest) {
+        double[] v = t.e;
+        double[] r = dest.e;
+        double v0 = v[0];
+        double v1 = v[1];
+        double v2 = v[2];
+        double v3 = v[3];
+        r[0] = 0.0 + m[0] * v0 + m[4] * v1 + m[8] * v2 + m[12] * v3;
+        r[1] = 0.0 + m[1] * v0 + m[5] * v1 + m[9] * v2 + m[13] * v3;
+        r[2] = 0.0 + m[2] * v0 + m[6] * v1 + m[10] * v2 + m[14] * v3;
+        r[3] = 0.0 + m[3] * v0 + m[7] * v1 + m[11] * v2 + m[15] * v3;
+        return dest;
+    }
+
+    /**
+     * Send every tuple of a batch through the transformation.
+     *
+     * @param in Tuples to transform.
+     * @param out Buffer to receive the results; may be in.
+     * @return out
+     */
+    public TupleBuffer executeBatch(TupleBuffer in, TupleBuffer out) {
+        return in.execute(this, out, 0, in.size());
+    }
+}
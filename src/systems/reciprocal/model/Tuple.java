@@ -16,6 +16,8 @@
  */
 package systems.reciprocal.model;
 
+import java.util.Arrays;
+
 /**
  * Generic handling of a multidimensional tuple (vector).
  *
@@ -25,6 +27,12 @@ package systems.reciprocal.model;
  * coordinates in the form [w x y z] (not [x y z w]), which is the proper way to
  * express the vector.
  *
+ * Operations that return a Tuple come in three forms: one returning a new
+ * tuple, one writing into a caller-supplied destination of the same length
+ * (which may be this tuple), and an InPlace variant that updates this tuple.
+ * The destination forms do not allocate, and the supported lengths are
+ * written out element by element rather than looped.
+ *
  * @author Bruce Peret
  */
 public class Tuple {
@@ -117,6 +125,17 @@ public class Tuple {
         return this;
     }
 
+    /**
+     * Check a destination tuple has the same length as this one.
+     *
+     * @param dest Destination tuple.
+     */
+    private void same(Tuple dest) {
+        if (dest.e.length != e.length) {
+            throw new Error("Tuple length mismatch: " + dest.e.length + " for " + e.length);
+        }
+    }
+
     /**
      * Return a Normalized the tuple to a scaled length.
      *
@@ -124,12 +143,70 @@ public class Tuple {
      * @return Normalized tuple
      */
     public Tuple normalize(double scale) {
-        Tuple v = new Tuple(this);
-        double len = length();
-        for (int i = 0; i < v.e.length; i++) {
-            v.e[i] /= len / scale;
+        return normalize(scale, new Tuple(e.length));
+    }
+
+    /**
+     * Normalize the tuple to a scaled length into a destination tuple.
+     *
+     * @param scale The length to normalize to.
+     * @param dest Tuple of the same length to receive the result; may be this.
+     * @return dest
+     */
+    public Tuple normalize(double scale, Tuple dest) {
+        same(dest);
+        double d = length() / scale;
+        double[] s = e;
+        double[] r = dest.e;
+        switch (s.length) {
+            case 1:
+                r[0] = s[0] / d;
+                break;
+            case 2:
+                r[0] = s[0] / d;
+                r[1] = s[1] / d;
+                break;
+            case 4:
+                r[0] = s[0] / d;
+                r[1] = s[1] / d;
+                r[2] = s[2] / d;
+                r[3] = s[3] / d;
+                break;
+            case 8:
+                r[0] = s[0] / d;
+                r[1] = s[1] / d;
+                r[2] = s[2] / d;
+                r[3] = s[3] / d;
+                r[4] = s[4] / d;
+                r[5] = s[5] / d;
+                r[6] = s[6] / d;
+                r[7] = s[7] / d;
+                break;
+            default:
+                for (int i = 0; i < s.length; i++) {
+                    r[i] = s[i] / d;
+                }
         }
-        return v;
+        return dest;
+    }
+
+    /**
+     * Normalize this tuple to a scaled length.
+     *
+     * @param scale The length to normalize to.
+     * @return this
+     */
+    public Tuple normalizeInPlace(double scale) {
+        return normalize(scale, this);
+    }
+
+    /**
+     * Normalize this tuple to unit length.
+     *
+     * @return this
+     */
+    public Tuple normalizeInPlace() {
+        return normalize(1.0, this);
     }
 
     /**
@@ -148,12 +225,67 @@ public class Tuple {
      * @return The projected tuple.
      */
     public Tuple project(double w) {
-        Tuple v = new Tuple(this);
-        for (int i = 1; i < v.e.length; i++) {
-            v.e[i] /= v.e[0] / w;
+        return project(w, new Tuple(e.length));
+    }
+
+    /**
+     * Project the tuple onto the specific W plane into a destination tuple.
+     *
+     * @param w The numerical value of the projective plane.
+     * @param dest Tuple of the same length to receive the result; may be this.
+     * @return dest
+     */
+    public Tuple project(double w, Tuple dest) {
+        same(dest);
+        double[] s = e;
+        double[] r = dest.e;
+        double d = s[0] / w;
+        switch (s.length) {
+            case 1:
+                break;
+            case 2:
+                r[1] = s[1] / d;
+                break;
+            case 4:
+                r[1] = s[1] / d;
+                r[2] = s[2] / d;
+                r[3] = s[3] / d;
+                break;
+            case 8:
+                r[1] = s[1] / d;
+                r[2] = s[2] / d;
+                r[3] = s[3] / d;
+                r[4] = s[4] / d;
+                r[5] = s[5] / d;
+                r[6] = s[6] / d;
+                r[7] = s[7] / d;
+                break;
+            default:
+                for (int i = 1; i < s.length; i++) {
+                    r[i] = s[i] / d;
+                }
         }
-        v.e[0] = w;
-        return v;
+        r[0] = w;
+        return dest;
+    }
+
+    /**
+     * Project this tuple onto the specific W plane.
+     *
+     * @param w The numerical value of the projective plane.
+     * @return this
+     */
+    public Tuple projectInPlace(double w) {
+        return project(w, this);
+    }
+
+    /**
+     * Project this tuple onto the unit plane (unitize).
+     *
+     * @return this
+     */
+    public Tuple projectInPlace() {
+        return project(1.0, this);
     }
 
     /**
@@ -171,11 +303,24 @@ public class Tuple {
      * @return Tuple length squared
      */
     public double length2() {
-        double sum = 0;
-        for (double x : e) {
-            sum += x * x;
+        double[] s = e;
+        switch (s.length) {
+            case 1:
+                return s[0] * s[0];
+            case 2:
+                return s[0] * s[0] + s[1] * s[1];
+            case 4:
+                return s[0] * s[0] + s[1] * s[1] + s[2] * s[2] + s[3] * s[3];
+            case 8:
+                return s[0] * s[0] + s[1] * s[1] + s[2] * s[2] + s[3] * s[3]
+                    + s[4] * s[4] + s[5] * s[5] + s[6] * s[6] + s[7] * s[7];
+            default:
+                double sum = 0;
+                for (double x : s) {
+                    sum += x * x;
+                }
+                return sum;
         }
-        return sum;
     }
 
     /**
@@ -197,4 +342,45 @@ public class Tuple {
         id.e[0] = 1;
         return id;
     }
+
+    /**
+     * Set a destination tuple to the identity [1, 0, ...].
+     *
+     * @param dest Tuple of the same length to receive the identity; may be
+     * this.
+     * @return dest
+     */
+    public Tuple identity(Tuple dest) {
+        same(dest);
+        double[] r = dest.e;
+        switch (r.length) {
+            case 1:
+                r[0] = 1;
+                break;
+            case 2:
+                r[0] = 1;
+                r[1] = 0;
+                break;
+            case 4:
+                r[0] = 1;
+                r[1] = 0;
+                r[2] = 0;
+                r[3] = 0;
+                break;
+            case 8:
+                r[0] = 1;
+                r[1] = 0;
+                r[2] = 0;
+                r[3] = 0;
+                r[4] = 0;
+                r[5] = 0;
+                r[6] = 0;
+                r[7] = 0;
+                break;
+            default:
+                Arrays.fill(r, 0);
+                r[0] = 1;
+        }
+        return dest;
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+/**
+ * A batch of homogeneous 4D tuples [w x y z], stored as one array per
+ * coordinate (structure of arrays).
+ *
+ * Batch operations run one simple loop over the columns, with no per-tuple
+ * objects, which the JIT compiler can unroll and vectorize. Each produces
+ * the same values, bit for bit, as the matching single Tuple operation.
+ * Input and output buffers may be the same buffer.
+ *
+ * @author Bruce Peret
+ */
+public class TupleBuffer {
+
+    /**
+     * Projective (w) coordinates.
+     */
+    public final double[] w;
+    /**
+     * X coordinates.
+     */
+    public final double[] x;
+    /**
+     * Y coordinates.
+     */
+    public final double[] y;
+    /**
+     * Z coordinates.
+     */
+    public final double[] z;
+
+    /**
+     * Create a buffer of n zero tuples.
+     *
+     * @param n Number of tuples.
+     */
+    public TupleBuffer(int n) {
+        w = new double[n];
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+    }
+
+    /**
+     * @return Number of tuples.
+     */
+    public int size() {
+        return w.length;
+    }
+
+    /**
+     * Copy a tuple into the buffer.
+     *
+     * @param i Tuple index.
+     * @param t 4D tuple.
+     * @return this
+     */
+    public TupleBuffer set(int i, Tuple t) {
+        w[i] = t.e[0];
+        x[i] = t.e[1];
+        y[i] = t.e[2];
+        z[i] = t.e[3];
+        return this;
+    }
+
+    /**
+     * Set a tuple in the buffer.
+     *
+     * @param i Tuple index.
+     * @param w Projective coordinate.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @param z Z coordinate.
+     * @return this
+     */
+    public TupleBuffer set(int i, double w, double x, double y, double z) {
+        this.w[i] = w;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        return this;
+    }
+
+    /**
+     * Copy a tuple out of the buffer.
+     *
+     * @param i Tuple index.
+     * @param dest 4D tuple to receive the values.
+     * @return dest
+     */
+    public Tuple get(int i, Tuple dest) {
+        dest.e[0] = w[i];
+        dest.e[1] = x[i];
+        dest.e[2] = y[i];
+        dest.e[3] = z[i];
+        return dest;
+    }
+
+    /**
+     * Copy a tuple out of the buffer.
+     *
+     * @param i Tuple index.
+     * @return New 4D tuple.
+     */
+    public Tuple get(int i) {
+        return get(i, new Tuple(4));
+    }
+
+    private void check(TupleBuffer out, int from, int to) {
+        if (from < 0 || to > w.length || to > out.w.length || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to);
+        }
+    }
+
+    /**
+     * Project every tuple onto the specific W plane, as
+     * {@link Tuple#project(double)}.
+     *
+     * @param wp The numerical value of the projective plane.
+     * @param out Buffer to receive the projected tuples; may be this.
+     * @return out
+     */
+    public TupleBuffer project(double wp, TupleBuffer out) {
+        return project(wp, out, 0, w.length);
+    }
+
+    /**
+     * Project a range of tuples onto the specific W plane.
+     *
+     * @param wp The numerical value of the projective plane.
+     * @param out Buffer to receive the projected tuples; may be this.
+     * @param from First tuple index, inclusive.
+     * @param to Last tuple index, exclusive.
+     * @return out
+     */
+    public TupleBuffer project(double wp, TupleBuffer out, int from, int to) {
+        check(out, from, to);
+        double[] iw = w, ix = x, iy = y, iz = z;
+        double[] ow = out.w, ox = out.x, oy = out.y, oz = out.z;
+        for (int i = from; i < to; i++) {
+            double d = iw[i] / wp;
+            ox[i] = ix[i] / d;
+            oy[i] = iy[i] / d;
+            oz[i] = iz[i] / d;
+            ow[i] = wp;
+        }
+        return out;
+    }
+
+    /**
+     * Normalize every tuple to a scaled length, as
+     * {@link Tuple#normalize(double)}.
+     *
+     * @param scale The length to normalize to.
+     * @param out Buffer to receive the normalized tuples; may be this.
+     * @return out
+     */
+    public TupleBuffer normalize(double scale, TupleBuffer out) {
+        return normalize(scale, out, 0, w.length);
+    }
+
+    /**
+     * Normalize a range of tuples to a scaled length.
+     *
+     * @param scale The length to normalize to.
+     * @param out Buffer to receive the normalized tuples; may be this.
+     * @param from First tuple index, inclusive.
+     * @param to Last tuple index, exclusive.
+     * @return out
+     */
+    public TupleBuffer normalize(double scale, TupleBuffer out, int from, int to) {
+        check(out, from, to);
+        double[] iw = w, ix = x, iy = y, iz = z;
+        double[] ow = out.w, ox = out.x, oy = out.y, oz = out.z;
+        for (int i = from; i < to; i++) {
+            double a = iw[i], b = ix[i], c = iy[i], e = iz[i];
+            double d = Math.sqrt(a * a + b * b + c * c + e * e) / scale;
+            ow[i] = a / d;
+            ox[i] = b / d;
+            oy[i] = c / d;
+            oz[i] = e / d;
+        }
+        return out;
+    }
+
+    /**
+     * Compute the length of every tuple, as {@link Tuple#length()}.
+     *
+     * @param dest Array of at least {@link #size()} elements to receive the
+     * lengths.
+     * @return dest
+     */
+    public double[] length(double[] dest) {
+        double[] iw = w, ix = x, iy = y, iz = z;
+        for (int i = 0; i < iw.length; i++) {
+            dest[i] = Math.sqrt(iw[i] * iw[i] + ix[i] * ix[i] + iy[i] * iy[i] + iz[i] * iz[i]);
+        }
+        return dest;
+    }
+
+    /**
+     * Send a range of tuples through a 4D transformation, as
+     * {@link Transform4#execute(Tuple)}.
+     *
+     * @param t Transformation.
+     * @param out Buffer to receive the results; may be this.
+     * @param from First tuple index, inclusive.
+     * @param to Last tuple index, exclusive.
+     * @return out
+     */
+    public TupleBuffer execute(Transform4 t, TupleBuffer out, int from, int to) {
+        check(out, from, to);
+        double[] m = t.m;
+        double m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+        double m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        double m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11];
+        double m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+        double[] iw = w, ix = x, iy = y, iz = z;
+        double[] ow = out.w, ox = out.x, oy = out.y, oz = out.z;
+        for (int i = from; i < to; i++) {
+            double v0 = iw[i], v1 = ix[i], v2 = iy[i], v3 = iz[i];
+            ow[i] = 0.0 + m0 * v0 + m4 * v1 + m8 * v2 + m12 * v3;
+            ox[i] = 0.0 + m1 * v0 + m5 * v1 + m9 * v2 + m13 * v3;
+            oy[i] = 0.0 + m2 * v0 + m6 * v1 + m10 * v2 + m14 * v3;
+            oz[i] = 0.0 + m3 * v0 + m7 * v1 + m11 * v2 + m15 * v3;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Bruce Peret
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package systems.reciprocal.model;
+
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Octonion checked against a recursive Cayley-Dickson product.
+ *
+ * @author Bruce Peret
+ */
+public class OctonionTest {
+
+    private static final double EPSILON = 1e-12;
+    private static final int SAMPLES = 200;
+
+    /**
+     * Reference product by recursive doubling: with a = (p, q) and
+     * b = (r, s), ab = (pr - s*q, sp + qr*).
+     */
+    private static double[] product(double[] a, double[] b) {
+        int n = a.length;
+        if (n == 1) {
+            return new double[]{a[0] * b[0]};
+        }
+        int h = n / 2;
+        double[] p = Arrays.copyOfRange(a, 0, h), q = Arrays.copyOfRange(a, h, n);
+        double[] r = Arrays.copyOfRange(b, 0, h), s = Arrays.copyOfRange(b, h, n);
+        double[] left = subtract(product(p, r), product(conjugate(s), q));
+        double[] right = add(product(s, p), product(q, conjugate(r)));
+        double[] ab = new double[n];
+        System.arraycopy(left, 0, ab, 0, h);
+        System.arraycopy(right, 0, ab, h, h);
+        return ab;
+    }
+
+    private static double[] conjugate(double[] a) {
+        double[] c = new double[a.length];
+        c[0] = a[0];
+        for (int i = 1; i < a.length; i++) {
+            c[i] = -a[i];
+        }
+        return c;
+    }
+
+    private static double[] add(double[] a, double[] b) {
+        double[] c = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            c[i] = a[i] + b[i];
+        }
+        return c;
+    }
+
+    private static double[] subtract(double[] a, double[] b) {
+        double[] c = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            c[i] = a[i] - b[i];
+        }
+        return c;
+    }
+
+    private static double[] random(Random random) {
+        double[] e = new double[8];
+        for (int i = 0; i < 8; i++) {
+            e[i] = random.nextDouble() * 2 - 1;
+        }
+        return e;
+    }
+
+    private static Tuple unit(Random random) {
+        Tuple q = new Tuple(random(random));
+        double n = Octonion.norm(q);
+        for (int i = 0; i < 8; i++) {
+            q.e[i] /= n;
+        }
+        return q;
+    }
+
+    @Test
+    public void basisProducts() {
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                double[] a = new double[8], b = new double[8];
+                a[i] = 1;
+                b[j] = 1;
+                assertArrayEquals("e" + i + " * e" + j, product(a, b),
+                    Octonion.multiply(new Tuple(a), new Tuple(b)).e, 0);
+            }
+        }
+    }
+
+    @Test
+    public void multiply() {
+        Random random = new Random(1);
+        for (int n = 0; n < SAMPLES; n++) {
+            double[] a = random(random), b = random(random);
+            assertArrayEquals(product(a, b), Octonion.multiply(new Tuple(a), new Tuple(b)).e, EPSILON);
+        }
+    }
+
+    @Test
+    public void multiplyInPlace() {
+        Random random = new Random(2);
+        double[] a = random(random), b = random(random);
+        Tuple ta = new Tuple(a.clone());
+        Octonion.multiply(ta, new Tuple(b), ta);
+        assertArrayEquals(product(a, b), ta.e, EPSILON);
+        Tuple tb = new Tuple(b.clone());
+        Octonion.multiply(new Tuple(a), tb, tb);
+        assertArrayEquals(product(a, b), tb.e, EPSILON);
+    }
+
+    @Test
+    public void quaternionSubalgebra() {
+        Random random = new Random(3);
+        for (int n = 0; n < SAMPLES; n++) {
+            double[] a = random(random), b = random(random);
+            Arrays.fill(a, 4, 8, 0);
+            Arrays.fill(b, 4, 8, 0);
+            Tuple q = Quaternion.multiply(new Tuple(Arrays.copyOf(a, 4)), new Tuple(Arrays.copyOf(b, 4)));
+            assertArrayEquals(Arrays.copyOf(q.e, 8), Octonion.multiply(new Tuple(a), new Tuple(b)).e, EPSILON);
+        }
+    }
+
+    @Test
+    public void normIsMultiplicative() {
+        Random random = new Random(4);
+        for (int n = 0; n < SAMPLES; n++) {
+            Tuple a = new Tuple(random(random)), b = new Tuple(random(random));
+            assertEquals(Octonion.norm(a) * Octonion.norm(b), Octonion.norm(Octonion.multiply(a, b)), EPSILON);
+        }
+    }
+
+    @Test
+    public void conjugateProductIsNormSquared() {
+        Random random = new Random(5);
+        for (int n = 0; n < SAMPLES; n++) {
+            Tuple a = new Tuple(random(random));
+            double[] expected = new double[8];
+            expected[0] = a.length2();
+            assertArrayEquals(expected, Octonion.multiply(a, Octonion.conjugate(a)).e, EPSILON);
+        }
+    }
+
+    @Test
+    public void inverse() {
+        Random random = new Random(6);
+        for (int n = 0; n < SAMPLES; n++) {
+            Tuple a = new Tuple(random(random));
+            Tuple inverse = Octonion.inverse(a, new Tuple(8));
+            assertArrayEquals(Octonion.identity().e, Octonion.multiply(a, inverse).e, EPSILON);
+            assertArrayEquals(Octonion.identity().e, Octonion.multiply(inverse, a).e, EPSILON);
+        }
+    }
+
+    @Test
+    public void rotatePreservesNormAndRealPart() {
+        Random random = new Random(7);
+        for (int n = 0; n < SAMPLES; n++) {
+            Tuple q = unit(random);
+            Tuple v = new Tuple(random(random));
+            Tuple r = Octonion.rotate(q, v);
+            assertEquals(Octonion.norm(v), Octonion.norm(r), EPSILON);
+            assertEquals(v.e[0], r.e[0], EPSILON);
+            assertArrayEquals(product(product(q.e, v.e), conjugate(q.e)), r.e, EPSILON);
+        }
+    }
+
+    @Test
+    public void rotateInPlace() {
+        Random random = new Random(11);
+        Tuple q = unit(random);
+        Tuple v = new Tuple(random(random));
+        Tuple expected = Octonion.rotate(q, v);
+        Tuple tv = new Tuple(v.e.clone());
+        Octonion.rotate(q, tv, tv);
+        assertArrayEquals(expected.e, tv.e, 0);
+        Tuple tq = new Tuple(q.e.clone());
+        Octonion.rotate(tq, v, tq);
+        assertArrayEquals(expected.e, tq.e, 0);
+    }
+
+    @Test
+    public void transformMatchesRotate() {
+        Random random = new Random(8);
+        for (int n = 0; n < SAMPLES; n++) {
+            Tuple q = unit(random);
+            Tuple v = new Tuple(random(random));
+            Tuple r = new Tuple(8);
+            Octonion.toTransform(q).execute(v, r);
+            assertArrayEquals(Octonion.rotate(q, v).e, r.e, EPSILON);
+        }
+    }
+
+    @Test
+    public void batchMultiplyAgrees() {
+        Random random = new Random(9);
+        Tuple q = new Tuple(random(random));
+        double[] in = new double[8 * SAMPLES];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = random.nextDouble() * 2 - 1;
+        }
+        double[] out = Octonion.multiply(q, in, new double[in.length], 1, SAMPLES - 1);
+        for (int i = 0; i < SAMPLES; i++) {
+            double[] v = Arrays.copyOfRange(in, 8 * i, 8 * i + 8);
+            double[] expected = i == 0 || i == SAMPLES - 1 ? new double[8] : Octonion.multiply(q, new Tuple(v)).e;
+            assertArrayEquals("octonion " + i, expected, Arrays.copyOfRange(out, 8 * i, 8 * i + 8), 0);
+        }
+    }
+
+    @Test
+    public void batchRotateAgrees() {
+        Random random = new Random(10);
+        Tuple q = unit(random);
+        double[] in = new double[8 * SAMPLES];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = random.nextDouble() * 2 - 1;
+        }
+        double[] out = Octonion.rotate(q, in, new double[in.length], 0, SAMPLES);
+        for (int i = 0; i < SAMPLES; i++) {
+            double[] v = Arrays.copyOfRange(in, 8 * i, 8 * i + 8);
+            double[] r = Arrays.copyOfRange(out, 8 * i, 8 * i + 8);
+            assertArrayEquals("octonion " + i, Octonion.rotate(q, new Tuple(v)).e, r, EPSILON);
+            assertEquals("octonion " + i, Octonion.norm(new Tuple(v)), Octonion.norm(new Tuple(r)), EPSILON);
+        }
+        Octonion.rotate(q, in, in, 0, SAMPLES);
+        assertArrayEquals(out, in, 0);
+    }
+
+    @Test(expected = Error.class)
+    public void rejectsOtherDimensions() {
+        Octonion.multiply(new Tuple(4), Octonion.identity());
+    }
+}